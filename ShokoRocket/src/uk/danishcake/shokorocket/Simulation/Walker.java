@@ -29,6 +29,9 @@ public class Walker {
 	private WalkerType mWalkerType = WalkerType.Unknown;
 	private WalkerState mWalkerState = WalkerState.Alive;
 	private boolean mFirstAdvance = true;
+	private static final Direction[] mDirections = Direction.values();
+	private static final WalkerType[] mWalkerTypes = WalkerType.values();
+	private static final WalkerState[] mWalkerStates = WalkerState.values();
 	
 	/* Gets the position of the walker
 	 * @return The position of the walker
@@ -190,11 +193,60 @@ public class Walker {
 		}
 	}
 	
+	/* advancesToNewSquare
+	 * Counts the calls of Advance(timespan) up to and including the one in which the walker
+	 * next reaches a new square. The first advance always reaches the starting square
+	 */
+	int advancesToNewSquare(int timespan) {
+		if(mFirstAdvance)
+			return 1;
+		int per_advance = mSpeed * timespan;
+		if(per_advance <= 0)
+			return Integer.MAX_VALUE;
+		return (FractionReset - mFractional + per_advance - 1) / per_advance;
+	}
+	
 	public void DeathTick(int timespan)
 	{
 		mDeathTime += timespan;
 	}
 	
+	/* writeSnapshot
+	 * Writes all the state of the walker except the world it is in
+	 */
+	void writeSnapshot(WorldSnapshot snapshot) {
+		snapshot.writeInt(mX);
+		snapshot.writeInt(mY);
+		snapshot.writeInt(mStartingX);
+		snapshot.writeInt(mStartingY);
+		snapshot.writeInt(mFractional);
+		snapshot.writeInt(mDeathTime);
+		snapshot.writeInt(mSpeed);
+		snapshot.writeInt(mDirection.ordinal());
+		snapshot.writeInt(mStartingDirection.ordinal());
+		snapshot.writeInt(mWalkerType.ordinal());
+		snapshot.writeInt(mWalkerState.ordinal());
+		snapshot.writeBoolean(mFirstAdvance);
+	}
+	
+	/* readSnapshot
+	 * Reads what writeSnapshot wrote
+	 */
+	void readSnapshot(WorldSnapshot snapshot) {
+		mX = snapshot.readInt();
+		mY = snapshot.readInt();
+		mStartingX = snapshot.readInt();
+		mStartingY = snapshot.readInt();
+		mFractional = snapshot.readInt();
+		mDeathTime = snapshot.readInt();
+		mSpeed = snapshot.readInt();
+		mDirection = mDirections[snapshot.readInt()];
+		mStartingDirection = mDirections[snapshot.readInt()];
+		mWalkerType = mWalkerTypes[snapshot.readInt()];
+		mWalkerState = mWalkerStates[snapshot.readInt()];
+		mFirstAdvance = snapshot.readBoolean();
+	}
+	
 	/* Reset
 	 * Restores starting position and revives the dead or rescued
 	 */
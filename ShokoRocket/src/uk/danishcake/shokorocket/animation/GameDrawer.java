@@ -18,6 +18,7 @@ import uk.danishcake.shokorocket.simulation.SPWorld;
 import uk.danishcake.shokorocket.simulation.SquareType;
 import uk.danishcake.shokorocket.simulation.Vector2i;
 import uk.danishcake.shokorocket.simulation.Walker;
+import uk.danishcake.shokorocket.simulation.WalkerList;
 import uk.danishcake.shokorocket.simulation.WorldBase;
 import uk.danishcake.shokorocket.simulation.Walker.WalkerState;
 
@@ -592,11 +593,11 @@ public class GameDrawer {
 		
 		
 		//Draw cats & mice
-		ArrayList<Walker> mice = world.getLiveMice();
-		ArrayList<Walker> cats = world.getLiveCats();
-		for (Walker walker : mice) {
+		WalkerList mice = world.getLiveMice();
+		WalkerList cats = world.getLiveCats();
+		for (int i = 0; i < mice.size(); i++) {
 			EnumMap<Direction, Animation> mouse_type;
-			switch(walker.getWalkerType()){
+			switch(mice.getWalkerType(i)){
 				case Mouse:
 				default:
 					mouse_type = mMouseAnimations;
@@ -608,25 +609,24 @@ public class GameDrawer {
 					mouse_type = mSpecialMouseAnimations;
 					break;
 			}
-			Vector2i position = walker.getPosition();
-			int x = position.x * mGridSize + mDrawOffsetX;
-			int y = position.y * mGridSize + mDrawOffsetY;
-			switch(walker.getDirection())
+			int x = mice.getX(i) * mGridSize + mDrawOffsetX;
+			int y = mice.getY(i) * mGridSize + mDrawOffsetY;
+			switch(mice.getDirection(i))
 			{
 			case North:
-				y -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y -= (mGridSize * mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case South:
-				y += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y += (mGridSize * mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case East:
-				x += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x += (mGridSize * mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case West:
-				x -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x -= (mGridSize * mice.getFraction(i) / Walker.FractionReset);
 				break;
 			}
-			Animation animation = mouse_type.get(walker.getDirection());
+			Animation animation = mouse_type.get(mice.getDirection(i));
 			if(animation != null)
 			{
 				if(++sprite_count > mRenderItems.size())
@@ -639,26 +639,25 @@ public class GameDrawer {
 				ri.animation = animation;
 			}
 		}
-		for (Walker walker : cats) {
-			Vector2i position = walker.getPosition();
-			int x = position.x * mGridSize + mDrawOffsetX;
-			int y = position.y * mGridSize + mDrawOffsetY;
-			switch(walker.getDirection())
+		for (int i = 0; i < cats.size(); i++) {
+			int x = cats.getX(i) * mGridSize + mDrawOffsetX;
+			int y = cats.getY(i) * mGridSize + mDrawOffsetY;
+			switch(cats.getDirection(i))
 			{
 			case North:
-				y -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y -= (mGridSize * cats.getFraction(i) / Walker.FractionReset);
 				break;
 			case South:
-				y += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y += (mGridSize * cats.getFraction(i) / Walker.FractionReset);
 				break;
 			case East:
-				x += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x += (mGridSize * cats.getFraction(i) / Walker.FractionReset);
 				break;
 			case West:
-				x -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x -= (mGridSize * cats.getFraction(i) / Walker.FractionReset);
 				break;
 			}
-			Animation animation = mCatAnimations.get(walker.getDirection());
+			Animation animation = mCatAnimations.get(cats.getDirection(i));
 			if(animation != null)
 			{
 				if(++sprite_count > mRenderItems.size())
@@ -678,10 +677,11 @@ public class GameDrawer {
 			RenderItem ri = mRenderItems.get(i);
 			ri.animation.DrawCurrentFrame(canvas, ri.x, ri.y);
 		}
-		for(Walker walker : world.getDeadMice())
+		WalkerList dead_mice = world.getDeadMice();
+		for(int i = 0; i < dead_mice.size(); i++)
 		{
 			Animation mouse_anim;
-			switch(walker.getWalkerType())
+			switch(dead_mice.getWalkerType(i))
 			{
 			case Mouse:
 			default:
@@ -694,38 +694,38 @@ public class GameDrawer {
 				mouse_anim = mSpecialMouseDeathAnimation;
 				break;
 			}
-			Vector2i position = walker.getPosition();
-			int x = position.x * mGridSize + mDrawOffsetX;
-			int y = position.y * mGridSize + mDrawOffsetY;
-			switch(walker.getDirection())
+			int x = dead_mice.getX(i) * mGridSize + mDrawOffsetX;
+			int y = dead_mice.getY(i) * mGridSize + mDrawOffsetY;
+			switch(dead_mice.getDirection(i))
 			{
 			case North:
-				y -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y -= (mGridSize * dead_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case South:
-				y += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y += (mGridSize * dead_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case East:
-				x += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x += (mGridSize * dead_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case West:
-				x -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x -= (mGridSize * dead_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			}
 			
 			mRingAnimation.DrawCurrentFrame(canvas, x, y);
 			
-			int death_time = walker.getDeathTime();
+			int death_time = dead_mice.getDeathTime(i);
 			if(death_time < 5000)
 			{
-				y -= walker.getDeathTime() * 20 / 5000;
+				y -= dead_mice.getDeathTime(i) * 20 / 5000;
 				mouse_anim.DrawFrameAtTime(canvas, x, y, death_time / 5);
 			}
 		}
-		for(Walker walker : world.getRescuedMice())
+		WalkerList rescued_mice = world.getRescuedMice();
+		for(int i = 0; i < rescued_mice.size(); i++)
 		{
 			Animation mouse_anim;
-			switch(walker.getWalkerType())
+			switch(rescued_mice.getWalkerType(i))
 			{
 			case Mouse:
 			default:
@@ -739,57 +739,56 @@ public class GameDrawer {
 				break;
 			}
 
-			Vector2i position = walker.getPosition();
-			int x = position.x * mGridSize + mDrawOffsetX;
-			int y = position.y * mGridSize + mDrawOffsetY;
-			switch(walker.getDirection())
+			int x = rescued_mice.getX(i) * mGridSize + mDrawOffsetX;
+			int y = rescued_mice.getY(i) * mGridSize + mDrawOffsetY;
+			switch(rescued_mice.getDirection(i))
 			{
 			case North:
-				y -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y -= (mGridSize * rescued_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case South:
-				y += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y += (mGridSize * rescued_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case East:
-				x += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x += (mGridSize * rescued_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			case West:
-				x -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x -= (mGridSize * rescued_mice.getFraction(i) / Walker.FractionReset);
 				break;
 			}
 			
-			int death_time = walker.getDeathTime();
+			int death_time = rescued_mice.getDeathTime(i);
 			if(death_time < 5000)
 			{
 				mouse_anim.DrawFrameAtTime(canvas, x, y, death_time / 5);
 			}
 		}
-		for(Walker walker : world.getDeadCats())
+		WalkerList dead_cats = world.getDeadCats();
+		for(int i = 0; i < dead_cats.size(); i++)
 		{
-			Vector2i position = walker.getPosition();
-			int x = position.x * mGridSize + mDrawOffsetX;
-			int y = position.y * mGridSize + mDrawOffsetY;
-			switch(walker.getDirection())
+			int x = dead_cats.getX(i) * mGridSize + mDrawOffsetX;
+			int y = dead_cats.getY(i) * mGridSize + mDrawOffsetY;
+			switch(dead_cats.getDirection(i))
 			{
 			case North:
-				y -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y -= (mGridSize * dead_cats.getFraction(i) / Walker.FractionReset);
 				break;
 			case South:
-				y += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				y += (mGridSize * dead_cats.getFraction(i) / Walker.FractionReset);
 				break;
 			case East:
-				x += (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x += (mGridSize * dead_cats.getFraction(i) / Walker.FractionReset);
 				break;
 			case West:
-				x -= (mGridSize * walker.getFraction() / Walker.FractionReset);
+				x -= (mGridSize * dead_cats.getFraction(i) / Walker.FractionReset);
 				break;
 			}
-			if(walker.getWalkerState() == WalkerState.Rescued)
+			if(dead_cats.getWalkerState(i) == WalkerState.Rescued)
 			{
 				mRingAnimation.DrawCurrentFrame(canvas, x, y);
 			}
 			
-			int death_time = walker.getDeathTime();
+			int death_time = dead_cats.getDeathTime(i);
 			if(death_time < 5000)
 			{
 				mCatDeathAnimation.DrawFrameAtTime(canvas, x, y, death_time / 5);
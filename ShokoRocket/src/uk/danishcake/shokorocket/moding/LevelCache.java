@@ -0,0 +1,134 @@
+package uk.danishcake.shokorocket.moding;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import uk.danishcake.shokorocket.simulation.SPWorld;
+
+/**
+ * Loads levels for the menu on a background thread, so the game thread never waits
+ * on a level being parsed. The most recently used levels are kept, and each request
+ * hands out a new world built from the cached binary form of the level, so the cached
+ * copy can not be altered by the caller. The level indices are saved each time the
+ * levels queued have all loaded, rather than once for every level.
+ * @author Edward Woolhouse
+ */
+public class LevelCache {
+	private Progress mProgress;
+	private LinkedHashMap<String, LevelIndex.Entry> mEntries;
+	private HashSet<String> mPending = new HashSet<String>();
+	private HashSet<String> mFailed = new HashSet<String>();
+	private int mGeneration = 0; //Loads started before the last clear are discarded
+	private ExecutorService mLoader;
+
+	/**
+	 * Loads a single level into the cache
+	 */
+	private class LoadTask implements Runnable {
+		private String mLevelName;
+		private int mTaskGeneration;
+
+		public LoadTask(String level_name, int generation) {
+			mLevelName = level_name;
+			mTaskGeneration = generation;
+		}
+
+		@Override
+		public void run() {
+			LevelIndex.Entry entry = null;
+			try
+			{
+				entry = mProgress.getLevelInfo(mLevelName);
+			} catch(IOException io_ex)
+			{
+				//Reported to the caller as failed
+			}
+			boolean drained;
+			synchronized(LevelCache.this)
+			{
+				if(mTaskGeneration == mGeneration)
+				{
+					mPending.remove(mLevelName);
+					if(entry != null)
+						mEntries.put(mLevelName, entry);
+					else
+						mFailed.add(mLevelName);
+				}
+				drained = mPending.isEmpty();
+			}
+			if(drained)
+				mProgress.saveIndices();
+		}
+	}
+
+	/**
+	 * @param capacity the number of levels to keep
+	 */
+	public LevelCache(Progress progress, final int capacity) {
+		mProgress = progress;
+		mEntries = new LinkedHashMap<String, LevelIndex.Entry>(capacity + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, LevelIndex.Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+		mLoader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LevelCache");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Gets a level without waiting for it to load. If not yet loaded it is queued to load,
+	 * and null is returned; call again later to get it.
+	 * @param level_name the level in the form returned by Progress.getLevel
+	 * @return a new world for the level, or null if still loading
+	 * @throws IOException if the level failed to load. Later calls will try to load it again
+	 */
+	public synchronized SPWorld getWorld(String level_name) throws IOException {
+		LevelIndex.Entry entry = mEntries.get(level_name);
+		if(entry != null)
+		{
+			SPWorld world = entry.getPreview();
+			Progress.setWorldName(world, level_name);
+			return world;
+		}
+		if(mFailed.remove(level_name))
+			throw new IOException("Unable to load level " + level_name);
+		prefetch(level_name);
+		return null;
+	}
+
+	/**
+	 * Queues a level to be loaded if not already cached or loading
+	 */
+	public synchronized void prefetch(String level_name) {
+		if(mEntries.containsKey(level_name) || mPending.contains(level_name))
+			return;
+		mFailed.remove(level_name);
+		mPending.add(level_name);
+		mLoader.execute(new LoadTask(level_name, mGeneration));
+	}
+
+	/**
+	 * Discards all cached levels, eg after the level list has been reloaded
+	 */
+	public synchronized void clear() {
+		mGeneration++;
+		mEntries.clear();
+		mPending.clear();
+		mFailed.clear();
+	}
+}
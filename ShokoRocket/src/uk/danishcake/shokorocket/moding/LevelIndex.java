@@ -0,0 +1,218 @@
+package uk.danishcake.shokorocket.moding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import uk.danishcake.shokorocket.simulation.SPWorld;
+import uk.danishcake.shokorocket.simulation.SquareType;
+
+/**
+ * Summary of each level in a pack, so the menu can browse without parsing levels.
+ * The index as a whole carries a stamp (eg the app version for the asset packs), and
+ * each entry its own stamp (eg the file modification time for SD card levels). A stale
+ * entry whose content hash is unchanged is reused without parsing the level again.
+ * @author Edward Woolhouse
+ */
+public class LevelIndex {
+	private static final int INDEX_MAGIC = 0x53524958; //SRIX
+	private static final int INDEX_VERSION = 1;
+
+	/**
+	 * The summary of a single level. The preview is the level in the binary format,
+	 * which loads in microseconds, for the menu to draw.
+	 */
+	public static class Entry
+	{
+		public String filename = "";
+		public long stamp = 0;
+		public long hash = 0;
+		public String name = "";
+		public String author = "";
+		public int width = 0;
+		public int height = 0;
+		public int mice = 0;
+		public int cats = 0;
+		public int rockets = 0;
+		public int holes = 0;
+		public int arrows = 0;
+		public byte[] preview = new byte[0];
+
+		/**
+		 * Loads the preview of the level
+		 */
+		public SPWorld getPreview() throws IOException {
+			return SPWorld.LoadBinary(new ByteArrayInputStream(preview));
+		}
+	}
+
+	private String mStamp;
+	private HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+	private boolean mDirty = false;
+
+	public LevelIndex(String stamp) {
+		mStamp = stamp;
+	}
+
+	/**
+	 * Gets the entry for a level if it is up to date
+	 * @param data the level, only read if the entry is out of date. May be null if unavailable
+	 * @return the entry, or null if missing or out of date
+	 */
+	public Entry get(String filename, long stamp, byte[] data) {
+		Entry entry = mEntries.get(filename);
+		if(entry == null)
+			return null;
+		if(entry.stamp == stamp)
+			return entry;
+		if(data != null && entry.hash == Hash(data))
+		{
+			//Touched but not changed
+			entry.stamp = stamp;
+			mDirty = true;
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds or replaces an entry
+	 */
+	public void put(Entry entry) {
+		mEntries.put(entry.filename, entry);
+		mDirty = true;
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * @return true if the index has changed since it was loaded or saved
+	 */
+	public boolean isDirty() {
+		return mDirty;
+	}
+
+	/**
+	 * Parses a level to create its entry
+	 * @param data the level, as XML or in the binary format if the filename has the binary extension
+	 */
+	public static Entry CreateEntry(String filename, long stamp, byte[] data) throws IOException {
+		InputStream input = new ByteArrayInputStream(data);
+		SPWorld world = filename.endsWith(SPWorld.BINARY_EXTENSION) ? SPWorld.LoadBinary(input) : new SPWorld(input);
+		Entry entry = new Entry();
+		entry.filename = filename;
+		entry.stamp = stamp;
+		entry.hash = Hash(data);
+		entry.name = world.getLevelName();
+		entry.author = world.getAuthor();
+		entry.width = world.getWidth();
+		entry.height = world.getHeight();
+		entry.mice = world.getLiveMice().size();
+		entry.cats = world.getLiveCats().size();
+		entry.arrows = world.getSolutionLength();
+		for(int x = 0; x < world.getWidth(); x++)
+		{
+			for(int y = 0; y < world.getHeight(); y++)
+			{
+				if(world.getSpecialSquare(x, y) == SquareType.Rocket)
+					entry.rockets++;
+				if(world.getSpecialSquare(x, y) == SquareType.Hole)
+					entry.holes++;
+			}
+		}
+		//Binary levels save placed arrows as the solution
+		world.LoadSolution();
+		ByteArrayOutputStream preview = new ByteArrayOutputStream();
+		world.SaveBinary(preview);
+		entry.preview = preview.toByteArray();
+		return entry;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the level content
+	 */
+	public static long Hash(byte[] data) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < data.length; i++)
+		{
+			hash ^= data[i] & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Loads an index saved with Save
+	 * @param stamp the stamp the index must have been saved with
+	 * @return the index, or an empty index if it was saved with a different stamp or format
+	 */
+	public static LevelIndex Load(InputStream input, String stamp) throws IOException {
+		DataInputStream in = new DataInputStream(input);
+		LevelIndex index = new LevelIndex(stamp);
+		if(in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || !in.readUTF().equals(stamp))
+		{
+			index.mDirty = true;
+			return index;
+		}
+		int count = in.readInt();
+		for(int i = 0; i < count; i++)
+		{
+			Entry entry = new Entry();
+			entry.filename = in.readUTF();
+			entry.stamp = in.readLong();
+			entry.hash = in.readLong();
+			entry.name = in.readUTF();
+			entry.author = in.readUTF();
+			entry.width = in.readUnsignedShort();
+			entry.height = in.readUnsignedShort();
+			entry.mice = in.readUnsignedShort();
+			entry.cats = in.readUnsignedShort();
+			entry.rockets = in.readUnsignedShort();
+			entry.holes = in.readUnsignedShort();
+			entry.arrows = in.readUnsignedShort();
+			entry.preview = new byte[in.readInt()];
+			in.readFully(entry.preview);
+			index.mEntries.put(entry.filename, entry);
+		}
+		return index;
+	}
+
+	/**
+	 * Saves the index
+	 */
+	public void Save(OutputStream output) throws IOException {
+		DataOutputStream out = new DataOutputStream(output);
+		out.writeInt(INDEX_MAGIC);
+		out.writeInt(INDEX_VERSION);
+		out.writeUTF(mStamp);
+		out.writeInt(mEntries.size());
+		for(Entry entry : mEntries.values()) {
+			out.writeUTF(entry.filename);
+			out.writeLong(entry.stamp);
+			out.writeLong(entry.hash);
+			out.writeUTF(entry.name);
+			out.writeUTF(entry.author);
+			out.writeShort(entry.width);
+			out.writeShort(entry.height);
+			out.writeShort(entry.mice);
+			out.writeShort(entry.cats);
+			out.writeShort(entry.rockets);
+			out.writeShort(entry.holes);
+			out.writeShort(entry.arrows);
+			out.writeInt(entry.preview.length);
+			out.write(entry.preview);
+		}
+		out.flush();
+		mDirty = false;
+	}
+}
@@ -765,14 +765,8 @@ public class ModeEditor extends Mode {
 	{
 		mRunningMode = RunningMode.Stopped;
 		mTryWidget.setText(mContext.getString(R.string.editor_run_speed_try));
-		mWorld.Reset();
-		for(int ms = 0; ms < 1000 * 240 && mWorld.getWorldState() == WorldState.OK; ms += 50) //Maximum 240s runtime
-		{
-			mWorld.Tick(50);
-		}
-		boolean success = mWorld.getWorldState() == WorldState.Success;
-		mWorld.Reset();
-		return success;
+		//Stops early if the level is found to loop, otherwise runs for up to 240s
+		return mWorld.Verify().success;
 	}
 	
 	@Override
@@ -1,15 +1,20 @@
 package uk.danishcake.shokorocket.moding;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import uk.danishcake.shokorocket.R;
 import uk.danishcake.shokorocket.animation.GameDrawer;
 import uk.danishcake.shokorocket.gui.NinePatchData;
 import uk.danishcake.shokorocket.gui.OnClickListener;
 import uk.danishcake.shokorocket.gui.Widget;
+import uk.danishcake.shokorocket.networking.LocalSync;
 import uk.danishcake.shokorocket.simulation.Direction;
 import uk.danishcake.shokorocket.simulation.MPWorld;
 import uk.danishcake.shokorocket.simulation.OnGuiMessage;
+import uk.danishcake.shokorocket.simulation.OnSoundEffect;
 import uk.danishcake.shokorocket.simulation.Vector2i;
 import uk.danishcake.shokorocket.sound.MusicManager;
 import uk.danishcake.shokorocket.sound.SoundManager;
@@ -26,6 +31,8 @@ import android.graphics.Paint.Align;
 import android.util.Log;
 
 public class ModeMPGame extends Mode {
+	private static final int AI_DEADLINE = 80; //ms, within the 100ms of a communication frame
+	
 	private ModeMenu mModeMenu = null;
 	private SkinProgress mSkin = null;
 	private MPWorld mWorld = null;
@@ -41,6 +48,7 @@ public class ModeMPGame extends Mode {
 	private String mGameMessage = "";
 	private int mMessageTimer = 0;
 	private Paint mTextPaint;
+	private ExecutorService mAIExecutor = null;
 
 	public ModeMPGame(ModeMenu menu, SkinProgress skin, MPWorld world, GameDrawer gameDrawer) {
 		mSkin = skin;
@@ -48,6 +56,8 @@ public class ModeMPGame extends Mode {
 		mWorld = world;
 		mWorld.mGUIMessage = handleMessage;
 		mWorld.mEndMessage = handleGameEnd;
+		mWorld.mDesyncMessage = handleDesync;
+		mWorld.mSoundEffect = handleSound;
 		mTextPaint = new Paint();
 		mTextPaint.setColor(android.graphics.Color.rgb(255, 255, 255));
 		mTextPaint.setTextAlign(Align.CENTER);
@@ -105,6 +115,27 @@ public class ModeMPGame extends Mode {
 			mGameDrawer.Setup(mContext, mGridSize, mSkin, true);
 
 		mGameDrawer.setDrawOffset(mScreenWidth / 2 - (mWorld.getWidth() * mGameDrawer.getGridSize() / 2), mLevelBorder);
+		
+		//AIs decide on their own thread, so a slow one can't hold up drawing
+		mAIExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ShokoRocket AI");
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		LocalSync sync = new LocalSync(mWorld);
+		sync.setAIExecutor(mAIExecutor, AI_DEADLINE);
+		sync.Connect(mWorld.getConnectString());
+		mWorld.setSync(sync);
+	}
+	
+	@Override
+	public Mode Teardown() {
+		if(mAIExecutor != null)
+			mAIExecutor.shutdownNow();
+		return super.Teardown();
 	}
 	
 	@Override
@@ -286,4 +317,18 @@ public class ModeMPGame extends Mode {
 				mPendMode = mModeMenu;
 		}
 	};
+	private OnGuiMessage handleDesync = new OnGuiMessage() {
+		@Override
+		public void show(String message, int timespan) {
+			Log.e("ShokoRocket", message);
+			mGameMessage = "OUT OF SYNC";
+			mMessageTimer = 2000;
+		}
+	};
+	private OnSoundEffect handleSound = new OnSoundEffect() {
+		@Override
+		public void play(String sound) {
+			SoundManager.PlaySound(sound);
+		}
+	};
 }
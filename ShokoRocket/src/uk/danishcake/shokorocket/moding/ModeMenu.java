@@ -1,12 +1,14 @@
 package uk.danishcake.shokorocket.moding;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import uk.danishcake.shokorocket.R;
 import uk.danishcake.shokorocket.animation.GameDrawer;
 import uk.danishcake.shokorocket.gui.Widget;
 import uk.danishcake.shokorocket.gui.OnClickListener;
 import uk.danishcake.shokorocket.gui.WidgetPage;
+import uk.danishcake.shokorocket.networking.ai.AIProfile;
 import uk.danishcake.shokorocket.simulation.Direction;
 import uk.danishcake.shokorocket.simulation.MPWorld;
 import uk.danishcake.shokorocket.simulation.SPWorld;
@@ -35,11 +37,11 @@ public class ModeMenu extends Mode {
 	private Widget mLevelName;
 	private Widget mLevelPackName;
 	private Widget mPlayButton;
-	private Point mPlayPosition;
+	private Point mPlayPosition;
 	private SPWorld mWorld = null;
 	private GameDrawer mGameDrawer;
 	private GameDrawer mGameDrawerNorm;
-	private GameDrawer mGameDrawerRot;
+	private GameDrawer mGameDrawerRot;
 	private boolean mSetup = false;
 	private boolean mEditorLoaded = false;
 	private Progress mProgress;
@@ -47,6 +49,9 @@ public class ModeMenu extends Mode {
 	private boolean mMakeTrainingOffer = false;
 	private SkinProgress mSkin;
 	private SPWorld mPendWorld = null;
+	private LevelCache mLevelCache;
+	private boolean mPendWorldLoading = false; //Transition waits for the level cache
+	private static final int LEVEL_CACHE_SIZE = 16;
 	private int mWorldPendTimer = 0;
 	private final int WORLD_TRANSITION_TIME = 250;
 	private Vector2i mWorldOffset = new Vector2i(0, 0);
@@ -70,6 +75,7 @@ public class ModeMenu extends Mode {
 	public ModeMenu(Progress progress)
 	{
 		mProgress = progress;
+		mLevelCache = new LevelCache(progress, LEVEL_CACHE_SIZE);
 	}
 	
 	@Override
@@ -77,7 +83,10 @@ public class ModeMenu extends Mode {
 		MusicManager.PlayMenuMusic();
 
 		if(!mSetup)
+		{
 			LoadLevelList();
+			LoadAIProfiles(context);
+		}
 		
 		if(mProgress.gotoFirstUnbeaten())
 		{
@@ -342,6 +351,9 @@ public class ModeMenu extends Mode {
 					{
 						widget.setText(mContext.getString(R.string.menu_hard_ai));
 					} else if(widget.getText().equals(mContext.getString(R.string.menu_hard_ai)))
+					{
+						widget.setText(mContext.getString(R.string.menu_expert_ai));
+					} else if(widget.getText().equals(mContext.getString(R.string.menu_expert_ai)))
 					{
 						widget.setText(mContext.getString(R.string.menu_none));
 					} else
@@ -387,6 +399,8 @@ public class ModeMenu extends Mode {
 									ai_string = ai_string + "M";
 								else if(ai_widget.getText().equals(mContext.getString(R.string.menu_hard_ai)))
 									ai_string = ai_string + "H";
+								else if(ai_widget.getText().equals(mContext.getString(R.string.menu_expert_ai)))
+									ai_string = ai_string + "L";
 								else
 									ai_string = ai_string + " ";
 							}
@@ -465,6 +479,28 @@ public class ModeMenu extends Mode {
 	private void LoadLevelList()
 	{
 		mProgress.Reload();
+		mLevelCache.clear();
+	}
+	
+	/**
+	 * Loads the AI profiles from assets, keeping the built in ones if they can't be read
+	 */
+	private void LoadAIProfiles(Context context)
+	{
+		try
+		{
+			InputStream input = context.getAssets().open("AIProfiles.xml");
+			try
+			{
+				AIProfile.setProfiles(AIProfile.Load(input));
+			} finally
+			{
+				input.close();
+			}
+		} catch(IOException io_ex)
+		{
+			Log.e("ModeMenu.LoadAIProfiles", "Could not load AI profiles - " + io_ex.getMessage());
+		}
 	}
 	
 	private void control_level_transition(int timespan) {
@@ -517,12 +553,17 @@ public class ModeMenu extends Mode {
 			try
 			{
 				mWorldPendTimer = 0;
-				mPendWorld = mProgress.getWorld();
+				mPendWorld = mLevelCache.getWorld(mProgress.getLevel());
+				mPendWorldLoading = mPendWorld == null;
 				mPlayButton.setPosition(new Point(0, -1000));
 			} catch(Exception ex)
 			{
 				mPendWorld = null;
+				mPendWorldLoading = false;
 			}
+			//Neighbours are the most likely to be asked for next
+			mLevelCache.prefetch(mProgress.getLevel(1));
+			mLevelCache.prefetch(mProgress.getLevel(-1));
 		}
 	}
 	
@@ -546,6 +587,7 @@ public class ModeMenu extends Mode {
 	@Override
 	public Mode Teardown() {
 		Mode next_mode = super.Teardown();
+		mProgress.saveIndices();
 		mPendMode = null;
 		mPendTimer = 0;
 		mAge = 0;
@@ -557,6 +599,8 @@ public class ModeMenu extends Mode {
 		controlWidgetPages(timespan);
 		if(mWidgetPage == mPuzzlePage && mPendPage == null)
 		{
+			if(mPendWorldLoading)
+				startTransition();
 			control_level_transition(timespan);
 			mGameDrawer.Tick(timespan);
 		}
@@ -1,18 +1,22 @@
 package uk.danishcake.shokorocket.moding;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -28,6 +32,7 @@ import uk.danishcake.shokorocket.simulation.SPWorld;
 
 
 import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Environment;
 
 /**
@@ -59,6 +64,7 @@ public class Progress {
 	private ArrayList<String> mUserLevels = null;
 	private int mLevelPackIndex = 0;
 	private Context mContext;
+	private HashMap<String, LevelIndex> mIndices = new HashMap<String, LevelIndex>();
 	
 	/**
 	 * Advances to next level pack, cycling at end
@@ -144,6 +150,18 @@ public class Progress {
 		return mLevels.get(mLevelPackIndex).levels.get(mLevels.get(mLevelPackIndex).levelIndex).filename;
 	}
 	
+	/**
+	 * Obtains the name of a level relative to the current level, cycling within the same pack
+	 * @param offset the number of levels after the current level, negative for before
+	 */
+	public String getLevel(int offset) {
+		LevelPack lp = mLevels.get(mLevelPackIndex);
+		int index = (lp.levelIndex + offset) % lp.levels.size();
+		if(index < 0)
+			index += lp.levels.size();
+		return lp.levels.get(index).filename;
+	}
+	
 	/**
 	 * Obtains the size of the current level pack
 	 */
@@ -212,18 +230,25 @@ public class Progress {
 	 * assets:// or external storage://
 	 */
 	public SPWorld getWorld(String level_name) throws FileNotFoundException, IOException {
+		boolean binary = level_name.endsWith(SPWorld.BINARY_EXTENSION);
+		InputStream input;
+		if(level_name.startsWith("assets://"))
+			input = mContext.getAssets().open(level_name.substring(9));
+		else
+			input = new FileInputStream(level_name);
+		SPWorld world = binary ? SPWorld.LoadBinary(input) : new SPWorld(input);
+		setWorldName(world, level_name);
+		return world;
+	}
+	
+	/**
+	 * Sets the identifier of an asset level, or the filename of a level on external storage
+	 */
+	static void setWorldName(SPWorld world, String level_name) {
 		if(level_name.startsWith("assets://"))
-		{
-			SPWorld world = new SPWorld(mContext.getAssets().open(level_name.substring(9)));
 			world.setIdentifier(level_name);
-			return world;
-		} else
-		{
-			SPWorld world = new SPWorld(new FileInputStream(level_name));
-			File level_file = new File(level_name);
-			world.setFilename(level_file.getName());
-			return world;
-		}
+		else
+			world.setFilename(new File(level_name).getName());
 	}
 	
 	/**
@@ -235,6 +260,128 @@ public class Progress {
 		return getWorld(level_name);
 	}
 	
+	/**
+	 * Gets the summary of a level from its pack's index. The level is only read
+	 * if the index is out of date, and only parsed if its content has changed.
+	 * Entries added are kept until saveIndices is called. Safe to call from any thread.
+	 * @param level_name the level in the form returned by getLevel
+	 */
+	public synchronized LevelIndex.Entry getLevelInfo(String level_name) throws FileNotFoundException, IOException {
+		int separator = level_name.lastIndexOf('/');
+		String pack = level_name.substring(0, separator);
+		String filename = level_name.substring(separator + 1);
+		boolean asset = level_name.startsWith("assets://");
+		//Asset levels only change with the app, so the index stamp covers them
+		long stamp = asset ? 0 : new File(level_name).lastModified();
+		
+		LevelIndex index = getIndex(pack, asset);
+		LevelIndex.Entry entry = index.get(filename, stamp, null);
+		if(entry == null)
+		{
+			byte[] data = readLevel(level_name);
+			entry = index.get(filename, stamp, data);
+			if(entry == null)
+			{
+				entry = LevelIndex.CreateEntry(filename, stamp, data);
+				index.put(entry);
+			}
+		}
+		return entry;
+	}
+	
+	/**
+	 * Saves the indices of the level packs that have changed since loaded or last saved
+	 */
+	public synchronized void saveIndices() {
+		for(Map.Entry<String, LevelIndex> pack : mIndices.entrySet())
+		{
+			if(pack.getValue().isDirty())
+				saveIndex(pack.getKey(), pack.getValue());
+		}
+	}
+	
+	/**
+	 * Gets the index of a level pack, loading it from internal storage if not already loaded
+	 * @param pack the level pack directory, in the same form as the level names
+	 */
+	private LevelIndex getIndex(String pack, boolean asset) {
+		LevelIndex index = mIndices.get(pack);
+		if(index != null)
+			return index;
+		String stamp = "SD";
+		if(asset)
+		{
+			try
+			{
+				stamp = "Version " + Integer.toString(mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).versionCode);
+			} catch(NameNotFoundException name_ex)
+			{
+				//Shouldn't occur for own package
+			}
+		}
+		try
+		{
+			InputStream input = mContext.openFileInput(getIndexFilename(pack));
+			try
+			{
+				index = LevelIndex.Load(input, stamp);
+			} finally
+			{
+				input.close();
+			}
+		} catch(IOException io_ex)
+		{
+			//Not yet created, or damaged
+			index = new LevelIndex(stamp);
+		}
+		mIndices.put(pack, index);
+		return index;
+	}
+	
+	private void saveIndex(String pack, LevelIndex index) {
+		try
+		{
+			FileOutputStream os = mContext.openFileOutput(getIndexFilename(pack), Context.MODE_PRIVATE);
+			try
+			{
+				index.Save(os);
+			} finally
+			{
+				os.close();
+			}
+		} catch(IOException io_ex)
+		{
+			//Index will be rebuilt next time
+		}
+	}
+	
+	private static String getIndexFilename(String pack) {
+		return "LevelIndex_" + Long.toHexString(LevelIndex.Hash(pack.getBytes())) + ".bin";
+	}
+	
+	/**
+	 * Reads the raw content of a level
+	 */
+	private byte[] readLevel(String level_name) throws FileNotFoundException, IOException {
+		InputStream input;
+		if(level_name.startsWith("assets://"))
+			input = mContext.getAssets().open(level_name.substring(9));
+		else
+			input = new FileInputStream(level_name);
+		try
+		{
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = input.read(buffer)) >= 0)
+				data.write(buffer, 0, read);
+			return data.toByteArray();
+		} finally
+		{
+			input.close();
+		}
+	}
+	
 	public Progress(Context context)
 	{
 		mContext = context;
@@ -302,7 +449,7 @@ public class Progress {
 				for(File level : levels)
 				{
 					String path = level.getPath();
-					if(path.endsWith(".Level"))
+					if(path.endsWith(".Level") || path.endsWith(SPWorld.BINARY_EXTENSION))
 					{
 						ProgressRecord pr = new ProgressRecord();
 						pr.beaten = false;
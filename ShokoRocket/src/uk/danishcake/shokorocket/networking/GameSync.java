@@ -1,9 +1,10 @@
 package uk.danishcake.shokorocket.networking;
+import uk.danishcake.shokorocket.networking.messages.CursorPositioningMessage;
 import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
 
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -18,15 +19,40 @@ public abstract class GameSync {
 	protected int mLocalFrame = 0;
 	protected int mSyncedFrame = 0;
 	protected int mClientID = 0;
-	private Comparator<Message> mMessageSorter = new Comparator<Message>() {
-		@Override
-		public int compare(Message object1, Message object2) {
-			return object1.sub_frame_id - object2.sub_frame_id;
-		}
-	};
 	
+	/* Frames of messages waiting to be popped, held in a ring of lists that are reused
+	 * rather than allocated per frame. mQueueStart is the next frame to pop and mQueueEnd
+	 * the frame being filled by queueMessage, both counting from the first frame queued */
+	private static class QueuedFrame
+	{
+		public ArrayList<Message> messages = new ArrayList<Message>();
+	}
+	/**
+	 * The most frames that may wait to be popped. A world only runs 2 frames ahead in
+	 * lockstep, or 8 with rollback, so no more can have arrived for it
+	 */
+	public static final int MAX_QUEUED_FRAMES = 15;
+	private QueuedFrame[] mQueue = new QueuedFrame[MAX_QUEUED_FRAMES + 1];
+	private int mQueueStart = 0;
+	private int mQueueEnd = 0;
+	
+	/* Checksums of the world at the end of recent frames, this player's and the others',
+	 * kept in slots by frame % CHECKSUM_FRAMES. mUnsent lists the frames of this player's
+	 * checksums set since the last frame was sent */
+	public static final int CHECKSUM_SIZE = 4;
+	private static final int CHECKSUM_FRAMES = 32;
+	private int[] mChecksumFrame = new int[CHECKSUM_FRAMES];
+	private int[][] mLocalChecksums = new int[CHECKSUM_FRAMES][CHECKSUM_SIZE];
+	private boolean[] mLocalChecksumKnown = new boolean[CHECKSUM_FRAMES];
+	private int[][][] mRemoteChecksums = new int[CHECKSUM_FRAMES][4][CHECKSUM_SIZE];
+	private boolean[][] mRemoteChecksumKnown = new boolean[CHECKSUM_FRAMES][4];
+	private int[] mUnsent = new int[CHECKSUM_FRAMES];
+	private int mUnsentCount = 0;
+	private int mDesyncFrame = -1;
+	private int mDesyncPlayer = -1;
+	private int[] mDesyncLocal = new int[CHECKSUM_SIZE];
+	private int[] mDesyncRemote = new int[CHECKSUM_SIZE];
 	
-	protected LinkedList<ArrayList<Message>> mMessageStack = new LinkedList<ArrayList<Message>>();
 	/**
 	 * Connects to a destination
 	 * @param dest A string describing the destination - could be an IP address
@@ -59,17 +85,209 @@ public abstract class GameSync {
 	 */
 	public abstract void sendMessage(Message message);
 	
-	// TODO some sort of pop messages
-	public List<Message> popMessages() {
-		ArrayList<Message> frame_messages = mMessageStack.removeFirst();
-		
-		java.util.Collections.sort(frame_messages, mMessageSorter);
-		return frame_messages;
+	/**
+	 * @return true if the messages for the next frame have arrived, so popMessages may be called
+	 */
+	public boolean hasMessages() {
+		return mQueueStart < mQueueEnd;
+	}
+	
+	/**
+	 * Takes the messages for the next frame
+	 * @param messages list the messages are appended to, in sub frame order
+	 */
+	public void popMessages(List<Message> messages) {
+		if(mQueueStart == mQueueEnd)
+			throw new IllegalStateException("No frame of messages is ready");
+		ArrayList<Message> frame = mQueue[mQueueStart % mQueue.length].messages;
+		messages.addAll(frame);
+		frame.clear();
+		mQueueStart++;
+	}
+	
+	/**
+	 * Adds a message to the frame being queued, after any with the same or earlier sub frame
+	 */
+	protected void queueMessage(Message message) {
+		ArrayList<Message> frame = getQueuedFrame(mQueueEnd).messages;
+		if(coalesceCursor(frame, message))
+			return;
+		int index = frame.size();
+		while(index > 0 && frame.get(index - 1).sub_frame_id > message.sub_frame_id)
+			index--;
+		frame.add(index, message);
+	}
+	
+	/**
+	 * Merges a cursor message into one already in the list from the same user and sub frame,
+	 * as only the last position would be seen. The merged message is recycled
+	 * @return true if merged, otherwise the message still needs adding to the list
+	 */
+	protected static boolean coalesceCursor(List<Message> messages, Message message) {
+		if(message.message_type != Message.MESSAGE_CURSOR_POSITION)
+			return false;
+		for(int i = messages.size() - 1; i >= 0; i--)
+		{
+			Message other = messages.get(i);
+			if(other.message_type == Message.MESSAGE_CURSOR_POSITION &&
+			   other.user_id == message.user_id && other.sub_frame_id == message.sub_frame_id)
+			{
+				((CursorPositioningMessage)other).x = ((CursorPositioningMessage)message).x;
+				((CursorPositioningMessage)other).y = ((CursorPositioningMessage)message).y;
+				MessagePool.recycle(message);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Makes the frame being queued ready to pop, and starts the next
+	 * @throws IllegalStateException if MAX_QUEUED_FRAMES are already waiting to be popped
+	 */
+	protected void queueFrame() {
+		if(mQueueEnd - mQueueStart == MAX_QUEUED_FRAMES)
+			throw new IllegalStateException("More than " + MAX_QUEUED_FRAMES + " frames queued without being popped");
+		getQueuedFrame(mQueueEnd);
+		mQueueEnd++;
+	}
+	
+	private QueuedFrame getQueuedFrame(int frame) {
+		QueuedFrame queued = mQueue[frame % mQueue.length];
+		if(queued == null)
+		{
+			queued = new QueuedFrame();
+			mQueue[frame % mQueue.length] = queued;
+		}
+		return queued;
 	}
 	
 	public int getClientID() {
 		return mClientID;
 	}
 	
+	/**
+	 * Sets the checksum of the world as it was when a frame was sent by SendFrameEnd, to
+	 * compare against the other players' and send with the next frame. A world running
+	 * ahead on predicted messages sets it once the frame is confirmed, so it may be for a
+	 * frame sent some time ago
+	 * @param frame the frame, which may be the one about to be sent
+	 * @param checksum CHECKSUM_SIZE values
+	 */
+	public void setFrameChecksum(int frame, int[] checksum) {
+		int slot = checksumSlot(frame);
+		if(slot < 0)
+			return;
+		mLocalChecksumKnown[slot] = true;
+		System.arraycopy(checksum, 0, mLocalChecksums[slot], 0, CHECKSUM_SIZE);
+		if(mUnsentCount == mUnsent.length)
+		{
+			//Too old to be compared by now anyway
+			System.arraycopy(mUnsent, 1, mUnsent, 0, mUnsentCount - 1);
+			mUnsentCount--;
+		}
+		mUnsent[mUnsentCount++] = frame;
+		for(int player = 0; player < 4; player++)
+			compareChecksums(frame, slot, player);
+	}
+	
+	/**
+	 * @return the number of frames whose checksums have been set since clearUnsentChecksums
+	 */
+	protected int getUnsentChecksumCount() {
+		return mUnsentCount;
+	}
+	
+	/**
+	 * @return the frame of an unsent checksum, in the order set
+	 */
+	protected int getUnsentChecksumFrame(int index) {
+		return mUnsent[index];
+	}
+	
+	protected void clearUnsentChecksums() {
+		mUnsentCount = 0;
+	}
+	
+	/**
+	 * @return this player's checksum for a recent frame, or null if not known
+	 */
+	protected int[] getFrameChecksum(int frame) {
+		int slot = frame % CHECKSUM_FRAMES;
+		if(frame <= 0 || mChecksumFrame[slot] != frame || !mLocalChecksumKnown[slot])
+			return null;
+		return mLocalChecksums[slot];
+	}
+	
+	/**
+	 * Records another player's checksum for a frame, flagging a desync if it differs
+	 */
+	protected void receiveChecksum(int player, int frame, int[] checksum) {
+		int slot = checksumSlot(frame);
+		if(slot < 0 || player < 0 || player >= 4)
+			return;
+		System.arraycopy(checksum, 0, mRemoteChecksums[slot][player], 0, CHECKSUM_SIZE);
+		mRemoteChecksumKnown[slot][player] = true;
+		compareChecksums(frame, slot, player);
+	}
+	
+	/**
+	 * @return the earliest frame found where another player's world differs from this one, or -1
+	 */
+	public int getDesyncFrame() {
+		return mDesyncFrame;
+	}
+	
+	/**
+	 * @return the player whose world differs at getDesyncFrame
+	 */
+	public int getDesyncPlayer() {
+		return mDesyncPlayer;
+	}
+	
+	/**
+	 * @return this player's and the other player's checksums at getDesyncFrame
+	 */
+	public int[] getDesyncLocalChecksum() {
+		return mDesyncLocal;
+	}
+	
+	public int[] getDesyncRemoteChecksum() {
+		return mDesyncRemote;
+	}
+	
+	/* checksumSlot
+	 * Finds the slot for a frame, clearing it if it last held an older frame
+	 * @return the slot, or -1 if the frame is too old to be kept */
+	private int checksumSlot(int frame) {
+		if(frame <= 0)
+			return -1;
+		int slot = frame % CHECKSUM_FRAMES;
+		if(mChecksumFrame[slot] > frame)
+			return -1;
+		if(mChecksumFrame[slot] < frame)
+		{
+			mChecksumFrame[slot] = frame;
+			mLocalChecksumKnown[slot] = false;
+			for(int player = 0; player < 4; player++)
+				mRemoteChecksumKnown[slot][player] = false;
+		}
+		return slot;
+	}
+	
+	private void compareChecksums(int frame, int slot, int player) {
+		if(!mLocalChecksumKnown[slot] || !mRemoteChecksumKnown[slot][player])
+			return;
+		if(Arrays.equals(mLocalChecksums[slot], mRemoteChecksums[slot][player]))
+			return;
+		if(mDesyncFrame < 0 || frame < mDesyncFrame)
+		{
+			mDesyncFrame = frame;
+			mDesyncPlayer = player;
+			System.arraycopy(mLocalChecksums[slot], 0, mDesyncLocal, 0, CHECKSUM_SIZE);
+			System.arraycopy(mRemoteChecksums[slot][player], 0, mDesyncRemote, 0, CHECKSUM_SIZE);
+		}
+	}
+	
 	public abstract ArrayList<String> getPlayerNames(); 
 }
@@ -1,51 +1,143 @@
 package uk.danishcake.shokorocket.networking;
 
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import uk.danishcake.shokorocket.networking.ai.AIProfile;
 import uk.danishcake.shokorocket.networking.ai.BaseAI;
-import uk.danishcake.shokorocket.networking.ai.BasicAI;
 import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
 import uk.danishcake.shokorocket.simulation.MPWorld;
+import uk.danishcake.shokorocket.simulation.WorldSnapshot;
 
 /**
  * LocalSync is a simplistic multiplayer connection that is all local
  * It provides indications of several local clients
+ * 
+ * AIs normally decide as each frame ends, on the thread ticking the world. Given an
+ * executor they decide there instead, each on its own copy of the world as the frame
+ * ended, and what they decide is sent as the next frame ends. An AI that has not
+ * decided by then, or took longer than the deadline, sends nothing for that frame, so
+ * the world never waits on an AI, and is told its decision was dropped. AIs stop
+ * searching at the deadline, and one still queued by then is not run at all. Whatever
+ * is sent goes through the frames as usual, so the game stays the same for everyone.
  * @author Edward Woolhouse
  */
 public class LocalSync extends GameSync {
 	
+	/* AIWorker
+	 * An AI run on the executor against its own copy of the world, restored from the
+	 * snapshot taken as the frame it was started in ended
+	 */
+	private static class AIWorker implements Callable<ArrayList<Message>>
+	{
+		public BaseAI ai;
+		public MPWorld world = new MPWorld();
+		public WorldSnapshot snapshot = new WorldSnapshot();
+		public ArrayList<Message> messages = new ArrayList<Message>();
+		public Future<ArrayList<Message>> future = null;
+		public int frame = 0; //The frame it was started as the end of
+		public long start_time = 0;
+		public long deadline = 0;
+		public long finish_time = 0;
+		public long think_time = 0;
+		public boolean decided = false; //False if not run as it was past the deadline
+		
+		public ArrayList<Message> call() {
+			messages.clear();
+			decided = System.nanoTime() - deadline <= 0;
+			//Timed as inline, from after the restore, so the cost is the same either way
+			long call_time = 0;
+			if(decided)
+			{
+				world.Restore(snapshot);
+				call_time = System.nanoTime();
+				ai.generateMessages(messages);
+			}
+			finish_time = System.nanoTime();
+			think_time = decided ? finish_time - call_time : 0;
+			return messages;
+		}
+	}
+	
 	private MPWorld mWorld;
 	ArrayList<Message> mPendMessages = new ArrayList<Message>();
-	BaseAI[] mAI = new BaseAI[3];
+	ArrayList<Message> mFrameMessages = new ArrayList<Message>();
+	BaseAI[] mAI = new BaseAI[4]; //Indexed by player
+	private ExecutorService mAIExecutor = null;
+	private long mAIDeadline = 0; //In ns
+	private AIWorker[] mAIWorkers = new AIWorker[4];
+	private WorldSnapshot mSnapshot = new WorldSnapshot();
+	private int mLateCount = 0;
+	private long[] mAITime = new long[4]; //In ns, by player
 
 	public LocalSync(MPWorld world) {
 		mWorld = world;
 	}
 	
+	/**
+	 * Runs the AIs on an executor rather than as each frame ends. Set before Connect.
+	 * The executor is not shut down by LocalSync
+	 * @param deadline_ms time an AI has from the end of a frame to decide, at most the
+	 * length of a frame to be of any use
+	 */
+	public void setAIExecutor(ExecutorService executor, int deadline_ms) {
+		if(deadline_ms <= 0)
+			throw new InvalidParameterException("AI deadline must be positive");
+		mAIExecutor = executor;
+		mAIDeadline = deadline_ms * 1000000L;
+	}
+	
+	/**
+	 * @return the number of frames an AI has sent nothing for as it had not decided in time
+	 */
+	public int getLateCount() {
+		return mLateCount;
+	}
+	
+	/**
+	 * @return the time in ns the player's AI has spent deciding, on whichever thread
+	 */
+	public long getAITime(int player) {
+		return mAITime[player];
+	}
+	
+	/**
+	 * Creates the AI for a player in a connect string
+	 * @param player the id of an AIProfile, eg E, M or H for an easy, medium or hard AI
+	 * @return the AI, or null if the player is not an AI
+	 */
+	public static BaseAI CreateAI(char player) {
+		AIProfile profile = AIProfile.getProfile(player);
+		return profile == null ? null : profile.createAI();
+	}
+	
 	@Override
 	public void Connect(String dest) {
-		// TODO parse dest for client count/difficulty etc 
-		//Format [0EMH][0EMH][0EMH]
-		for(int i = 0; i < 3; i++)
+		//Format [0EMH][0EMH][0EMH] for players 1 to 3, with the local player 0 human.
+		//A fourth leading character makes player 0 an AI too, to play without anyone
+		int first = dest.length() >= 4 ? 0 : 1;
+		if(mAIExecutor != null)
+			mWorld.Snapshot(mSnapshot);
+		for(int i = first; i < 4; i++)
 		{
-			char player = dest.charAt(i);
-			switch(player)
+			mAI[i] = CreateAI(dest.charAt(i - first));
+			if(mAI[i] == null)
+				continue;
+			if(mAIExecutor == null)
 			{
-			case '0':
-			default:
-				mAI[i] = null;
-				break;
-			case 'E':
-				mAI[i] = new BasicAI(0);
-				break;
-			case 'M':
-				mAI[i] = new BasicAI(1);
-				break;
-			case 'H':
-				mAI[i] = new BasicAI(2);
-				break;
+				mAI[i].setup(mWorld, i);
+			} else
+			{
+				mAIWorkers[i] = new AIWorker();
+				mAIWorkers[i].ai = mAI[i];
+				mAIWorkers[i].world.Restore(mSnapshot);
+				mAI[i].setup(mAIWorkers[i].world, i);
 			}
-			if(mAI[i] != null)
-				mAI[i].setup(mWorld, i + 1);
 		}
 	}
 
@@ -59,20 +151,104 @@ public class LocalSync extends GameSync {
 	@Override
 	public void sendMessage(Message message) {
 		message.user_id = mClientID;
-		mPendMessages.add(message);
+		if(!coalesceCursor(mPendMessages, message))
+			mPendMessages.add(message);
 	}
 	
 	private void generateMessages()	{
-		ArrayList<Message> messages = new ArrayList<Message>();
+		ArrayList<Message> messages = mFrameMessages;
+		messages.clear();
 		messages.addAll(mPendMessages); /* Add the users pending messages */
 
 		/* Perform AI work, generate responses */
-		for(int i = 0; i < 3; i++){
-			if(mAI[i] != null)
-				mAI[i].generateMessages(messages);
-		}
-		mMessageStack.add(messages);
+		if(mAIExecutor == null)
+		{
+			for(int i = 0; i < 4; i++){
+				if(mAI[i] != null)
+				{
+					long start = System.nanoTime();
+					mAI[i].generateMessages(messages);
+					mAITime[i] += System.nanoTime() - start;
+				}
+			}
+		} else
+			collectAI(messages);
+		for(int i = 0; i < messages.size(); i++)
+			queueMessage(messages.get(i));
+		queueFrame();
 		mPendMessages.clear();
+		if(mAIExecutor != null)
+			startAI();
+	}
+	
+	/* collectAI
+	 * Adds the messages of AIs that decided in time after the last frame ended. Never waits
+	 */
+	private void collectAI(ArrayList<Message> messages) {
+		for(int i = 0; i < 4; i++)
+		{
+			AIWorker worker = mAIWorkers[i];
+			if(worker == null || worker.future == null)
+				continue;
+			if(!worker.future.isDone())
+			{
+				mLateCount++;
+				continue;
+			}
+			ArrayList<Message> results;
+			try
+			{
+				results = worker.future.get();
+			} catch(InterruptedException int_ex)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			} catch(ExecutionException ex)
+			{
+				throw new RuntimeException(ex.getCause());
+			}
+			worker.future = null;
+			mAITime[i] += worker.think_time;
+			boolean in_time = worker.frame == mLocalFrame - 1 && worker.finish_time - worker.deadline <= 0;
+			if(!in_time)
+			{
+				mLateCount++;
+				if(worker.decided)
+					worker.ai.decisionDropped();
+			}
+			for(int j = 0; j < results.size(); j++)
+			{
+				if(in_time)
+					messages.add(results.get(j));
+				else
+					MessagePool.recycle(results.get(j));
+			}
+			results.clear();
+		}
+	}
+	
+	/* startAI
+	 * Starts each AI that is not still deciding on a copy of the world as this frame ends
+	 */
+	private void startAI() {
+		boolean snapshot_taken = false;
+		for(int i = 0; i < 4; i++)
+		{
+			AIWorker worker = mAIWorkers[i];
+			if(worker == null || worker.future != null)
+				continue;
+			if(!snapshot_taken)
+			{
+				mWorld.Snapshot(mSnapshot);
+				snapshot_taken = true;
+			}
+			worker.snapshot.copyFrom(mSnapshot);
+			worker.frame = mLocalFrame;
+			worker.start_time = System.nanoTime();
+			worker.deadline = worker.start_time + mAIDeadline;
+			worker.ai.setDeadline(worker.deadline);
+			worker.future = mAIExecutor.submit(worker);
+		}
 	}
 	
 	public ArrayList<String> getPlayerNames()
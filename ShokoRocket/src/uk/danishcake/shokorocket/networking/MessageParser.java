@@ -1,10 +1,177 @@
 package uk.danishcake.shokorocket.networking;
 
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.List;
+
+import uk.danishcake.shokorocket.networking.messages.ArrowPlacementMessage;
+import uk.danishcake.shokorocket.networking.messages.CursorPositioningMessage;
+import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
+import uk.danishcake.shokorocket.simulation.Direction;
+
 /**
- * Class a container for a single static method that parses a byte array and 
- * produces a message
+ * Class a container for static methods that write messages into a ByteBuffer and 
+ * parse them back out again, to send over the network.
+ * 
+ * A frame is written as its messages followed by a frame end marker holding the frame id,
+ * and several frames may be written back to back into one packet. Each message starts with
+ * a header byte packing the message type (bits 0-1), user id (bits 2-3) and arrow direction
+ * (bits 4-6), followed by varint fields. A clear takes 2 bytes; a cursor or arrow takes 4
+ * while its sub frame is below 128 and its coordinates between -64 and 63, and more once
+ * a field is outside that, so an arrow at x 300 takes 5. Messages are read and written
+ * directly from the buffer's position, so the same buffer can be reused for every packet.
  * @author Edward Woolhouse
  */
 public class MessageParser {
-
+	/* Largest encoding of a single message - header byte and three 5 byte varints */
+	public static final int MAX_MESSAGE_SIZE = 16;
+	
+	/**
+	 * Writes a frame's messages followed by the frame end marker
+	 */
+	public static void WriteFrame(ByteBuffer buffer, int frame, List<Message> messages) {
+		for(int i = 0; i < messages.size(); i++)
+			WriteMessage(buffer, messages.get(i));
+		WriteFrameEnd(buffer, frame);
+	}
+	
+	/**
+	 * Writes the frame end marker
+	 */
+	public static void WriteFrameEnd(ByteBuffer buffer, int frame) {
+		if(frame < 0)
+			throw new InvalidParameterException("Frame must not be negative");
+		buffer.put((byte)Message.MESSAGE_FRAME_END);
+		writeVarint(buffer, frame);
+	}
+	
+	/**
+	 * Writes a single message
+	 */
+	public static void WriteMessage(ByteBuffer buffer, Message message) {
+		if(message.user_id < 0 || message.user_id > 3)
+			throw new InvalidParameterException("User id must be in the range 0 to 3");
+		if(message.sub_frame_id < 0)
+			throw new InvalidParameterException("Sub frame id must not be negative");
+		int header = message.message_type | (message.user_id << 2);
+		switch(message.message_type)
+		{
+		case Message.MESSAGE_CURSOR_POSITION:
+			{
+				CursorPositioningMessage cursor = (CursorPositioningMessage)message;
+				buffer.put((byte)header);
+				writeVarint(buffer, message.sub_frame_id);
+				writeVarint(buffer, zigzag(cursor.x));
+				writeVarint(buffer, zigzag(cursor.y));
+			}
+			break;
+		case Message.MESSAGE_ARROW_PLACEMENT:
+			{
+				ArrowPlacementMessage arrow = (ArrowPlacementMessage)message;
+				buffer.put((byte)(header | (arrow.direction.ordinal() << 4)));
+				writeVarint(buffer, message.sub_frame_id);
+				writeVarint(buffer, zigzag(arrow.x));
+				writeVarint(buffer, zigzag(arrow.y));
+			}
+			break;
+		case Message.MESSAGE_ARROW_CLEAR:
+			buffer.put((byte)header);
+			writeVarint(buffer, message.sub_frame_id);
+			break;
+		default:
+			throw new InvalidParameterException("Unable to write message type " + Integer.toString(message.message_type));
+		}
+	}
+	
+	/**
+	 * Parses the messages of the next frame in the buffer
+	 * @param messages list to append the frame's messages to, which come from MessagePool
+	 * @return the frame id, or -1 if the buffer has nothing left to read
+	 */
+	public static int ParseFrame(ByteBuffer buffer, List<Message> messages) {
+		if(!buffer.hasRemaining())
+			return -1;
+		while(true)
+		{
+			int header = readByte(buffer);
+			if((header & 3) == Message.MESSAGE_FRAME_END)
+			{
+				if(header != Message.MESSAGE_FRAME_END)
+					throw new InvalidParameterException("Malformed frame end");
+				return readVarint(buffer);
+			}
+			messages.add(parseMessage(buffer, header));
+		}
+	}
+	
+	private static Message parseMessage(ByteBuffer buffer, int header) {
+		int user_id = (header >> 2) & 3;
+		int sub_frame_id = readVarint(buffer);
+		Message message;
+		switch(header & 3)
+		{
+		case Message.MESSAGE_CURSOR_POSITION:
+			{
+				int x = unzigzag(readVarint(buffer));
+				int y = unzigzag(readVarint(buffer));
+				message = MessagePool.obtainCursorPosition(x, y);
+			}
+			break;
+		case Message.MESSAGE_ARROW_PLACEMENT:
+			{
+				int direction = (header >> 4) & 7;
+				if(direction >= Direction.values().length)
+					throw new InvalidParameterException("Malformed arrow direction");
+				int x = unzigzag(readVarint(buffer));
+				int y = unzigzag(readVarint(buffer));
+				message = MessagePool.obtainArrowPlacement(x, y, Direction.values()[direction]);
+			}
+			break;
+		default:
+			message = MessagePool.obtainArrowClear();
+			break;
+		}
+		message.setCommon(user_id, sub_frame_id);
+		return message;
+	}
+	
+	private static int readByte(ByteBuffer buffer) {
+		if(!buffer.hasRemaining())
+			throw new InvalidParameterException("Truncated message packet");
+		return buffer.get() & 0xff;
+	}
+	
+	/* writeVarint
+	 * Writes 7 bits per byte, low bits first, with the top bit set on all but the last byte */
+	private static void writeVarint(ByteBuffer buffer, int value) {
+		while((value & ~0x7f) != 0)
+		{
+			buffer.put((byte)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+	
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7)
+		{
+			int b = readByte(buffer);
+			value |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0)
+				return value;
+		}
+		throw new InvalidParameterException("Malformed varint");
+	}
+	
+	/* zigzag
+	 * Maps small negative numbers to small positive ones, so they stay short as varints */
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+	
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
 }
@@ -0,0 +1,370 @@
+package uk.danishcake.shokorocket.networking;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
+
+/**
+ * UdpSync connects players over UDP, each sending its messages straight to every other.
+ * 
+ * Messages sent during frame n are executed in frame n + 2 by every player, so the world
+ * may start frame n + 2 once every player's frame n has arrived. Each packet to a player
+ * carries the oldest frames that player has not acknowledged, up to RESEND_FRAMES of them,
+ * so a lost packet is covered by the next. Frames are only accepted in order, which drops
+ * duplicates and keeps each player's frames complete. Packets are sent as each frame ends,
+ * and again every RESEND_INTERVAL while frames are unacknowledged. Each frame carries the
+ * world checksums the sender has set since its last frame, to be compared by GameSync.
+ * 
+ * Nothing runs in the background - the socket is polled whenever the world asks whether
+ * the next frame is ready.
+ * @author Edward Woolhouse
+ */
+public class UdpSync extends GameSync {
+	public static final int RESEND_FRAMES = 8;
+	public static final int RESEND_INTERVAL = 50;
+	public static final int MAX_PACKET_SIZE = 1400;
+	private static final int PACKET_MAGIC = 0x53;
+	
+	private DatagramChannel mChannel = null;
+	private InetSocketAddress[] mPeers = new InetSocketAddress[0];
+	private ByteBuffer mSendBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+	private ByteBuffer mReceiveBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+	private ArrayList<Message> mParsed = new ArrayList<Message>();
+	private int[] mParsedChecksum = new int[CHECKSUM_SIZE];
+	private ArrayList<Message> mPendMessages = new ArrayList<Message>();
+	
+	/* Own frames kept, ready written for a packet, until every player has acknowledged
+	 * them, the first being mSentBase. The messages themselves go to the world */
+	private LinkedList<byte[]> mSentFrames = new LinkedList<byte[]>();
+	private int mSentBase = 1;
+	/* Per player, indexed by client id */
+	//Frames received from each player but not yet queued
+	private ArrayList<LinkedList<ArrayList<Message>>> mPeerFrames = new ArrayList<LinkedList<ArrayList<Message>>>();
+	private ArrayList<ArrayList<Message>> mFreeFrames = new ArrayList<ArrayList<Message>>();
+	private int[] mReceived; //Last frame received in order
+	private int[] mAcked; //Last of our frames they have acknowledged
+	private boolean[] mAckDue; //They have sent frames since we last sent to them
+	private long[] mLastSend;
+	
+	/**
+	 * Binds to this player's port
+	 * @param dest client id and the address of every player, including this one, in client
+	 * id order - eg "1@192.168.0.2:4040,192.168.0.3:4040"
+	 */
+	@Override
+	public void Connect(String dest) {
+		int at = dest.indexOf('@');
+		if(at < 0)
+			throw new InvalidParameterException("Connect string must be of the form id@host:port,host:port");
+		String[] addresses = dest.substring(at + 1).split(",");
+		try
+		{
+			mClientID = Integer.parseInt(dest.substring(0, at));
+			mPeers = new InetSocketAddress[addresses.length];
+			for(int i = 0; i < addresses.length; i++)
+			{
+				int colon = addresses[i].lastIndexOf(':');
+				if(colon < 0)
+					throw new InvalidParameterException("Address " + addresses[i] + " has no port");
+				mPeers[i] = new InetSocketAddress(addresses[i].substring(0, colon), Integer.parseInt(addresses[i].substring(colon + 1)));
+			}
+		} catch(NumberFormatException nfe)
+		{
+			throw new InvalidParameterException("Unable to parse connect string " + dest);
+		}
+		if(mPeers.length < 2 || mPeers.length > 4)
+			throw new InvalidParameterException("Between 2 and 4 players must be given");
+		if(mClientID < 0 || mClientID >= mPeers.length)
+			throw new InvalidParameterException("Client id must be one of the players given");
+		
+		int players = mPeers.length;
+		mPeerFrames.clear();
+		mReceived = new int[players];
+		mAcked = new int[players];
+		mAckDue = new boolean[players];
+		mLastSend = new long[players];
+		for(int i = 0; i < players; i++)
+			mPeerFrames.add(new LinkedList<ArrayList<Message>>());
+		//Nothing can be sent in time for the first two frames
+		queueFrame();
+		queueFrame();
+		
+		try
+		{
+			mChannel = DatagramChannel.open();
+			mChannel.configureBlocking(false);
+			mChannel.socket().bind(mPeers[mClientID]);
+		} catch(IOException io_ex)
+		{
+			close();
+			throw new InvalidParameterException("Unable to bind to " + mPeers[mClientID].toString() + " - " + io_ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Closes the socket
+	 */
+	public void close() {
+		if(mChannel != null)
+		{
+			try
+			{
+				mChannel.close();
+			} catch(IOException io_ex)
+			{
+				//Already as closed as it can be
+			}
+			mChannel = null;
+		}
+	}
+	
+	@Override
+	public void SendFrameEnd() {
+		mLocalFrame++;
+		ArrayList<Message> frame = obtainFrame();
+		frame.addAll(mPendMessages);
+		mPendMessages.clear();
+		
+		//Each frame is a count of checksums, each checksum's frame then values, then the messages
+		ByteBuffer encoded = mSendBuffer;
+		encoded.clear();
+		int count_position = encoded.position();
+		int count = 0;
+		encoded.put((byte)0);
+		for(int i = 0; i < getUnsentChecksumCount(); i++)
+		{
+			int checksum_frame = getUnsentChecksumFrame(i);
+			int[] checksum = getFrameChecksum(checksum_frame);
+			if(checksum == null)
+				continue;
+			encoded.putInt(checksum_frame);
+			for(int j = 0; j < CHECKSUM_SIZE; j++)
+				encoded.putInt(checksum[j]);
+			count++;
+		}
+		encoded.put(count_position, (byte)count);
+		clearUnsentChecksums();
+		MessageParser.WriteFrame(encoded, mLocalFrame, frame);
+		encoded.flip();
+		byte[] sent_frame = new byte[encoded.remaining()];
+		encoded.get(sent_frame);
+		mSentFrames.add(sent_frame);
+		
+		mPeerFrames.get(mClientID).add(frame);
+		mReceived[mClientID] = mLocalFrame;
+		combineFrames();
+		for(int i = 0; i < mPeers.length; i++)
+		{
+			if(i != mClientID)
+				sendTo(i);
+		}
+		poll();
+	}
+	
+	@Override
+	public void sendMessage(Message message) {
+		message.user_id = mClientID;
+		if(!coalesceCursor(mPendMessages, message))
+			mPendMessages.add(message);
+	}
+	
+	@Override
+	public int getReadyFrame() {
+		poll();
+		return mSyncedFrame;
+	}
+	
+	@Override
+	public boolean hasMessages() {
+		poll();
+		return super.hasMessages();
+	}
+	
+	@Override
+	public ArrayList<String> getPlayerNames() {
+		ArrayList<String> names = new ArrayList<String>(4);
+		names.add("Red");
+		names.add("Blue");
+		names.add("Green");
+		names.add("Yellow");
+		return names;
+	}
+	
+	/* poll
+	 * Reads every packet waiting, then sends any acknowledgements or resends due */
+	private void poll() {
+		if(mChannel == null)
+			return;
+		try
+		{
+			while(true)
+			{
+				mReceiveBuffer.clear();
+				if(mChannel.receive(mReceiveBuffer) == null)
+					break;
+				mReceiveBuffer.flip();
+				try
+				{
+					receive(mReceiveBuffer);
+				} catch(InvalidParameterException ex)
+				{
+					//Malformed packets are dropped like lost ones
+				}
+			}
+		} catch(IOException io_ex)
+		{
+			//Treated as packet loss, anything missed is resent
+		}
+		combineFrames();
+		
+		long time = getTime();
+		for(int i = 0; i < mPeers.length; i++)
+		{
+			if(i == mClientID)
+				continue;
+			boolean resend_due = mAcked[i] < mLocalFrame && time - mLastSend[i] >= RESEND_INTERVAL;
+			if(mAckDue[i] || resend_due)
+				sendTo(i);
+		}
+	}
+	
+	/* receive
+	 * Header is the magic byte, sender and the last of our frames the sender has, then
+	 * the sender's frames as written by SendFrameEnd */
+	private void receive(ByteBuffer packet) {
+		if(packet.remaining() < 6 || (packet.get() & 0xff) != PACKET_MAGIC)
+			return;
+		int sender = packet.get() & 0xff;
+		int ack = packet.getInt();
+		if(sender >= mPeers.length || sender == mClientID)
+			return;
+		if(ack > mAcked[sender] && ack <= mLocalFrame)
+			mAcked[sender] = ack;
+		
+		while(packet.hasRemaining())
+		{
+			int checksums = packet.get() & 0xff;
+			if(packet.remaining() < checksums * (CHECKSUM_SIZE + 1) * 4)
+				throw new InvalidParameterException("Truncated checksum");
+			for(int c = 0; c < checksums; c++)
+			{
+				int checksum_frame = packet.getInt();
+				for(int i = 0; i < CHECKSUM_SIZE; i++)
+					mParsedChecksum[i] = packet.getInt();
+				receiveChecksum(sender, checksum_frame, mParsedChecksum);
+			}
+			mParsed.clear();
+			int frame = MessageParser.ParseFrame(packet, mParsed);
+			if(frame < 0)
+				throw new InvalidParameterException("Truncated frame");
+			mAckDue[sender] = true;
+			if(frame != mReceived[sender] + 1)
+			{
+				//Duplicate, or ahead of a frame still to come
+				for(int i = 0; i < mParsed.size(); i++)
+					MessagePool.recycle(mParsed.get(i));
+				continue;
+			}
+			ArrayList<Message> messages = obtainFrame();
+			messages.addAll(mParsed);
+			for(int i = 0; i < messages.size(); i++)
+				messages.get(i).user_id = sender;
+			mPeerFrames.get(sender).add(messages);
+			mReceived[sender] = frame;
+		}
+		
+		//Forget frames every player has
+		int acked = mLocalFrame;
+		for(int i = 0; i < mPeers.length; i++)
+		{
+			if(i != mClientID && mAcked[i] < acked)
+				acked = mAcked[i];
+		}
+		while(mSentBase <= acked)
+		{
+			mSentFrames.removeFirst();
+			mSentBase++;
+		}
+	}
+	
+	/* combineFrames
+	 * Queues each frame every player has sent, in client id order */
+	private void combineFrames() {
+		while(true)
+		{
+			for(int i = 0; i < mPeers.length; i++)
+			{
+				if(mReceived[i] <= mSyncedFrame)
+					return;
+			}
+			for(int i = 0; i < mPeers.length; i++)
+			{
+				ArrayList<Message> messages = mPeerFrames.get(i).removeFirst();
+				for(int j = 0; j < messages.size(); j++)
+					queueMessage(messages.get(j));
+				messages.clear();
+				mFreeFrames.add(messages);
+			}
+			queueFrame();
+			mSyncedFrame++;
+		}
+	}
+	
+	/* sendTo
+	 * Sends the oldest frames the player has not acknowledged, so they can be taken in order */
+	private void sendTo(int player) {
+		ByteBuffer packet = mSendBuffer;
+		packet.clear();
+		packet.put((byte)PACKET_MAGIC);
+		packet.put((byte)mClientID);
+		packet.putInt(mReceived[player]);
+		int last = Math.min(mLocalFrame, mAcked[player] + RESEND_FRAMES);
+		for(int frame = mAcked[player] + 1; frame <= last; frame++)
+		{
+			byte[] sent_frame = mSentFrames.get(frame - mSentBase);
+			if(packet.remaining() < sent_frame.length)
+				break;
+			packet.put(sent_frame);
+		}
+		packet.flip();
+		transmit(packet, mPeers[player]);
+		mAckDue[player] = false;
+		mLastSend[player] = getTime();
+	}
+	
+	private ArrayList<Message> obtainFrame() {
+		if(mFreeFrames.size() > 0)
+			return mFreeFrames.remove(mFreeFrames.size() - 1);
+		return new ArrayList<Message>();
+	}
+	
+	/**
+	 * Sends a packet. Overridden to simulate packet loss and delay
+	 */
+	protected void transmit(ByteBuffer packet, InetSocketAddress address) {
+		if(mChannel == null)
+			return;
+		try
+		{
+			mChannel.send(packet, address);
+		} catch(IOException io_ex)
+		{
+			//Treated as packet loss, anything missed is resent
+		}
+	}
+	
+	/**
+	 * @return time in milliseconds used to time resends. Overridden to run on simulated time
+	 */
+	protected long getTime() {
+		return System.nanoTime() / 1000000;
+	}
+}
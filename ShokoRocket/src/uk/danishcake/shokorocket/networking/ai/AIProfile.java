@@ -0,0 +1,207 @@
+package uk.danishcake.shokorocket.networking.ai;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidParameterException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+
+import uk.danishcake.shokorocket.simulation.LevelElements;
+
+/**
+ * How an AI plays, so difficulties can be tuned and new ones tried from assets/AIProfiles.xml
+ * rather than in code. Each profile has a one character id that picks it for a seat in
+ * LocalSync's connect string, eg "EMHL". The profiles LocalSync.CreateAI uses start as the
+ * built in easy, medium, hard and expert, until replaced with setProfiles.
+ */
+public class AIProfile {
+	public static final String TYPE_BASIC = "Basic";
+	public static final String TYPE_LOOKAHEAD = "Lookahead";
+
+	public char id = 'H';
+	public String name = "";
+	public String type = TYPE_BASIC;
+	public int rate = 10; //Frames between moves
+	public int horizon = 12; //Squares BasicAI follows walkers from spawners, or steps LookaheadAI simulates
+	public int budget = 0; //Steps LookaheadAI simulates each frame at most
+	public boolean malice_intercept = false; //BasicAI turns walkers from spawners away from other rockets
+	public boolean malice_block = false; //BasicAI turns walkers away from the rocket it targets
+	public int intercept_cats_delay = 0; //Moves BasicAI lets cats approach before blocking, below 5
+	public int target_switch = 25; //Lead over BasicAI's target that makes another player the target
+
+	private static LinkedHashMap<Character, AIProfile> mProfiles = createBuiltIn();
+	private static final SAXParserFactory mParserFactory = SAXParserFactory.newInstance();
+
+	/**
+	 * @return a new AI playing as the profile says
+	 */
+	public BaseAI createAI() {
+		if(type.equals(TYPE_LOOKAHEAD))
+			return new LookaheadAI(horizon, budget, rate);
+		return new BasicAI(this);
+	}
+
+	/**
+	 * @return the profile with the given id, or null if there is none
+	 */
+	public static synchronized AIProfile getProfile(char id) {
+		return mProfiles.get(id);
+	}
+
+	/**
+	 * @return the built in profile with the given id whatever is in use, or null if there is none
+	 */
+	public static AIProfile getBuiltIn(char id) {
+		return createBuiltIn().get(id);
+	}
+
+	/**
+	 * @return the profiles in use by id, in the order loaded
+	 */
+	public static synchronized LinkedHashMap<Character, AIProfile> getProfiles() {
+		return new LinkedHashMap<Character, AIProfile>(mProfiles);
+	}
+
+	/**
+	 * Replaces the profiles in use, eg with those from Load
+	 */
+	public static synchronized void setProfiles(Map<Character, AIProfile> profiles) {
+		mProfiles = new LinkedHashMap<Character, AIProfile>(profiles);
+	}
+
+	/**
+	 * Loads profiles from XML, each a Profile tag with the fields as attributes. Only id is
+	 * required, eg &lt;Profile id="M" name="Medium" rate="20" malice_block="true"/&gt;
+	 * @return the profiles by id, in the order in the file
+	 */
+	public static LinkedHashMap<Character, AIProfile> Load(InputStream input) throws IOException {
+		try
+		{
+			SAXParser parser;
+			synchronized(mParserFactory)
+			{
+				parser = mParserFactory.newSAXParser();
+			}
+			LevelElements elements = new LevelElements();
+			parser.parse(input, elements);
+
+			LinkedHashMap<Character, AIProfile> profiles = new LinkedHashMap<Character, AIProfile>();
+			for(int i = 0; i < elements.getCount("Profile"); i++)
+			{
+				AIProfile profile = loadProfile(elements, i);
+				if(profiles.containsKey(profile.id))
+					throw new InvalidParameterException("Profile " + profile.id + " is defined twice");
+				profiles.put(profile.id, profile);
+			}
+			return profiles;
+		}
+		catch(ParserConfigurationException parse_config_error)
+		{
+			throw new IOException("Unable to create parser to read XML: " + parse_config_error.getMessage());
+		}
+		catch(SAXException sax_error)
+		{
+			throw new IOException("Unable to load AI profiles due to SAX exception: " + sax_error.getMessage());
+		}
+		catch(InvalidParameterException xml_error)
+		{
+			throw new IOException("Unable to load AI profiles due to XML parameter error : " + xml_error.getMessage());
+		}
+	}
+
+	private static AIProfile loadProfile(LevelElements elements, int index) {
+		AIProfile profile = new AIProfile();
+		String id = elements.getAttribute("Profile", index, "id");
+		if(id == null || id.length() != 1 || id.charAt(0) == '0' || id.charAt(0) == ' ')
+			throw new InvalidParameterException("Each profile needs a one character id other than 0 or space");
+		profile.id = id.charAt(0);
+		String name = elements.getAttribute("Profile", index, "name");
+		profile.name = name == null ? id : name;
+		String type = elements.getAttribute("Profile", index, "type");
+		if(type != null)
+		{
+			if(!type.equals(TYPE_BASIC) && !type.equals(TYPE_LOOKAHEAD))
+				throw new InvalidParameterException("Unknown type " + type + " in profile " + id);
+			profile.type = type;
+		}
+		profile.rate = loadInt(elements, index, "rate", profile.rate);
+		profile.horizon = loadInt(elements, index, "horizon", profile.horizon);
+		profile.budget = loadInt(elements, index, "budget", profile.budget);
+		profile.malice_intercept = loadBoolean(elements, index, "malice_intercept", profile.malice_intercept);
+		profile.malice_block = loadBoolean(elements, index, "malice_block", profile.malice_block);
+		profile.intercept_cats_delay = loadInt(elements, index, "intercept_cats_delay", profile.intercept_cats_delay);
+		profile.target_switch = loadInt(elements, index, "target_switch", profile.target_switch);
+
+		if(profile.rate < 1 || profile.horizon < 1)
+			throw new InvalidParameterException("Rate and horizon must be positive in profile " + id);
+		if(profile.type.equals(TYPE_LOOKAHEAD) && profile.budget < profile.horizon * 2 + 1)
+			throw new InvalidParameterException("Budget must be more than twice the horizon in profile " + id);
+		return profile;
+	}
+
+	private static int loadInt(LevelElements elements, int index, String name, int value) {
+		String text = elements.getAttribute("Profile", index, name);
+		if(text == null)
+			return value;
+		try
+		{
+			return Integer.parseInt(text);
+		} catch(NumberFormatException nfe)
+		{
+			throw new InvalidParameterException("Unable to parse " + name + " in profile");
+		}
+	}
+
+	private static boolean loadBoolean(LevelElements elements, int index, String name, boolean value) {
+		String text = elements.getAttribute("Profile", index, name);
+		if(text == null)
+			return value;
+		if(!text.equals("true") && !text.equals("false"))
+			throw new InvalidParameterException("Unable to parse " + name + " in profile");
+		return text.equals("true");
+	}
+
+	/* createBuiltIn
+	 * The difficulties BasicAI had before profiles, and the expert LookaheadAI. Kept the
+	 * same as assets/AIProfiles.xml
+	 */
+	private static LinkedHashMap<Character, AIProfile> createBuiltIn() {
+		LinkedHashMap<Character, AIProfile> profiles = new LinkedHashMap<Character, AIProfile>();
+		AIProfile easy = new AIProfile();
+		easy.id = 'E';
+		easy.name = "Easy";
+		easy.rate = 35;
+		profiles.put(easy.id, easy);
+
+		AIProfile medium = new AIProfile();
+		medium.id = 'M';
+		medium.name = "Medium";
+		medium.rate = 20;
+		medium.malice_block = true;
+		profiles.put(medium.id, medium);
+
+		AIProfile hard = new AIProfile();
+		hard.id = 'H';
+		hard.name = "Hard";
+		hard.rate = 10;
+		hard.malice_intercept = true;
+		hard.malice_block = true;
+		profiles.put(hard.id, hard);
+
+		AIProfile expert = new AIProfile();
+		expert.id = 'L';
+		expert.name = "Expert";
+		expert.type = TYPE_LOOKAHEAD;
+		expert.rate = 4;
+		expert.horizon = 40;
+		expert.budget = 600;
+		profiles.put(expert.id, expert);
+		return profiles;
+	}
+}
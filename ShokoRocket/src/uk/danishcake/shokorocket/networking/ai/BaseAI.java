@@ -8,10 +8,31 @@ import uk.danishcake.shokorocket.networking.messages.Message;
 public abstract class BaseAI {
 	protected MPWorld mWorld;
 	protected int mPlayerID;
+	private long mDeadline = 0;
 	
 	public void setup(MPWorld world, int player_id) {
 		mWorld = world;
 		mPlayerID = player_id;
 	}
 	public abstract void generateMessages(ArrayList<Message> messages);
+	
+	/**
+	 * Called when the messages from the last generateMessages were not sent, eg as they were
+	 * decided too late. An AI that remembers acting should forget it, so it does not wait
+	 * on arrows that were never placed
+	 */
+	public void decisionDropped() {
+	}
+	
+	/**
+	 * Sets the System.nanoTime after which whatever generateMessages decides will be dropped,
+	 * or 0 for none. AIs that take a while stop early once past it, see isPastDeadline
+	 */
+	public void setDeadline(long deadline) {
+		mDeadline = deadline;
+	}
+	
+	protected boolean isPastDeadline() {
+		return mDeadline != 0 && System.nanoTime() - mDeadline > 0;
+	}
 }
\ No newline at end of file
@@ -1,18 +1,18 @@
 package uk.danishcake.shokorocket.networking.ai;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 import uk.danishcake.shokorocket.networking.messages.ArrowClearMessage;
 import uk.danishcake.shokorocket.networking.messages.ArrowPlacementMessage;
 import uk.danishcake.shokorocket.networking.messages.CursorPositioningMessage;
 import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
 import uk.danishcake.shokorocket.simulation.Direction;
 import uk.danishcake.shokorocket.simulation.MPWorld;
 import uk.danishcake.shokorocket.simulation.SquareType;
 import uk.danishcake.shokorocket.simulation.Turns;
 import uk.danishcake.shokorocket.simulation.Vector2i;
-import uk.danishcake.shokorocket.simulation.Walker;
+import uk.danishcake.shokorocket.simulation.WalkerList;
 
 public class BasicAI extends BaseAI {
 	private int[] mRowCount;
@@ -25,6 +25,7 @@ public class BasicAI extends BaseAI {
 	private Vector2i mInterceptPosition = new Vector2i(0, 0);
 	private Direction mInterceptDirection;
 	private ArrayList<Vector2i> mSpawners = new ArrayList<Vector2i>();
+	private PathCache mPaths;
 
 	private Vector2i mRocketPosition = new Vector2i(0, 0);
 	private Vector2i mDirectPosition; //Can be mRocketPosition or mTargetRocket, used to direct cats or mice!
@@ -32,9 +33,14 @@ public class BasicAI extends BaseAI {
 
 	private int AI_RATE = 10;
 	private int mActTimer = 0;
+	private boolean mActed = false; //In the last generateMessages, with the timers before
+	private int mActTimerBefore = 0;
+	private int mMaliceTacticBefore = 0;
 	private boolean mMaliceIntercept;
 	private boolean mMaliceBlock;
 	private int mInterceptCatsDelay;
+	private int mTargetSwitch;
+	private int mInterceptRange;
 	private int mCatsAge = 0;
 	private boolean mLtvCats = false;
 
@@ -46,28 +52,13 @@ public class BasicAI extends BaseAI {
 	private Vector2i mCatBlockPosition = new Vector2i(0, 0);
 	private Direction mCatBlockDirection = Direction.Invalid;
 
-	public BasicAI(int difficulty){
-		if(difficulty <= 0)
-		{
-			AI_RATE = 35;
-			mMaliceIntercept = false;
-			mMaliceBlock = false;
-			mInterceptCatsDelay = 0;
-		}
-		else if(difficulty == 1)
-		{
-			AI_RATE = 20;
-			mMaliceIntercept = false;
-			mMaliceBlock = true;
-			mInterceptCatsDelay = 0;
-		}
-		else
-		{
-			AI_RATE = 10;
-			mMaliceIntercept = true;
-			mMaliceBlock = true;
-			mInterceptCatsDelay = 0;
-		}
+	public BasicAI(AIProfile profile){
+		AI_RATE = profile.rate;
+		mMaliceIntercept = profile.malice_intercept;
+		mMaliceBlock = profile.malice_block;
+		mInterceptCatsDelay = profile.intercept_cats_delay;
+		mTargetSwitch = profile.target_switch;
+		mInterceptRange = profile.horizon;
 	}
 	
 	@Override
@@ -76,6 +67,7 @@ public class BasicAI extends BaseAI {
 
 		mRowCount = new int[mWorld.getHeight()];
 		mColCount = new int[mWorld.getWidth()];
+		mPaths = new PathCache(mWorld);
 		findRocket(mPlayerID, mRocketPosition);
 		findRocket(0, mTargetRocket);
 		findSpawners();
@@ -110,6 +102,7 @@ public class BasicAI extends BaseAI {
 	}
 	
 	public void generateMessages(ArrayList<Message> messages) {
+		mActed = false;
 		boolean cats_present = mWorld.getLiveCats().size() > 0;
 		if(mLtvCats != cats_present)
 		{
@@ -123,21 +116,25 @@ public class BasicAI extends BaseAI {
 			return;
 		} else if(mActTimer >= AI_RATE + mPlayerID)
 		{
-			ArrowClearMessage acm = new ArrowClearMessage();
+			ArrowClearMessage acm = MessagePool.obtainArrowClear();
 			acm.setCommon(mPlayerID, 0);
 			messages.add(acm);
+			mActed = true;
+			mActTimerBefore = mActTimer;
+			mMaliceTacticBefore = mMaliceTactic;
 			mActTimer = 0;
 		}
 
 		mCatBlock = false;
 		mIntercept = false;
-		ArrayList<Walker> walkers = null;
+		WalkerList walkers = null;
+		mPaths.update();
 
-		//Change target if leader > 50 ahead
+		//Change target if leader too far ahead
 		int[] scores = mWorld.getPlayerScores();
 		for(int i = 0; i < 4; i++) {
 			if(i != mPlayerID && i != mTarget) {
-				if(scores[i] > scores[mTarget] + 25) {
+				if(scores[i] > scores[mTarget] + mTargetSwitch) {
 					mTarget = i;
 					findRocket(mTarget, mTargetRocket);
 					break;
@@ -146,7 +143,7 @@ public class BasicAI extends BaseAI {
 		}
 
 		//First check if there are incoming cats and block as a priority!
-		ArrayList<Walker> cats = mWorld.getLiveCats();
+		WalkerList cats = mWorld.getLiveCats();
 		if(cats.size() > 0 && mCatsAge < 5) mCatsAge++; //Delay blocking of cats depending on difficulty
 		if(cats.size() == 0)
 		{
@@ -160,10 +157,10 @@ public class BasicAI extends BaseAI {
 			int from_west = 0;
 			int from_east = 0;
 
-			for (Walker walker : cats) {
-				int x = walker.getX();
-				int y = walker.getY();
-				Direction d = walker.getDirection();
+			for (int i = 0; i < cats.size(); i++) {
+				int x = cats.getX(i);
+				int y = cats.getY(i);
+				Direction d = cats.getDirection(i);
 				if(x == mRocketPosition.x && y < mRocketPosition.y && d == Direction.South) {
 					from_north++;
 				}
@@ -203,11 +200,11 @@ public class BasicAI extends BaseAI {
 				{
 					mCatBlock = true;
 
-					CursorPositioningMessage cpm = new CursorPositioningMessage(mCatBlockPosition.x, mCatBlockPosition.y);
+					CursorPositioningMessage cpm = MessagePool.obtainCursorPosition(mCatBlockPosition.x, mCatBlockPosition.y);
 					cpm.setCommon(mPlayerID, 1);
 					messages.add(cpm);
 
-					ArrowPlacementMessage apm = new ArrowPlacementMessage(mCatBlockPosition.x, mCatBlockPosition.y, mCatBlockDirection);
+					ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mCatBlockPosition.x, mCatBlockPosition.y, mCatBlockDirection);
 					apm.setCommon(mPlayerID, 1);
 					messages.add(apm);
 				}
@@ -227,6 +224,7 @@ public class BasicAI extends BaseAI {
 			scan_sweep(walkers);
 			
 		}
+		mPaths.setWalkers(walkers);
 
 		{
 		//Chose whether to use columns or rows based on area with most walkers
@@ -245,13 +243,13 @@ public class BasicAI extends BaseAI {
 		if(pref == 1) //Do a row
 		{
 			Direction arrow_dir = mBestRow < mDirectPosition.y ? Direction.South : Direction.North;
-			if(isColClear(mDirectPosition.x, mBestRow, mDirectPosition.y) && countRowReachable(mBestRow, mDirectPosition.x, walkers) > 0) {
+			if(mPaths.isColClear(mDirectPosition.x, mBestRow, mDirectPosition.y, mDirectID) && mPaths.countRowReachable(mBestRow, mDirectPosition.x) > 0) {
 				//If column clear place direct arrow
-				CursorPositioningMessage cpm = new CursorPositioningMessage(mDirectPosition.x, mBestRow);
+				CursorPositioningMessage cpm = MessagePool.obtainCursorPosition(mDirectPosition.x, mBestRow);
 				cpm.setCommon(mPlayerID, 1);
 				messages.add(cpm);
 
-				ArrowPlacementMessage apm = new ArrowPlacementMessage(mDirectPosition.x, mBestRow, arrow_dir);
+				ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mDirectPosition.x, mBestRow, arrow_dir);
 				apm.setCommon(mPlayerID, 1);
 				messages.add(apm);
 			} else //Find an L shape
@@ -287,19 +285,19 @@ public class BasicAI extends BaseAI {
 						}
 					}
 					//Check if L_sel OK
-					if(isRowClear(mDirectPosition.y, mDirectPosition.x, L_sel) && 
-					   isColClear(L_sel, mDirectPosition.y, mBestRow) && 
-					   countRowReachable(mBestRow, L_sel, walkers) > 0)
+					if(mPaths.isRowClear(mDirectPosition.y, mDirectPosition.x, L_sel, mDirectID) && 
+					   mPaths.isColClear(L_sel, mDirectPosition.y, mBestRow, mDirectID) && 
+					   mPaths.countRowReachable(mBestRow, L_sel) > 0)
 					{
-						CursorPositioningMessage cpm = new CursorPositioningMessage(L_sel, mBestRow);
+						CursorPositioningMessage cpm = MessagePool.obtainCursorPosition(L_sel, mBestRow);
 						cpm.setCommon(mPlayerID, 1);
 						messages.add(cpm);
 
-						ArrowPlacementMessage apm = new ArrowPlacementMessage(L_sel, mDirectPosition.y, L_sel > mDirectPosition.x ? Direction.West : Direction.East);
+						ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(L_sel, mDirectPosition.y, L_sel > mDirectPosition.x ? Direction.West : Direction.East);
 						apm.setCommon(mPlayerID, 1);
 						messages.add(apm);
 
-						ArrowPlacementMessage apm2 = new ArrowPlacementMessage(L_sel, mBestRow, mBestRow > mDirectPosition.y ? Direction.North : Direction.South);
+						ArrowPlacementMessage apm2 = MessagePool.obtainArrowPlacement(L_sel, mBestRow, mBestRow > mDirectPosition.y ? Direction.North : Direction.South);
 						apm2.setCommon(mPlayerID, 1);
 						messages.add(apm2);
 						break;
@@ -309,13 +307,13 @@ public class BasicAI extends BaseAI {
 		} else if(pref == 2)
 		{
 			Direction arrow_dir = mBestCol < mDirectPosition.x ? Direction.East : Direction.West;
-			if(isRowClear(mDirectPosition.y, mBestCol, mDirectPosition.x) && countColReachable(mBestCol, mDirectPosition.y, walkers) > 0) {
+			if(mPaths.isRowClear(mDirectPosition.y, mBestCol, mDirectPosition.x, mDirectID) && mPaths.countColReachable(mBestCol, mDirectPosition.y) > 0) {
 				//If row clear place direct arrow
-				CursorPositioningMessage cpm = new CursorPositioningMessage(mBestCol, mDirectPosition.y);
+				CursorPositioningMessage cpm = MessagePool.obtainCursorPosition(mBestCol, mDirectPosition.y);
 				cpm.setCommon(mPlayerID, 1);
 				messages.add(cpm);
 
-				ArrowPlacementMessage apm = new ArrowPlacementMessage(mBestCol, mDirectPosition.y, arrow_dir);
+				ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mBestCol, mDirectPosition.y, arrow_dir);
 				apm.setCommon(mPlayerID, 1);
 				messages.add(apm);
 			} else
@@ -351,19 +349,19 @@ public class BasicAI extends BaseAI {
 						}
 					}
 					//Check if L_sel OK
-					if(isColClear(mDirectPosition.x, mDirectPosition.y, L_sel) && 
-					   isRowClear(L_sel, mDirectPosition.x, mBestCol) &&
-					   countColReachable(mBestCol, L_sel, walkers) > 0)
+					if(mPaths.isColClear(mDirectPosition.x, mDirectPosition.y, L_sel, mDirectID) && 
+					   mPaths.isRowClear(L_sel, mDirectPosition.x, mBestCol, mDirectID) &&
+					   mPaths.countColReachable(mBestCol, L_sel) > 0)
 					{
-						CursorPositioningMessage cpm = new CursorPositioningMessage(mDirectPosition.x, L_sel);
+						CursorPositioningMessage cpm = MessagePool.obtainCursorPosition(mDirectPosition.x, L_sel);
 						cpm.setCommon(mPlayerID, 1);
 						messages.add(cpm);
 
-						ArrowPlacementMessage apm = new ArrowPlacementMessage(mDirectPosition.x, L_sel, L_sel > mDirectPosition.y ? Direction.North : Direction.South);
+						ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mDirectPosition.x, L_sel, L_sel > mDirectPosition.y ? Direction.North : Direction.South);
 						apm.setCommon(mPlayerID, 1);
 						messages.add(apm);
 
-						ArrowPlacementMessage apm2 = new ArrowPlacementMessage(mBestCol, L_sel, mBestCol > mDirectPosition.x ? Direction.West : Direction.East);
+						ArrowPlacementMessage apm2 = MessagePool.obtainArrowPlacement(mBestCol, L_sel, mBestCol > mDirectPosition.x ? Direction.West : Direction.East);
 						apm2.setCommon(mPlayerID, 1);
 						messages.add(apm2);
 						break;
@@ -379,7 +377,7 @@ public class BasicAI extends BaseAI {
 			//Try walking a spawner, see if it leads to an enemy
 			for (Vector2i spawner : mSpawners) {
 				mInterceptDirection = walkSpawner(spawner.x, spawner.y, mWorld.getSpecialSquare(spawner.x, spawner.y).toSpawnerDirection(),
-												 12, mInterceptPosition);
+												 mInterceptRange, mInterceptPosition);
 				mIntercept = mInterceptDirection != Direction.Invalid;
 				if(mIntercept)
 				{
@@ -388,7 +386,7 @@ public class BasicAI extends BaseAI {
 						d = Turns.TurnLeft(mInterceptDirection);
 					else
 						d = Turns.TurnRight(mInterceptDirection);
-					ArrowPlacementMessage apm = new ArrowPlacementMessage(mInterceptPosition.x, mInterceptPosition.y, d);
+					ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mInterceptPosition.x, mInterceptPosition.y, d);
 					apm.setCommon(mPlayerID, 1);
 					messages.add(apm);
 					break;
@@ -411,16 +409,16 @@ public class BasicAI extends BaseAI {
 			   from_west == 0 && from_east == 0 && 
 			   mLastBlockDir != Direction.Invalid)
 			{
-				ArrowPlacementMessage apm = new ArrowPlacementMessage(mLastBlockPos.x, mLastBlockPos.y, mLastBlockDir);
+				ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mLastBlockPos.x, mLastBlockPos.y, mLastBlockDir);
 				apm.setCommon(mPlayerID, 1);
 				messages.add(apm);
 				placed = true;
 			}
 
-			for (Walker walker : walkers) {
-				int x = walker.getX();
-				int y = walker.getY();
-				Direction d = walker.getDirection();
+			for (int i = 0; i < walkers.size(); i++) {
+				int x = walkers.getX(i);
+				int y = walkers.getY(i);
+				Direction d = walkers.getDirection(i);
 				if(x == mTargetRocket.x && y < mTargetRocket.y && d == Direction.South) {
 					from_north++;
 				}
@@ -453,7 +451,7 @@ public class BasicAI extends BaseAI {
 						else
 							redirect = Direction.North;
 					}
-					ArrowPlacementMessage apm = new ArrowPlacementMessage(mTargetRocket.x, mTargetRocket.y - 1, redirect);
+					ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mTargetRocket.x, mTargetRocket.y - 1, redirect);
 					apm.setCommon(mPlayerID, 1);
 					messages.add(apm);
 					
@@ -480,7 +478,7 @@ public class BasicAI extends BaseAI {
 						else
 							redirect = Direction.South;
 					}
-					ArrowPlacementMessage apm = new ArrowPlacementMessage(mTargetRocket.x, mTargetRocket.y + 1, redirect);
+					ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mTargetRocket.x, mTargetRocket.y + 1, redirect);
 					apm.setCommon(mPlayerID, 1);
 					messages.add(apm);
 					
@@ -508,7 +506,7 @@ public class BasicAI extends BaseAI {
 							redirect = Direction.West;
 					}
 					
-					ArrowPlacementMessage apm = new ArrowPlacementMessage(mTargetRocket.x - 1, mTargetRocket.y, redirect);
+					ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mTargetRocket.x - 1, mTargetRocket.y, redirect);
 					apm.setCommon(mPlayerID, 1);
 					messages.add(apm);
 					
@@ -536,7 +534,7 @@ public class BasicAI extends BaseAI {
 							redirect = Direction.East;
 					}
 					
-					ArrowPlacementMessage apm = new ArrowPlacementMessage(mTargetRocket.x + 1, mTargetRocket.y, redirect);
+					ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(mTargetRocket.x + 1, mTargetRocket.y, redirect);
 					apm.setCommon(mPlayerID, 1);
 					messages.add(apm);
 				}
@@ -546,138 +544,36 @@ public class BasicAI extends BaseAI {
 	}
 	
 	/**
-	 * Checks that there is a clear route between along a row between two columns
+	 * Takes back acting in the last frame, so the AI acts again next frame rather than
+	 * waiting its rate out
 	 */
-	private boolean isRowClear(int row, int colA, int colB) {
-		int low = colA < colB ? colA : colB;
-		int high = colA < colB ? colB : colA;
-		for(int x = low; x <= high; x++)
-		{
-			SquareType ss = mWorld.getSpecialSquare(x, row);
-			//TODO walls
-			//TODO holes, other rockets
-			if(ss == SquareType.Hole || (ss == SquareType.Rocket && mWorld.getPlayer(x, row) != mDirectID) ||
-			   (ss.getArrowDirectionality() != Direction.Invalid && mWorld.getPlayer(x, row) != mDirectID))
-			{
-				return false;
-			}
-		}
-		return true;
-	}
-	
-	/**
-	 * Checks that there is a clear route between along a row between two columns
-	 */
-	private boolean isColClear(int col, int rowA, int rowB) {
-		int low = rowA < rowB ? rowA : rowB;
-		int high = rowA < rowB ? rowB : rowA;
-		for(int y = low; y <= high; y++)
-		{
-			SquareType ss = mWorld.getSpecialSquare(col, y);
-			//TODO walls
-			//TODO holes, other rockets
-			if(ss == SquareType.Hole || (ss == SquareType.Rocket && mWorld.getPlayer(col, y) != mDirectID) || 
-			   (ss.getArrowDirectionality() != Direction.Invalid && mWorld.getPlayer(col, y) != mDirectID))
-			{
-				return false;
-			}
-		}
-		return true;
-	}
-	
-	/**
-	 * Counts the number of walkers in row 'row' who will reach col
-	 * @param row
-	 * @param col
-	 * @return
-	 */
-	private int countRowReachable(int row, int col, ArrayList<Walker> walkers) {
-		int reachable = 0;
-		for(int i = col + 1; i < mWorld.getWidth(); i++) {
-			//Terminate early if blocked
-			SquareType ss = mWorld.getSpecialSquare(i, row);
-			if(ss == SquareType.Hole || ss == SquareType.Rocket ||
-			   (ss.getArrowDirectionality() != Direction.West && 
-				ss.getArrowDirectionality() != Direction.Invalid))
-				break;
-			for (Walker walker : walkers) {
-				//Count walkers in this row
-				if(walker.getY() == row && walker.getX() == i)
-					reachable++;
-			}
-		}
-		for(int i = col - 1; i > 0; i--) {
-			//Terminate early if blocked
-			SquareType ss = mWorld.getSpecialSquare(i, row);
-			if(ss == SquareType.Hole || ss == SquareType.Rocket ||
-					   (ss.getArrowDirectionality() != Direction.East && 
-						ss.getArrowDirectionality() != Direction.Invalid))
-				break;
-			for (Walker walker : walkers) {
-				//Count walkers in this row
-				if(walker.getY() == row && walker.getX() == i)
-					reachable++;
-			}			
-		}
-		return reachable;
+	@Override
+	public void decisionDropped() {
+		if(!mActed)
+			return;
+		mActTimer = mActTimerBefore;
+		mMaliceTactic = mMaliceTacticBefore;
+		mActed = false;
 	}
 	
-	/**
-	 * Counts the number of walkers in col 'col' who will reach row
-	 * @param row
-	 * @param col
-	 * @return
-	 */
-	private int countColReachable(int col, int row, ArrayList<Walker> walkers) {
-		int reachable = 0;
-		for(int i = row + 1; i < mWorld.getHeight(); i++) {
-			//Terminate early if blocked
-			SquareType ss = mWorld.getSpecialSquare(col, i);
-			if(ss == SquareType.Hole || ss == SquareType.Rocket ||
-					   (ss.getArrowDirectionality() != Direction.North && 
-						ss.getArrowDirectionality() != Direction.Invalid))
-				break;
-			for (Walker walker : walkers) {
-				//Count walkers in this row
-				if(walker.getX() == col && walker.getY() == i)
-					reachable++;
-			}
-		}
-		for(int i = row - 1; i > 0; i--) {
-			//Terminate early if blocked
-			SquareType ss = mWorld.getSpecialSquare(col, i);
-			if(ss == SquareType.Hole || ss == SquareType.Rocket ||
-					   (ss.getArrowDirectionality() != Direction.South && 
-						ss.getArrowDirectionality() != Direction.Invalid))
-				break;
-			for (Walker walker : walkers) {
-				//Count walkers in this row
-				if(walker.getX() == col && walker.getY() == i)
-					reachable++;
-			}			
-		}
-		return reachable;
-	}
-
 	/**
 	 * Finds the number of walkers in each row/column moving towards the rocket in that axis
 	 * walkers can be either mice or cats
 	 */
-	private void scan_sweep(ArrayList<Walker> walkers) {
+	private void scan_sweep(WalkerList walkers) {
 		for(int i = 0; i < mWorld.getWidth(); i++)
 			mColCount[i] = 0;
 		for(int i = 0; i < mWorld.getHeight(); i++)
 			mRowCount[i] = 0;
-		Iterator<Walker> walker_it = walkers.iterator();
-		while(walker_it.hasNext()) {
-			Walker walker = walker_it.next();
-			int x = walker.getX();
-			int y = walker.getY();
-			if((y <= mDirectPosition.y && walker.getDirection() == Direction.South) || 
-			   (y >= mDirectPosition.y && walker.getDirection() == Direction.North))
+		for(int i = 0; i < walkers.size(); i++) {
+			int x = walkers.getX(i);
+			int y = walkers.getY(i);
+			Direction d = walkers.getDirection(i);
+			if((y <= mDirectPosition.y && d == Direction.South) || 
+			   (y >= mDirectPosition.y && d == Direction.North))
 				mColCount[x]++;
-			if((x <= mDirectPosition.x && walker.getDirection() == Direction.East) || 
-			   (x >= mDirectPosition.x && walker.getDirection() == Direction.West))
+			if((x <= mDirectPosition.x && d == Direction.East) || 
+			   (x >= mDirectPosition.x && d == Direction.West))
 			mRowCount[y]++;
 		}
 		int max_count = 0;
@@ -713,6 +609,33 @@ public class BasicAI extends BaseAI {
 		Direction intercept_direction = Direction.Invalid;
 		for(int i = 0; i < range; i++)
 		{
+			//Cross empty squares in one go, nothing on them changes the walk
+			int run = mPaths.getEmptyRun(x, y, direction);
+			if(run > 0)
+			{
+				if(run > range - i)
+					run = range - i;
+				switch(direction)
+				{
+				case North:
+					y = (y - run + mWorld.getHeight()) % mWorld.getHeight();
+					break;
+				case South:
+					y = (y + run) % mWorld.getHeight();
+					break;
+				case West:
+					x = (x - run + mWorld.getWidth()) % mWorld.getWidth();
+					break;
+				case East:
+					x = (x + run) % mWorld.getWidth();
+					break;
+				}
+				out_position.x = x;
+				out_position.y = y;
+				intercept_direction = direction;
+				i += run - 1;
+				continue;
+			}
 			switch(direction)
 			{
 			case North:
@@ -0,0 +1,280 @@
+package uk.danishcake.shokorocket.networking.ai;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import uk.danishcake.shokorocket.networking.messages.ArrowPlacementMessage;
+import uk.danishcake.shokorocket.networking.messages.CursorPositioningMessage;
+import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
+import uk.danishcake.shokorocket.simulation.Direction;
+import uk.danishcake.shokorocket.simulation.MPWorld;
+import uk.danishcake.shokorocket.simulation.SquareType;
+import uk.danishcake.shokorocket.simulation.WalkerList;
+import uk.danishcake.shokorocket.simulation.WorldSnapshot;
+
+/**
+ * An AI that tries arrows on its own copy of the world, simulated a few seconds ahead,
+ * and places whichever does most for its score against the best of the other players.
+ * It places one arrow at a time rather than clearing them all, its oldest arrow making
+ * way as for anyone else.
+ *
+ * Each frame at most a fixed number of steps are simulated. The search of the squares
+ * walkers are about to cross carries on each frame from where the last left off, and the
+ * best arrows found so far are simulated again first as the world has moved on. Nothing
+ * depends on the clock, so games between AIs are repeatable, unless a deadline is set
+ * in which case the search stops there.
+ */
+public class LookaheadAI extends BaseAI {
+	private static final Direction[] mDirections = {Direction.North, Direction.South, Direction.East, Direction.West};
+	private static final int KEPT_CANDIDATES = 6;
+	private static final int PLACEMENT_DELAY = 1; //Steps until a message sent as a frame ends is actioned
+
+	/* Candidate
+	 * An arrow and its value when last simulated, in the frame given
+	 */
+	private static class Candidate
+	{
+		public int square;
+		public int direction;
+		public int value;
+		public int frame;
+	}
+
+	private int mHorizon;
+	private int mStepBudget;
+	private int mActInterval;
+	private int mStepsUsed = 0;
+	private int mFrame = 0;
+	private int mLastActFrame = 0;
+	private int mPreviousActFrame = 0; //Before the last, in case that was dropped
+	private Candidate mPlaced = new Candidate(); //The arrow placed when last acting
+
+	private MPWorld mCopy = new MPWorld();
+	private WorldSnapshot mGame = new WorldSnapshot();
+	private WorldSnapshot mStart = new WorldSnapshot(); //The copy as this frame's messages are actioned
+	private int[] mStartScores = new int[4];
+	private boolean[] mVisited = new boolean[0];
+	private int mNextSquare = 0; //Where the search carries on from next frame
+	private int mNextDirection = 0;
+	private Candidate[] mKept = new Candidate[KEPT_CANDIDATES];
+	private int mKeptCount = 0;
+
+	/**
+	 * @param horizon steps of 100ms simulated ahead for each arrow tried
+	 * @param step_budget steps simulated each frame at most, to try the arrows and work
+	 * out what happens with none. At least twice horizon
+	 * @param act_interval frames between placing arrows
+	 */
+	public LookaheadAI(int horizon, int step_budget, int act_interval) {
+		if(horizon < 1 || act_interval < 1)
+			throw new InvalidParameterException("Horizon and act interval must be positive");
+		if(step_budget < horizon * 2 + PLACEMENT_DELAY)
+			throw new InvalidParameterException("Step budget must allow at least one arrow to be tried");
+		mHorizon = horizon;
+		mStepBudget = step_budget;
+		mActInterval = act_interval;
+		for(int i = 0; i < KEPT_CANDIDATES; i++)
+			mKept[i] = new Candidate();
+	}
+
+	/**
+	 * @return the steps simulated in the last frame, never more than the budget
+	 */
+	public int getStepsUsed() {
+		return mStepsUsed;
+	}
+
+	@Override
+	public void generateMessages(ArrayList<Message> messages) {
+		mFrame++;
+		mStepsUsed = 0;
+		if(mWorld.isFinished())
+			return;
+
+		mWorld.Snapshot(mGame);
+		mCopy.Restore(mGame);
+		mCopy.lookAhead(PLACEMENT_DELAY);
+		mStepsUsed += PLACEMENT_DELAY;
+		mCopy.Snapshot(mStart);
+		System.arraycopy(mCopy.getPlayerScores(), 0, mStartScores, 0, mStartScores.length);
+
+		//Placing nothing is what the arrows must beat, and shows the squares worth trying
+		int squares = mCopy.getWidth() * mCopy.getHeight();
+		if(mVisited.length != squares)
+			mVisited = new boolean[squares];
+		Arrays.fill(mVisited, false);
+		int baseline = simulate(true);
+
+		//Only arrows that still beat placing nothing stay kept, so the search is not crowded out
+		for(int i = 0; i < mKeptCount && mStepsUsed + mHorizon <= mStepBudget && !isPastDeadline(); i++)
+		{
+			Candidate candidate = mKept[i];
+			if(canPlace(candidate.square))
+			{
+				candidate.value = evaluate(candidate.square, candidate.direction);
+				candidate.frame = mFrame;
+			}
+			if(candidate.frame == mFrame && candidate.value > baseline)
+				continue;
+			removeKept(i);
+			i--;
+		}
+
+		for(int tried = 0; tried < squares * mDirections.length && mStepsUsed + mHorizon <= mStepBudget && !isPastDeadline(); tried++)
+		{
+			int square = mNextSquare % squares;
+			int direction = mNextDirection;
+			mNextDirection++;
+			if(mNextDirection == mDirections.length)
+			{
+				mNextDirection = 0;
+				mNextSquare = (square + 1) % squares;
+			}
+			if(!mVisited[square] || !canPlace(square) || findKept(square, direction) >= 0)
+				continue;
+			int value = evaluate(square, direction);
+			if(value > baseline)
+				keep(square, direction, value);
+		}
+
+		if(mFrame - mLastActFrame < mActInterval || isPastDeadline())
+			return;
+		int best = -1;
+		for(int i = 0; i < mKeptCount; i++)
+		{
+			if(mKept[i].frame == mFrame && (best == -1 || mKept[i].value > mKept[best].value))
+				best = i;
+		}
+		if(best >= 0)
+		{
+			int x = mKept[best].square % mCopy.getWidth();
+			int y = mKept[best].square / mCopy.getWidth();
+			CursorPositioningMessage cpm = MessagePool.obtainCursorPosition(x, y);
+			cpm.setCommon(mPlayerID, 1);
+			messages.add(cpm);
+			ArrowPlacementMessage apm = MessagePool.obtainArrowPlacement(x, y, mDirections[mKept[best].direction]);
+			apm.setCommon(mPlayerID, 1);
+			messages.add(apm);
+			//Placing it again would take it away, so it has to be found afresh
+			mPlaced.square = mKept[best].square;
+			mPlaced.direction = mKept[best].direction;
+			mPlaced.value = mKept[best].value;
+			removeKept(best);
+			mPreviousActFrame = mLastActFrame;
+			mLastActFrame = mFrame;
+		}
+	}
+
+	/**
+	 * Takes back acting in the last frame, keeping the arrow to try again
+	 */
+	@Override
+	public void decisionDropped() {
+		if(mLastActFrame != mFrame)
+			return;
+		mLastActFrame = mPreviousActFrame;
+		keep(mPlaced.square, mPlaced.direction, mPlaced.value);
+	}
+
+	/* canPlace
+	 * True unless the square is special or holds another player's arrow. Trying one of this
+	 * player's own arrows again takes it away
+	 */
+	private boolean canPlace(int square) {
+		int x = square % mCopy.getWidth();
+		int y = square / mCopy.getWidth();
+		SquareType square_type = mCopy.getSpecialSquare(x, y);
+		if(square_type == SquareType.Hole || square_type == SquareType.Rocket ||
+		   square_type == SquareType.NorthSpawner || square_type == SquareType.SouthSpawner ||
+		   square_type == SquareType.WestSpawner || square_type == SquareType.EastSpawner)
+			return false;
+		return mCopy.getArrow(x, y) == Direction.Invalid || mCopy.getPlayer(x, y) == mPlayerID;
+	}
+
+	/* evaluate
+	 * Simulates the arrow from the start of the frame
+	 */
+	private int evaluate(int square, int direction) {
+		mCopy.Restore(mStart);
+		mCopy.toggleArrow(square % mCopy.getWidth(), square / mCopy.getWidth(), mDirections[direction], mPlayerID);
+		return simulate(false);
+	}
+
+	/* simulate
+	 * Runs the copy to the horizon
+	 * @return this player's gain, doubled, less the best gain of the others
+	 */
+	private int simulate(boolean visit) {
+		for(int step = 0; step < mHorizon; step++)
+		{
+			mCopy.lookAhead(1);
+			if(visit)
+			{
+				markVisited(mCopy.getLiveMice());
+				markVisited(mCopy.getLiveCats());
+			}
+		}
+		mStepsUsed += mHorizon;
+
+		int[] scores = mCopy.getPlayerScores();
+		int rival = Integer.MIN_VALUE;
+		for(int i = 0; i < scores.length; i++)
+		{
+			if(i != mPlayerID && scores[i] - mStartScores[i] > rival)
+				rival = scores[i] - mStartScores[i];
+		}
+		return (scores[mPlayerID] - mStartScores[mPlayerID]) * 2 - rival;
+	}
+
+	private void markVisited(WalkerList walkers) {
+		for(int i = 0; i < walkers.size(); i++)
+			mVisited[walkers.getY(i) * mCopy.getWidth() + walkers.getX(i)] = true;
+	}
+
+	private int findKept(int square, int direction) {
+		for(int i = 0; i < mKeptCount; i++)
+		{
+			if(mKept[i].square == square && mKept[i].direction == direction)
+				return i;
+		}
+		return -1;
+	}
+
+	/* keep
+	 * Keeps an arrow if there is room, or in place of one not simulated this frame or the
+	 * worst that has been
+	 */
+	private void keep(int square, int direction, int value) {
+		int index = mKeptCount;
+		if(mKeptCount == KEPT_CANDIDATES)
+		{
+			index = -1;
+			for(int i = 0; i < mKeptCount; i++)
+			{
+				if(mKept[i].frame != mFrame)
+				{
+					index = i;
+					break;
+				}
+				if(mKept[i].value < value && (index == -1 || mKept[i].value < mKept[index].value))
+					index = i;
+			}
+			if(index == -1)
+				return;
+		} else
+			mKeptCount++;
+		mKept[index].square = square;
+		mKept[index].direction = direction;
+		mKept[index].value = value;
+		mKept[index].frame = mFrame;
+	}
+
+	private void removeKept(int index) {
+		Candidate removed = mKept[index];
+		mKeptCount--;
+		mKept[index] = mKept[mKeptCount];
+		mKept[mKeptCount] = removed;
+	}
+}
@@ -0,0 +1,316 @@
+package uk.danishcake.shokorocket.networking.ai;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.danishcake.shokorocket.networking.LocalSync;
+import uk.danishcake.shokorocket.simulation.MPWorld;
+
+/**
+ * Plays whole multiplayer matches between AIs with no GUI, sound or network, as fast as
+ * they simulate. A match is decided by its level, players and seed alone, so any result
+ * can be played again. Matches share nothing, so many are played at once across threads.
+ * Players are AIProfile ids, and the time each spends deciding is measured alongside its
+ * score, so a profile's cost can be weighed against how well it plays. ShokoRocketTools'
+ * AITournament runs these from the command line.
+ * @author Edward Woolhouse
+ */
+public class MatchRunner {
+	public static final int TICK = 20;
+	private static final int MAX_TICKS = 10 * 60 * 1000 / TICK; //Far longer than any game
+
+	/* Match
+	 * A level, the players as a four character LocalSync connect string and the seed
+	 */
+	public static class Match
+	{
+		public String level_name = "";
+		public byte[] level = new byte[0];
+		public String players = "HHHH";
+		public long seed = 0;
+	}
+
+	/* Result
+	 * The scores of each player and the ns each AI spent deciding, in seat order.
+	 * finished is false if the game was stopped at MAX_TICKS
+	 */
+	public static class Result
+	{
+		public Match match;
+		public int[] scores = new int[4];
+		public long[] ai_time = new long[4];
+		public int ticks = 0;
+		public boolean finished = false;
+
+		/**
+		 * @return the seat with the highest score, or -1 if the highest is tied
+		 */
+		public int getWinner() {
+			int winner = 0;
+			boolean tied = false;
+			for(int i = 1; i < scores.length; i++)
+			{
+				if(scores[i] > scores[winner])
+				{
+					winner = i;
+					tied = false;
+				} else if(scores[i] == scores[winner])
+					tied = true;
+			}
+			return tied ? -1 : winner;
+		}
+	}
+
+	/* Distribution
+	 * The scores of one kind of player, or one seat, over many matches
+	 */
+	public static class Distribution
+	{
+		private int[] mScores = new int[64];
+		private int mCount = 0;
+		private int mWins = 0;
+		private long mTotal = 0;
+		private boolean mSorted = true;
+		private long mTime = 0;
+		private long mTicks = 0;
+
+		public void add(int score, boolean win) {
+			if(mCount == mScores.length)
+				mScores = Arrays.copyOf(mScores, mCount * 2);
+			mScores[mCount++] = score;
+			mTotal += score;
+			if(win)
+				mWins++;
+			mSorted = false;
+		}
+
+		/**
+		 * Adds a score along with the time spent deciding over a match of the given ticks
+		 */
+		public void add(int score, boolean win, long time, int ticks) {
+			add(score, win);
+			mTime += time;
+			mTicks += ticks;
+		}
+
+		/**
+		 * @return the mean time in microseconds spent deciding each tick
+		 */
+		public float getTimePerTick() {
+			return mTicks == 0 ? 0 : mTime / 1000.0f / mTicks;
+		}
+
+		public int getCount() {
+			return mCount;
+		}
+
+		public int getWins() {
+			return mWins;
+		}
+
+		public float getMean() {
+			return mCount == 0 ? 0 : (float)mTotal / mCount;
+		}
+
+		/**
+		 * @param percent 0 for the lowest score, 100 for the highest
+		 */
+		public int getPercentile(int percent) {
+			if(mCount == 0)
+				return 0;
+			if(!mSorted)
+			{
+				Arrays.sort(mScores, 0, mCount);
+				mSorted = true;
+			}
+			return mScores[percent * (mCount - 1) / 100];
+		}
+
+		@Override
+		public String toString() {
+			return String.format("matches %d wins %.1f%% mean %.1f min %d 25%% %d 50%% %d 75%% %d max %d cpu %.1fus/tick",
+					mCount, mCount == 0 ? 0 : 100.0f * mWins / mCount, getMean(), getPercentile(0),
+					getPercentile(25), getPercentile(50), getPercentile(75), getPercentile(100), getTimePerTick());
+		}
+	}
+
+	/**
+	 * Plays a match to the end
+	 */
+	public static Result Play(Match match) throws IOException {
+		if(match.players.length() != 4)
+			throw new InvalidParameterException("Four players required, not \"" + match.players + "\"");
+		MPWorld world = new MPWorld(new ByteArrayInputStream(match.level), match.players);
+		LocalSync sync = new LocalSync(world);
+		sync.Connect(match.players);
+		world.setSync(sync);
+		world.setSeed(match.seed);
+
+		Result result = new Result();
+		result.match = match;
+		while(!world.isFinished() && result.ticks < MAX_TICKS)
+		{
+			world.Tick(TICK);
+			result.ticks++;
+		}
+		result.finished = world.isFinished();
+		System.arraycopy(world.getPlayerScores(), 0, result.scores, 0, result.scores.length);
+		for(int i = 0; i < result.ai_time.length; i++)
+			result.ai_time[i] = sync.getAITime(i);
+		return result;
+	}
+
+	/**
+	 * Plays every match, spread over a number of threads
+	 * @return the results, in the same order as the matches
+	 */
+	public static ArrayList<Result> PlayAll(List<Match> matches, int threads) throws IOException, InterruptedException {
+		if(threads < 1)
+			throw new InvalidParameterException("At least one thread required");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>(matches.size());
+		for(final Match match : matches)
+		{
+			futures.add(pool.submit(new Callable<Result>() {
+				public Result call() throws IOException {
+					return Play(match);
+				}
+			}));
+		}
+		pool.shutdown();
+		ArrayList<Result> results = new ArrayList<Result>(matches.size());
+		try
+		{
+			for(Future<Result> future : futures)
+				results.add(future.get());
+		} catch(InterruptedException int_ex)
+		{
+			pool.shutdownNow();
+			throw int_ex;
+		} catch(ExecutionException ex)
+		{
+			pool.shutdownNow();
+			if(ex.getCause() instanceof IOException)
+				throw (IOException)ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Creates matches between four players. Matches come in groups of four with the
+	 * players rotated round the seats, so no player is favoured by its rocket or the
+	 * spawners near it. Each group has its own seed, from seed upwards, and takes the
+	 * levels in turn
+	 * @param players four characters as in the LocalSync connect string, eg "EMHH"
+	 * @param levels the level XML by name
+	 */
+	public static ArrayList<Match> CreateMatches(String players, int count, long seed, Map<String, byte[]> levels) {
+		if(players.length() != 4)
+			throw new InvalidParameterException("Four players required, not \"" + players + "\"");
+		if(levels.isEmpty())
+			throw new InvalidParameterException("At least one level required");
+		String[] level_names = levels.keySet().toArray(new String[levels.size()]);
+		ArrayList<Match> matches = new ArrayList<Match>(count);
+		for(int i = 0; i < count; i++)
+		{
+			int group = i / 4;
+			int rotation = i % 4;
+			Match match = new Match();
+			match.level_name = level_names[group % level_names.length];
+			match.level = levels.get(match.level_name);
+			match.players = players.substring(rotation) + players.substring(0, rotation);
+			match.seed = seed + group;
+			matches.add(match);
+		}
+		return matches;
+	}
+
+	/**
+	 * Creates matches between every four of the players, each four playing count matches
+	 * as in CreateMatches with the same seed. With fewer than four the players are repeated
+	 * to fill the seats
+	 * @param players AIProfile ids, eg "EMHL"
+	 */
+	public static ArrayList<Match> CreateRoundRobin(String players, int count, long seed, Map<String, byte[]> levels) {
+		if(players.length() == 0)
+			throw new InvalidParameterException("At least one player required");
+		ArrayList<Match> matches = new ArrayList<Match>();
+		if(players.length() < 4)
+		{
+			String seats = "";
+			for(int i = 0; i < 4; i++)
+				seats += players.charAt(i % players.length());
+			matches.addAll(CreateMatches(seats, count, seed, levels));
+			return matches;
+		}
+		int n = players.length();
+		for(int a = 0; a < n; a++)
+			for(int b = a + 1; b < n; b++)
+				for(int c = b + 1; c < n; c++)
+					for(int d = c + 1; d < n; d++)
+					{
+						String seats = "" + players.charAt(a) + players.charAt(b) + players.charAt(c) + players.charAt(d);
+						matches.addAll(CreateMatches(seats, count, seed, levels));
+					}
+		return matches;
+	}
+
+	/**
+	 * @return the distribution of scores for each kind of player, eg E, M and H
+	 */
+	public static TreeMap<String, Distribution> SummarisePlayers(List<Result> results) {
+		TreeMap<String, Distribution> distributions = new TreeMap<String, Distribution>();
+		for(Result result : results)
+		{
+			int winner = result.getWinner();
+			for(int seat = 0; seat < result.scores.length; seat++)
+			{
+				String player = result.match.players.substring(seat, seat + 1);
+				Distribution distribution = distributions.get(player);
+				if(distribution == null)
+				{
+					distribution = new Distribution();
+					distributions.put(player, distribution);
+				}
+				distribution.add(result.scores[seat], seat == winner, result.ai_time[seat], result.ticks);
+			}
+		}
+		return distributions;
+	}
+
+	/**
+	 * @return the distribution of scores for each seat of each level, to show up levels
+	 * whose spawners favour a rocket
+	 */
+	public static TreeMap<String, Distribution> SummariseSeats(List<Result> results) {
+		TreeMap<String, Distribution> distributions = new TreeMap<String, Distribution>();
+		for(Result result : results)
+		{
+			int winner = result.getWinner();
+			for(int seat = 0; seat < result.scores.length; seat++)
+			{
+				String key = result.match.level_name + " seat " + Integer.toString(seat);
+				Distribution distribution = distributions.get(key);
+				if(distribution == null)
+				{
+					distribution = new Distribution();
+					distributions.put(key, distribution);
+				}
+				distribution.add(result.scores[seat], seat == winner, result.ai_time[seat], result.ticks);
+			}
+		}
+		return distributions;
+	}
+}
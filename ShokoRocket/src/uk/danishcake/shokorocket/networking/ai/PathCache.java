@@ -0,0 +1,305 @@
+package uk.danishcake.shokorocket.networking.ai;
+
+import uk.danishcake.shokorocket.simulation.Direction;
+import uk.danishcake.shokorocket.simulation.MPWorld;
+import uk.danishcake.shokorocket.simulation.SquareType;
+import uk.danishcake.shokorocket.simulation.WalkerList;
+
+/**
+ * What BasicAI needs to know about each row and column of the world, worked out once and
+ * kept until MPWorld reports that a special square in that row or column has changed, so
+ * an arrow placed only costs its own row and column to work out again. Answers are exactly
+ * those of walking the squares one by one.
+ *
+ * Rows are indexed y * (width + 1) + x and columns x * (height + 1) + y, with one entry
+ * more than the squares so that counts of the squares before an index reach the end.
+ */
+class PathCache {
+	private MPWorld mWorld;
+	private int mWidth = 0;
+	private int mHeight = 0;
+	private int[] mRowChanged = new int[0]; //MPWorld's change count for each row when last worked out
+	private int[] mColChanged = new int[0];
+
+	//Squares before each index that block a route to each player's rocket, see isRowClear
+	private int[][] mRowBlocked = new int[4][];
+	private int[][] mColBlocked = new int[4][];
+	//First square at or after each index that stops a walker heading back towards it,
+	//or last at or before, or 0. See countRowReachable
+	private int[] mRowStopWest;
+	private int[] mRowStopEast;
+	private int[] mColStopNorth;
+	private int[] mColStopSouth;
+	//Empty squares a walker will cross straight over on leaving each square, see getEmptyRun
+	private int[] mRunNorth;
+	private int[] mRunSouth;
+	private int[] mRunWest;
+	private int[] mRunEast;
+
+	//Walkers before each index, worked out when first needed after setWalkers
+	private WalkerList mWalkers = null;
+	private boolean mWalkersCounted = false;
+	private int[] mWalkerCount;
+	private int[] mRowWalkers;
+	private int[] mColWalkers;
+
+	public PathCache(MPWorld world) {
+		mWorld = world;
+	}
+
+	/**
+	 * Works out again the rows and columns that have changed since last called. Must be
+	 * called before the other methods each time the world may have changed
+	 */
+	public void update() {
+		if(mWidth != mWorld.getWidth() || mHeight != mWorld.getHeight())
+			allocate();
+		for(int y = 0; y < mHeight; y++)
+		{
+			int changed = mWorld.getRowChanged(y);
+			if(mRowChanged[y] != changed)
+			{
+				updateRow(y);
+				mRowChanged[y] = changed;
+			}
+		}
+		for(int x = 0; x < mWidth; x++)
+		{
+			int changed = mWorld.getColChanged(x);
+			if(mColChanged[x] != changed)
+			{
+				updateCol(x);
+				mColChanged[x] = changed;
+			}
+		}
+		mWalkersCounted = false;
+	}
+
+	/**
+	 * Sets the walkers counted by countRowReachable and countColReachable
+	 */
+	public void setWalkers(WalkerList walkers) {
+		mWalkers = walkers;
+		mWalkersCounted = false;
+	}
+
+	/**
+	 * Checks that nothing along a row between two columns stops walkers reaching the
+	 * given player's rocket
+	 */
+	public boolean isRowClear(int row, int colA, int colB, int player_id) {
+		int low = colA < colB ? colA : colB;
+		int high = colA < colB ? colB : colA;
+		int[] blocked = mRowBlocked[player_id];
+		int start = row * (mWidth + 1);
+		return blocked[start + high + 1] == blocked[start + low];
+	}
+
+	/**
+	 * Checks that nothing along a column between two rows stops walkers reaching the
+	 * given player's rocket
+	 */
+	public boolean isColClear(int col, int rowA, int rowB, int player_id) {
+		int low = rowA < rowB ? rowA : rowB;
+		int high = rowA < rowB ? rowB : rowA;
+		int[] blocked = mColBlocked[player_id];
+		int start = col * (mHeight + 1);
+		return blocked[start + high + 1] == blocked[start + low];
+	}
+
+	/**
+	 * Counts the walkers in row 'row' who will reach col. Walkers in column 0 are not
+	 * counted from the west, as BasicAI never has
+	 */
+	public int countRowReachable(int row, int col) {
+		countWalkers();
+		int start = row * (mWidth + 1);
+		int reachable = mRowWalkers[start + mRowStopWest[start + col + 1]] - mRowWalkers[start + col + 1];
+		if(col - 1 > 0)
+			reachable += mRowWalkers[start + col] - mRowWalkers[start + mRowStopEast[start + col - 1] + 1];
+		return reachable;
+	}
+
+	/**
+	 * Counts the walkers in column 'col' who will reach row. Walkers in row 0 are not
+	 * counted from the north
+	 */
+	public int countColReachable(int col, int row) {
+		countWalkers();
+		int start = col * (mHeight + 1);
+		int reachable = mColWalkers[start + mColStopNorth[start + row + 1]] - mColWalkers[start + row + 1];
+		if(row - 1 > 0)
+			reachable += mColWalkers[start + row] - mColWalkers[start + mColStopSouth[start + row - 1] + 1];
+		return reachable;
+	}
+
+	/**
+	 * @return the number of squares from (x, y) in the direction given, wrapping round, that
+	 * are empty and belong to no player so nothing there can turn a walker. At most the
+	 * length of the row or column
+	 */
+	public int getEmptyRun(int x, int y, Direction direction) {
+		switch(direction)
+		{
+		case North:
+			return mRunNorth[x * mHeight + y];
+		case South:
+			return mRunSouth[x * mHeight + y];
+		case West:
+			return mRunWest[y * mWidth + x];
+		case East:
+			return mRunEast[y * mWidth + x];
+		default:
+			return 0;
+		}
+	}
+
+	private void allocate() {
+		mWidth = mWorld.getWidth();
+		mHeight = mWorld.getHeight();
+		mRowChanged = new int[mHeight];
+		mColChanged = new int[mWidth];
+		//A world never reports a change count of 0 once set up, so everything is worked out
+		for(int player_id = 0; player_id < 4; player_id++)
+		{
+			mRowBlocked[player_id] = new int[mHeight * (mWidth + 1)];
+			mColBlocked[player_id] = new int[mWidth * (mHeight + 1)];
+		}
+		mRowStopWest = new int[mHeight * (mWidth + 1)];
+		mRowStopEast = new int[mHeight * (mWidth + 1)];
+		mColStopNorth = new int[mWidth * (mHeight + 1)];
+		mColStopSouth = new int[mWidth * (mHeight + 1)];
+		mRunNorth = new int[mWidth * mHeight];
+		mRunSouth = new int[mWidth * mHeight];
+		mRunWest = new int[mWidth * mHeight];
+		mRunEast = new int[mWidth * mHeight];
+		mWalkerCount = new int[mWidth * mHeight];
+		mRowWalkers = new int[mHeight * (mWidth + 1)];
+		mColWalkers = new int[mWidth * (mHeight + 1)];
+	}
+
+	private void updateRow(int y) {
+		int start = y * (mWidth + 1);
+		for(int player_id = 0; player_id < 4; player_id++)
+		{
+			int[] blocked = mRowBlocked[player_id];
+			blocked[start] = 0;
+			for(int x = 0; x < mWidth; x++)
+				blocked[start + x + 1] = blocked[start + x] + (blocks(x, y, player_id) ? 1 : 0);
+		}
+		mRowStopWest[start + mWidth] = mWidth;
+		for(int x = mWidth - 1; x >= 0; x--)
+			mRowStopWest[start + x] = stops(x, y, Direction.West) ? x : mRowStopWest[start + x + 1];
+		mRowStopEast[start] = 0;
+		for(int x = 1; x < mWidth; x++)
+			mRowStopEast[start + x] = stops(x, y, Direction.East) ? x : mRowStopEast[start + x - 1];
+
+		updateRuns(mRunEast, mRunWest, y * mWidth, mWidth, y, true);
+	}
+
+	private void updateCol(int x) {
+		int start = x * (mHeight + 1);
+		for(int player_id = 0; player_id < 4; player_id++)
+		{
+			int[] blocked = mColBlocked[player_id];
+			blocked[start] = 0;
+			for(int y = 0; y < mHeight; y++)
+				blocked[start + y + 1] = blocked[start + y] + (blocks(x, y, player_id) ? 1 : 0);
+		}
+		mColStopNorth[start + mHeight] = mHeight;
+		for(int y = mHeight - 1; y >= 0; y--)
+			mColStopNorth[start + y] = stops(x, y, Direction.North) ? y : mColStopNorth[start + y + 1];
+		mColStopSouth[start] = 0;
+		for(int y = 1; y < mHeight; y++)
+			mColStopSouth[start + y] = stops(x, y, Direction.South) ? y : mColStopSouth[start + y - 1];
+
+		updateRuns(mRunSouth, mRunNorth, x * mHeight, mHeight, x, false);
+	}
+
+	/* updateRuns
+	 * Works out the empty runs each way from every square of one row or column
+	 */
+	private void updateRuns(int[] forward, int[] back, int start, int length, int line, boolean row) {
+		int empty = 0;
+		for(int i = 0; i < length; i++)
+			if(isPlainEmpty(line, i, row))
+				empty++;
+		if(empty == length)
+		{
+			for(int i = 0; i < length; i++)
+			{
+				forward[start + i] = length;
+				back[start + i] = length;
+			}
+			return;
+		}
+		//With a square that is not empty somewhere, walk twice round to pick up the wrap
+		int run = 0;
+		for(int i = length * 2 - 1; i >= 0; i--)
+		{
+			int index = i % length;
+			if(i < length)
+				forward[start + index] = run;
+			run = isPlainEmpty(line, index, row) ? run + 1 : 0;
+		}
+		run = 0;
+		for(int i = 0; i < length * 2; i++)
+		{
+			int index = i % length;
+			if(i >= length)
+				back[start + index] = run;
+			run = isPlainEmpty(line, index, row) ? run + 1 : 0;
+		}
+	}
+
+	private boolean isPlainEmpty(int line, int i, boolean row) {
+		int x = row ? i : line;
+		int y = row ? line : i;
+		return mWorld.getSpecialSquare(x, y) == SquareType.Empty && mWorld.getPlayer(x, y) == -1;
+	}
+
+	/* blocks
+	 * Holes, other players' rockets and other players' arrows
+	 */
+	private boolean blocks(int x, int y, int player_id) {
+		SquareType ss = mWorld.getSpecialSquare(x, y);
+		return ss == SquareType.Hole || (ss == SquareType.Rocket && mWorld.getPlayer(x, y) != player_id) ||
+			   (ss.getArrowDirectionality() != Direction.Invalid && mWorld.getPlayer(x, y) != player_id);
+	}
+
+	/* stops
+	 * Holes, rockets and arrows other than those pointing the way given
+	 */
+	private boolean stops(int x, int y, Direction direction) {
+		SquareType ss = mWorld.getSpecialSquare(x, y);
+		return ss == SquareType.Hole || ss == SquareType.Rocket ||
+			   (ss.getArrowDirectionality() != direction && ss.getArrowDirectionality() != Direction.Invalid);
+	}
+
+	private void countWalkers() {
+		if(mWalkersCounted)
+			return;
+		for(int i = 0; i < mWalkerCount.length; i++)
+			mWalkerCount[i] = 0;
+		if(mWalkers != null)
+		{
+			for(int w = 0; w < mWalkers.size(); w++)
+				mWalkerCount[mWalkers.getY(w) * mWidth + mWalkers.getX(w)]++;
+		}
+		for(int y = 0; y < mHeight; y++)
+		{
+			int start = y * (mWidth + 1);
+			mRowWalkers[start] = 0;
+			for(int x = 0; x < mWidth; x++)
+				mRowWalkers[start + x + 1] = mRowWalkers[start + x] + mWalkerCount[y * mWidth + x];
+		}
+		for(int x = 0; x < mWidth; x++)
+		{
+			int start = x * (mHeight + 1);
+			mColWalkers[start] = 0;
+			for(int y = 0; y < mHeight; y++)
+				mColWalkers[start + y + 1] = mColWalkers[start + y] + mWalkerCount[y * mWidth + x];
+		}
+		mWalkersCounted = true;
+	}
+}
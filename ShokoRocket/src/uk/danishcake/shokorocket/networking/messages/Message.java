@@ -5,14 +5,12 @@ public class Message {
 	public static final int MESSAGE_CURSOR_POSITION = 1;
 	public static final int MESSAGE_ARROW_PLACEMENT = 2;
 	public static final int MESSAGE_ARROW_CLEAR = 3;
-	/* Message has hidden header items of no interest as follows */
-	/*
-	public int message_id;
-	public int checksum;
-	*/
+	/* On the wire the type, user and sub frame are packed by MessageParser, and a frame's
+	 * messages are delimited by a frame end marker rather than carrying their own ids */
 	public int message_type;
 	public int user_id;
 	public int sub_frame_id;
+	boolean pooled = false; //Set while held by MessagePool
 	
 	public void setCommon(int user_id, int sub_frame_id) {
 		this.user_id = user_id;
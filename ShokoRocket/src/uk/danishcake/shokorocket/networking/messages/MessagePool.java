@@ -0,0 +1,83 @@
+package uk.danishcake.shokorocket.networking.messages;
+
+import java.util.ArrayList;
+
+import uk.danishcake.shokorocket.simulation.Direction;
+
+/**
+ * Pools of each type of message, so messages sent every frame are reused rather than
+ * left for the garbage collector. Messages are obtained by whoever creates them, and
+ * recycled by whoever last uses them - MPWorld once it has actioned them, or the sync
+ * if it drops them.
+ * @author Edward Woolhouse
+ */
+public class MessagePool {
+	private static final int MAX_POOLED = 64;
+	private static ArrayList<ArrowPlacementMessage> mArrowPlacements = new ArrayList<ArrowPlacementMessage>();
+	private static ArrayList<ArrowClearMessage> mArrowClears = new ArrayList<ArrowClearMessage>();
+	private static ArrayList<CursorPositioningMessage> mCursorPositions = new ArrayList<CursorPositioningMessage>();
+	
+	public static synchronized ArrowPlacementMessage obtainArrowPlacement(int x, int y, Direction direction) {
+		ArrowPlacementMessage message;
+		if(mArrowPlacements.size() > 0)
+		{
+			message = mArrowPlacements.remove(mArrowPlacements.size() - 1);
+			message.x = x;
+			message.y = y;
+			message.direction = direction;
+		} else
+			message = new ArrowPlacementMessage(x, y, direction);
+		return (ArrowPlacementMessage)reset(message);
+	}
+	
+	public static synchronized ArrowClearMessage obtainArrowClear() {
+		ArrowClearMessage message;
+		if(mArrowClears.size() > 0)
+			message = mArrowClears.remove(mArrowClears.size() - 1);
+		else
+			message = new ArrowClearMessage();
+		return (ArrowClearMessage)reset(message);
+	}
+	
+	public static synchronized CursorPositioningMessage obtainCursorPosition(int x, int y) {
+		CursorPositioningMessage message;
+		if(mCursorPositions.size() > 0)
+		{
+			message = mCursorPositions.remove(mCursorPositions.size() - 1);
+			message.x = x;
+			message.y = y;
+		} else
+			message = new CursorPositioningMessage(x, y);
+		return (CursorPositioningMessage)reset(message);
+	}
+	
+	/**
+	 * Returns a message to its pool. It must not be used again by the caller
+	 */
+	public static synchronized void recycle(Message message) {
+		if(message.pooled)
+			throw new IllegalStateException("Message recycled twice");
+		message.pooled = true;
+		switch(message.message_type)
+		{
+		case Message.MESSAGE_ARROW_PLACEMENT:
+			if(mArrowPlacements.size() < MAX_POOLED)
+				mArrowPlacements.add((ArrowPlacementMessage)message);
+			break;
+		case Message.MESSAGE_ARROW_CLEAR:
+			if(mArrowClears.size() < MAX_POOLED)
+				mArrowClears.add((ArrowClearMessage)message);
+			break;
+		case Message.MESSAGE_CURSOR_POSITION:
+			if(mCursorPositions.size() < MAX_POOLED)
+				mCursorPositions.add((CursorPositioningMessage)message);
+			break;
+		}
+	}
+	
+	private static Message reset(Message message) {
+		message.pooled = false;
+		message.setCommon(0, 0);
+		return message;
+	}
+}
@@ -0,0 +1,398 @@
+package uk.danishcake.shokorocket.simulation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* ArrowSolver
+ * Searches for every placement of a level's arrow stock that solves it.
+ *
+ * An arrow only changes a run if a walker reaches its square, and until one does the
+ * run is the same as without it. So starting from no arrows, each run is verified and
+ * the next arrow is only tried on the empty squares that run visited, whether or not the
+ * run solved the level. This finds every solution in which every arrow is walked over,
+ * from the shortest to those using the whole stock; any other solution is one of these
+ * plus arrows nobody walks over. Arrows of the same direction are interchangeable and the
+ * order they are placed in does not matter, so each set of arrows is only simulated once
+ * however it is reached.
+ *
+ * For the same reason a run with one more arrow need not start from the beginning. Each
+ * run snapshots the level after every step in which a walker first reaches a square, and
+ * a run with an arrow added on a square carries on from the last snapshot before any
+ * walker reached it.
+ *
+ * The branches from the first arrow are searched in parallel, each with its own copy of
+ * the level.
+ */
+public class ArrowSolver {
+	private static final Direction[] mDirections = {Direction.North, Direction.South, Direction.East, Direction.West};
+	private static final Direction[] mAllDirections = Direction.values();
+	//As SPWorld.Verify()
+	private static final int STEP = 50;
+	private static final int MAX_TIME = 1000 * 240;
+
+	/* Arrow
+	 * An arrow in a solution
+	 */
+	public static class Arrow
+	{
+		public int x;
+		public int y;
+		public Direction direction;
+	}
+
+	/* Result
+	 * Every solution found. complete is false if the time budget ran out before the
+	 * search finished, in which case there may be other solutions
+	 */
+	public static class Result
+	{
+		public ArrayList<Arrow[]> solutions = new ArrayList<Arrow[]>();
+		public boolean complete = true;
+		public int simulations = 0;
+		public long elapsed_ms = 0;
+	}
+
+	/* PlacementKey
+	 * A set of arrows as sorted square * 4 + direction codes, compared by value
+	 */
+	private static class PlacementKey
+	{
+		private int[] mCodes;
+		private int mHash;
+		public PlacementKey(int[] codes) {
+			mCodes = codes;
+			mHash = Arrays.hashCode(codes);
+		}
+		@Override
+		public int hashCode() {
+			return mHash;
+		}
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof PlacementKey && Arrays.equals(mCodes, ((PlacementKey)other).mCodes);
+		}
+	}
+
+	/* Checkpoint
+	 * A snapshot of a run after steps steps, with the first placed arrows of the search
+	 * on the level
+	 */
+	private static class Checkpoint
+	{
+		public WorldSnapshot snapshot = new WorldSnapshot();
+		public int steps = 0;
+		public int placed = 0;
+	}
+
+	/* Run
+	 * The run at one depth of the search and the checkpoints taken through it. For each
+	 * square visited, resume_from is the checkpoint taken last before a walker first
+	 * reached it, or -1 if none did. A run that resumes from another shares the checkpoints
+	 * before the one it resumes from, as the other is left alone until the search below
+	 * it is done
+	 */
+	private static class Run implements SPWorld.VisitListener
+	{
+		public boolean[] visited;
+		public int[] resume_from;
+		public ArrayList<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		private ArrayList<Checkpoint> mOwn = new ArrayList<Checkpoint>(); //Reused between runs
+		private int mOwnUsed = 0;
+		private SPWorld mWorld;
+		private int mPlaced;
+
+		public Run(SPWorld world, int placed) {
+			mWorld = world;
+			mPlaced = placed;
+			visited = new boolean[world.getWidth() * world.getHeight()];
+			resume_from = new int[visited.length];
+		}
+
+		/* start
+		 * Starts from the beginning of the level, with the arrows already on it
+		 */
+		public void start() {
+			checkpoints.clear();
+			mOwnUsed = 0;
+			Arrays.fill(visited, false);
+			Arrays.fill(resume_from, -1);
+			mWorld.Reset();
+			addCheckpoint(0);
+		}
+
+		/* resume
+		 * Starts from checkpoint 'from' of another run, keeping the squares visited before it
+		 */
+		public void resume(Run other, int from) {
+			checkpoints.clear();
+			mOwnUsed = 0;
+			for(int i = 0; i <= from; i++)
+				checkpoints.add(other.checkpoints.get(i));
+			for(int i = 0; i < visited.length; i++)
+			{
+				visited[i] = other.resume_from[i] >= 0 && other.resume_from[i] < from;
+				resume_from[i] = visited[i] ? other.resume_from[i] : -1;
+			}
+		}
+
+		public void squaresVisited(int steps) {
+			int last = checkpoints.size() - 1;
+			for(int i = 0; i < visited.length; i++)
+			{
+				if(visited[i] && resume_from[i] < 0)
+					resume_from[i] = last;
+			}
+			addCheckpoint(steps);
+		}
+
+		private void addCheckpoint(int steps) {
+			if(mOwnUsed == mOwn.size())
+				mOwn.add(new Checkpoint());
+			Checkpoint checkpoint = mOwn.get(mOwnUsed++);
+			mWorld.Snapshot(checkpoint.snapshot);
+			checkpoint.steps = steps;
+			checkpoint.placed = mPlaced;
+			checkpoints.add(checkpoint);
+		}
+	}
+
+	private byte[] mLevel;
+	private int mWidth;
+	private int mHeight;
+	private boolean[] mEmpty;
+	private int mArrowCount;
+	private int[] mStock = new int[Direction.values().length];
+
+	private ConcurrentHashMap<PlacementKey, Boolean> mSearched = new ConcurrentHashMap<PlacementKey, Boolean>();
+	private AtomicInteger mSimulations = new AtomicInteger();
+	private ArrayList<Arrow[]> mSolutions = new ArrayList<Arrow[]>();
+	private volatile boolean mOutOfTime = false;
+	private long mDeadline = 0;
+
+	/* ArrowSolver
+	 * @param level the level XML. The arrow stock is taken from the stored solution, as when playing it
+	 */
+	public ArrowSolver(InputStream level) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int read;
+		while((read = level.read(chunk)) > 0)
+			buffer.write(chunk, 0, read);
+		mLevel = buffer.toByteArray();
+
+		SPWorld world = loadWorld();
+		mWidth = world.getWidth();
+		mHeight = world.getHeight();
+		mEmpty = new boolean[mWidth * mHeight];
+		for(int square = 0; square < mEmpty.length; square++)
+			mEmpty[square] = world.getSpecialSquare(square % mWidth, square / mWidth) == SquareType.Empty;
+		for(Direction direction : world.getArrowStock())
+			mStock[direction.ordinal()]++;
+		mArrowCount = world.getArrowStock().size();
+	}
+
+	/* Solve
+	 * Searches for solutions until the search finishes or time_budget milliseconds pass
+	 * @param threads number of threads to search with, at least 1
+	 */
+	public Result Solve(int threads, int time_budget) throws IOException {
+		if(threads < 1)
+			throw new InvalidParameterException("At least one thread required");
+		long start = System.nanoTime();
+		mDeadline = start + time_budget * 1000000L;
+		mOutOfTime = false;
+		mSearched.clear();
+		mSimulations.set(0);
+		mSolutions.clear();
+
+		//No arrows at all is searched here, then each first arrow is a task
+		SPWorld world = loadWorld();
+		Run root = new Run(world, 0);
+		root.start();
+		int[] squares = new int[mArrowCount];
+		int[] directions = new int[mArrowCount];
+		run(world, root, squares, directions, 0);
+		if(!mOutOfTime && mArrowCount > 0)
+		{
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			ArrayList<Future<Object>> branches = new ArrayList<Future<Object>>();
+			for(int square = 0; square < mEmpty.length; square++)
+			{
+				if(root.resume_from[square] < 0 || !canPlace(squares, 0, square))
+					continue;
+				for(Direction direction : mDirections)
+				{
+					if(mStock[direction.ordinal()] == 0)
+						continue;
+					final int first_square = square;
+					final int first_direction = direction.ordinal();
+					branches.add(pool.submit(new Callable<Object>() {
+						public Object call() throws IOException {
+							searchBranch(first_square, first_direction);
+							return null;
+						}
+					}));
+				}
+			}
+			pool.shutdown();
+			try
+			{
+				for(Future<Object> branch : branches)
+					branch.get();
+			} catch(InterruptedException int_ex)
+			{
+				pool.shutdownNow();
+				mOutOfTime = true;
+				Thread.currentThread().interrupt();
+			} catch(ExecutionException ex)
+			{
+				pool.shutdownNow();
+				if(ex.getCause() instanceof IOException)
+					throw (IOException)ex.getCause();
+				throw new RuntimeException(ex.getCause());
+			}
+		}
+
+		Result result = new Result();
+		result.solutions.addAll(mSolutions);
+		result.complete = !mOutOfTime;
+		result.simulations = mSimulations.get();
+		result.elapsed_ms = (System.nanoTime() - start) / 1000000;
+		return result;
+	}
+
+	/* searchBranch
+	 * Searches every placement starting with the given arrow on a fresh copy of the level.
+	 * Snapshots may only be restored into the world that took them, so the branch runs
+	 * from the beginning once
+	 */
+	private void searchBranch(int square, int direction) throws IOException {
+		int[] squares = new int[mArrowCount];
+		int[] directions = new int[mArrowCount];
+		squares[0] = square;
+		directions[0] = direction;
+		if(!mark(squares, directions, 1))
+			return;
+		SPWorld world = loadWorld();
+		int[] stock = mStock.clone();
+		stock[direction]--;
+		world.setArrow(square % mWidth, square / mWidth, mAllDirections[direction]);
+		Run[] runs = new Run[mArrowCount + 1];
+		for(int placed = 1; placed <= mArrowCount; placed++)
+			runs[placed] = new Run(world, placed);
+		runs[1].start();
+		search(world, runs, squares, directions, 1, stock);
+	}
+
+	/* search
+	 * Runs the current placement then tries each remaining arrow on each square that was
+	 * visited, carrying on from before a walker reached it
+	 */
+	private void search(SPWorld world, Run[] runs, int[] squares, int[] directions, int placed, int[] stock) {
+		Run current = runs[placed];
+		run(world, current, squares, directions, placed);
+		if(mOutOfTime || placed == mArrowCount)
+			return;
+		for(int square = 0; square < mEmpty.length && !mOutOfTime; square++)
+		{
+			if(current.resume_from[square] < 0 || !canPlace(squares, placed, square))
+				continue;
+			for(Direction direction : mDirections)
+			{
+				int d = direction.ordinal();
+				if(stock[d] == 0)
+					continue;
+				squares[placed] = square;
+				directions[placed] = d;
+				if(!mark(squares, directions, placed + 1))
+					continue;
+				stock[d]--;
+				runs[placed + 1].resume(current, current.resume_from[square]);
+				search(world, runs, squares, directions, placed + 1, stock);
+				stock[d]++;
+			}
+		}
+	}
+
+	/* run
+	 * Verifies the current placement from the last checkpoint of the run, adding the arrows
+	 * placed since it was taken, records the squares visited and keeps it if it solves
+	 * the level. Does nothing once time has run out
+	 */
+	private void run(SPWorld world, Run current, int[] squares, int[] directions, int placed) {
+		if(System.nanoTime() > mDeadline)
+			mOutOfTime = true;
+		if(mOutOfTime)
+			return;
+		Checkpoint from = current.checkpoints.get(current.checkpoints.size() - 1);
+		world.Restore(from.snapshot);
+		for(int i = from.placed; i < placed; i++)
+			world.setArrow(squares[i] % mWidth, squares[i] / mWidth, mAllDirections[directions[i]]);
+		//Nothing is placed after the last arrow, so that run need not checkpoint
+		boolean last = placed == mArrowCount;
+		world.setVisitedSquares(last ? null : current.visited);
+		SPWorld.VerifyResult result = world.Resume(STEP, MAX_TIME, from.steps, last ? null : current);
+		world.setVisitedSquares(null);
+		mSimulations.incrementAndGet();
+		if(result.success)
+		{
+			Arrow[] solution = new Arrow[placed];
+			for(int i = 0; i < placed; i++)
+			{
+				solution[i] = new Arrow();
+				solution[i].x = squares[i] % mWidth;
+				solution[i].y = squares[i] / mWidth;
+				solution[i].direction = mAllDirections[directions[i]];
+			}
+			synchronized(mSolutions)
+			{
+				mSolutions.add(solution);
+			}
+		}
+	}
+
+	/* mark
+	 * Records a set of arrows as searched
+	 * @return false if it has already been searched
+	 */
+	private boolean mark(int[] squares, int[] directions, int placed) {
+		int[] codes = new int[placed];
+		for(int i = 0; i < placed; i++)
+			codes[i] = squares[i] * 4 + directions[i] - Direction.North.ordinal();
+		Arrays.sort(codes);
+		return mSearched.putIfAbsent(new PlacementKey(codes), Boolean.TRUE) == null;
+	}
+
+	/* canPlace
+	 * @return true if the square is empty in the level and none of the first placed arrows are on it
+	 */
+	private boolean canPlace(int[] squares, int placed, int square) {
+		if(!mEmpty[square])
+			return false;
+		for(int i = 0; i < placed; i++)
+		{
+			if(squares[i] == square)
+				return false;
+		}
+		return true;
+	}
+
+	/* loadWorld
+	 * @return a fresh copy of the level with the full arrow stock and no arrows placed
+	 */
+	private SPWorld loadWorld() throws IOException {
+		return new SPWorld(new ByteArrayInputStream(mLevel));
+	}
+}
@@ -0,0 +1,120 @@
+package uk.danishcake.shokorocket.simulation;
+
+/* CollisionGrid
+ * Per step broad phase for cat/mouse collisions. Mice are bucketed by the grid square
+ * nearest to their actual position. The collision radius is a third of a square, so a cat
+ * can only touch mice bucketed in its own or the eight surrounding squares, wrapping at
+ * the edges of the world. Buckets are linked lists threaded through an int array so
+ * rebuilding the grid each step does not allocate.
+ */
+public class CollisionGrid {
+	private static final long FractionScale = 1000; //As WorldBase.checkCollision
+	private int mWidth = 0;
+	private int mHeight = 0;
+	private int[] mHeads = new int[0];
+	private int[] mNext = new int[0];
+	private int[] mCandidates = new int[16];
+
+	/* reset
+	 * Empties the grid ready for up to mouse_count mice to be added
+	 */
+	public void reset(int width, int height, int mouse_count) {
+		mWidth = width;
+		mHeight = height;
+		if(mHeads.length < width * height)
+			mHeads = new int[width * height];
+		if(mNext.length < mouse_count)
+			mNext = new int[mouse_count * 2];
+		for(int i = 0; i < width * height; i++)
+			mHeads[i] = -1;
+	}
+
+	/* add
+	 * Adds the mouse with the given index in the live list to the grid
+	 */
+	public void add(int index, int x, int y, int fraction, Direction direction) {
+		int cell = nearestY(y, fraction, direction) * mWidth + nearestX(x, fraction, direction);
+		mNext[index] = mHeads[cell];
+		mHeads[cell] = index;
+	}
+
+	/* query
+	 * Finds the mice that may collide with a cat. The indices are placed in ascending
+	 * order, so testing them in turn gives the same order as testing every mouse
+	 * @return the number of candidates, retrieved with getCandidate
+	 */
+	public int query(int x, int y, int fraction, Direction direction) {
+		int cell_x = nearestX(x, fraction, direction);
+		int cell_y = nearestY(y, fraction, direction);
+		int count = 0;
+		for(int dy = -1; dy <= 1; dy++)
+		{
+			int row = wrap(cell_y + dy, mHeight) * mWidth;
+			for(int dx = -1; dx <= 1; dx++)
+			{
+				int index = mHeads[row + wrap(cell_x + dx, mWidth)];
+				while(index != -1)
+				{
+					if(count == mCandidates.length)
+					{
+						int[] candidates = new int[count * 2];
+						System.arraycopy(mCandidates, 0, candidates, 0, count);
+						mCandidates = candidates;
+					}
+					mCandidates[count] = index;
+					count++;
+					index = mNext[index];
+				}
+			}
+		}
+		//Insertion sort, dropping duplicates found when the world is under 3 squares across
+		int unique = 0;
+		for(int i = 0; i < count; i++)
+		{
+			int value = mCandidates[i];
+			int j = unique;
+			while(j > 0 && mCandidates[j - 1] > value)
+				j--;
+			if(j > 0 && mCandidates[j - 1] == value)
+				continue;
+			System.arraycopy(mCandidates, j, mCandidates, j + 1, unique - j);
+			mCandidates[j] = value;
+			unique++;
+		}
+		return unique;
+	}
+
+	public int getCandidate(int i) {
+		return mCandidates[i];
+	}
+
+	private int nearestX(int x, int fraction, Direction direction) {
+		long position = x * FractionScale;
+		if(direction == Direction.East)
+			position += fraction * FractionScale / Walker.FractionReset;
+		else if(direction == Direction.West)
+			position -= fraction * FractionScale / Walker.FractionReset;
+		return wrap(nearest(position), mWidth);
+	}
+
+	private int nearestY(int y, int fraction, Direction direction) {
+		long position = y * FractionScale;
+		if(direction == Direction.South)
+			position += fraction * FractionScale / Walker.FractionReset;
+		else if(direction == Direction.North)
+			position -= fraction * FractionScale / Walker.FractionReset;
+		return wrap(nearest(position), mHeight);
+	}
+
+	/* nearest
+	 * Rounds a scaled position to the nearest square. Positions are never below -1 square
+	 */
+	private static int nearest(long position) {
+		return (int)((position + FractionScale / 2 + FractionScale) / FractionScale) - 1;
+	}
+
+	private static int wrap(int value, int size) {
+		value %= size;
+		return value < 0 ? value + size : value;
+	}
+}
@@ -0,0 +1,112 @@
+package uk.danishcake.shokorocket.simulation;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/* LevelElements
+ * The children of a level's root element, gathered in a single streaming pass.
+ * Only the attributes and leading text of each element are kept, grouped by tag in
+ * document order, so loading code can take each tag in turn as it did with
+ * NL.ElementsByTag without a DOM being built.
+ */
+public class LevelElements extends DefaultHandler {
+	private static final ArrayList<ElementRecord> mNone = new ArrayList<ElementRecord>();
+
+	private static class ElementRecord
+	{
+		public String[] attributes; //Name, value pairs
+		public StringBuilder text = null;
+		public boolean hasChildren = false;
+	}
+
+	private HashMap<String, ArrayList<ElementRecord>> mElements = new HashMap<String, ArrayList<ElementRecord>>();
+	private int mDepth = 0;
+	private ElementRecord mCurrent = null;
+
+	/**
+	 * @return the number of elements with the given tag
+	 */
+	public int getCount(String tag) {
+		return records(tag).size();
+	}
+
+	/**
+	 * @return the value of an attribute of the index'th element with the given tag, or null if not present
+	 */
+	public String getAttribute(String tag, int index, String name) {
+		String[] attributes = records(tag).get(index).attributes;
+		for(int i = 0; i < attributes.length; i += 2)
+		{
+			if(attributes[i].equals(name))
+				return attributes[i + 1];
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the text at the start of an element, as the value of its first child node
+	 * @return the text, or null if the element starts with a child element
+	 * @throws InvalidParameterException if the element is empty
+	 */
+	public String getText(String tag, int index) {
+		ElementRecord record = records(tag).get(index);
+		if(record.text != null)
+			return record.text.toString();
+		if(record.hasChildren)
+			return null;
+		throw new InvalidParameterException(tag + " must not be empty");
+	}
+
+	private ArrayList<ElementRecord> records(String tag) {
+		ArrayList<ElementRecord> records = mElements.get(tag);
+		return records == null ? mNone : records;
+	}
+
+	@Override
+	public void startElement(String uri, String local_name, String name, Attributes attributes) {
+		mDepth++;
+		if(mDepth == 2)
+		{
+			ElementRecord record = new ElementRecord();
+			record.attributes = new String[attributes.getLength() * 2];
+			for(int i = 0; i < attributes.getLength(); i++)
+			{
+				record.attributes[i * 2] = attributes.getQName(i);
+				record.attributes[i * 2 + 1] = attributes.getValue(i);
+			}
+			ArrayList<ElementRecord> records = mElements.get(name);
+			if(records == null)
+			{
+				records = new ArrayList<ElementRecord>();
+				mElements.put(name, records);
+			}
+			records.add(record);
+			mCurrent = record;
+		} else if(mDepth == 3 && mCurrent != null)
+		{
+			mCurrent.hasChildren = true;
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String local_name, String name) {
+		if(mDepth == 2)
+			mCurrent = null;
+		mDepth--;
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) {
+		//Only text before any child element, as that is the first child node
+		if(mDepth == 2 && mCurrent != null && !mCurrent.hasChildren)
+		{
+			if(mCurrent.text == null)
+				mCurrent.text = new StringBuilder();
+			mCurrent.text.append(ch, start, length);
+		}
+	}
+}
@@ -8,25 +8,18 @@ import java.util.EnumMap;
 import java.util.List;
 import java.util.Random;
 
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import uk.danishcake.shokorocket.NL;
 import uk.danishcake.shokorocket.networking.GameSync;
 import uk.danishcake.shokorocket.networking.LocalSync;
-import uk.danishcake.shokorocket.networking.messages.ArrowClearMessage;
 import uk.danishcake.shokorocket.networking.messages.ArrowPlacementMessage;
 import uk.danishcake.shokorocket.networking.messages.CursorPositioningMessage;
 import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
 import uk.danishcake.shokorocket.simulation.Walker.WalkerState;
 import uk.danishcake.shokorocket.simulation.Walker.WalkerType;
-import uk.danishcake.shokorocket.sound.SoundManager;
 
 /* MPWorld
  * Represents a world designed to run in lockstep with other instances
- * Walkers are not preserved past death, but rather thrown away (or recycled?)
+ * Walkers are held in a WalkerStore and their slots recycled once the death animation ends
  */
 public class MPWorld extends WorldBase {
 	private enum MPGameState
@@ -35,18 +28,68 @@ public class MPWorld extends WorldBase {
 	}
 
 	private GameSync mSync = null;
-	private ArrayList<Walker> mLiveMice = new ArrayList<Walker>();
-	private ArrayList<Walker> mLiveCats = new ArrayList<Walker>();
-	private ArrayList<Walker> mDeadMice = new ArrayList<Walker>();
-	private ArrayList<Walker> mRescuedMice = new ArrayList<Walker>();
-	private ArrayList<Walker> mDeadCats = new ArrayList<Walker>();
+	private WalkerStore mWalkers = new WalkerStore();
+	private WalkerList mLiveMice = new WalkerList(mWalkers);
+	private WalkerList mLiveCats = new WalkerList(mWalkers);
+	private WalkerList mDeadMice = new WalkerList(mWalkers);
+	private WalkerList mRescuedMice = new WalkerList(mWalkers);
+	private WalkerList mDeadCats = new WalkerList(mWalkers);
 	private static final int REAL_FIXED_TIMESTEP = 20;
 	private static final int FIXED_TIMESTEP = 100;
 	private static final int COMM_RATIO = 5;
 	private int mCommunicationFrameTime = 0;
 	private int mSubFrame = 0;
-	private List<Message> mMessages = new ArrayList<Message>();
+	private List<Message> mMessages = new ArrayList<Message>(); //This frame's messages, in sub frame order
+	private int mMessageIndex = 0; //The next message to action
+	private int mHeldTimespan = 0; //Simulated timespan of the tick a frame ended in, while waiting to start the next
+	private int mStallCount = 0;
+	/* Checksum of the world sent with each frame, see computeChecksum */
+	private static final int CHECKSUM_RANDOM = 0;
+	private static final int CHECKSUM_WALKERS = 1;
+	private static final int CHECKSUM_SQUARES = 2;
+	private static final int CHECKSUM_GAME = 3;
+	private static final String[] CHECKSUM_NAMES = {"random", "walkers", "squares", "game"};
+	private int[] mChecksum = new int[GameSync.CHECKSUM_SIZE];
+	private String mDesyncReport = null;
+	
+	/* RollbackFrame
+	 * A communication frame that may have to be simulated again, see setRollback
+	 */
+	private static class RollbackFrame
+	{
+		public WorldSnapshot snapshot = new WorldSnapshot(); //Taken as the frame started, if not confirmed
+		public ArrayList<Message> messages = new ArrayList<Message>();
+		public boolean confirmed = false;
+		public int tick = 0; //Real time tick the frame started in
+		public int timespan = 0; //Simulated timespan of that tick
+		public boolean ended = false;
+		public int[] checksum = new int[GameSync.CHECKSUM_SIZE]; //Of the world as the frame ended
+	}
+	private static final int ROLLBACK_FRAMES = 8;
+	private boolean mRollback = false;
+	private boolean mReplaying = false;
+	private RollbackFrame[] mRollbackFrames = new RollbackFrame[ROLLBACK_FRAMES];
+	private int mFrame = 0; //Communication frames started. The first needs no messages
+	private int mConfirmedFrame = 0; //Frames started with the other players' messages
+	private int mReplayEndFrame = 0;
+	private int mRollbackCount = 0;
+	private int mTickCount = 0;
+	private int mCurrentTick = 0;
+	private int[] mTimespans = new int[64]; //Real time tick lengths since the oldest unconfirmed frame
+	private int mTimespanBase = 0; //Tick of mTimespans[0]
+	private int mTimespanCount = 0;
+	//Per step flags used by Tick, indexed as mLiveMice/mLiveCats. Reused between steps
+	private boolean[] mMiceDead = new boolean[0];
+	private boolean[] mMiceRescued = new boolean[0];
+	private boolean[] mCatsDead = new boolean[0];
 	private MPSquareType[] mSpecialSquares = new MPSquareType[mWidth*mHeight];
+	//When the special squares of each row and column last changed, see getRowChanged
+	private int mSquareChanges = 0;
+	private int[] mRowChanged = new int[0];
+	private int[] mColChanged = new int[0];
+	//Hash of each special square, and of them all XORed together, see computeChecksum
+	private int[] mSquareHashes = new int[0];
+	private int mSquaresHash = 0;
 	private Vector2i[] mCursorPositions = new Vector2i[4];
 	private int[] mScores = new int[4];
 	private int[] mArrowCount = new int[4];
@@ -55,12 +98,16 @@ public class MPWorld extends WorldBase {
 	private int mSpawnMax = SPAWN_DEFAULT;
 	private int mSpawnInterval = 400;
 	private int mSpawnTimer = 1500;
-	private Random mRandom;
+	private SyncRandom mRandom = new SyncRandom(0);
 	private Random mRandomUnsynced = new Random();
 	private int mTimer = 0;
 	private int mRealtime = 0;
 	private static final int SPAWN_DEFAULT = 20;
+	private static final int EXPIRY_TIME = 5000;
 
+	private static final MPGameState[] mGameStates = MPGameState.values();
+	private static final SquareType[] mSquareTypes = SquareType.values();
+	private static final Direction[] mDirections = Direction.values();
 	private MPGameState mGameState = MPGameState.Countdown;
 	private int mStateTimer = COUNTDOWN_TIME;
 	private int mStateTimerLTV = mStateTimer;
@@ -78,6 +125,8 @@ public class MPWorld extends WorldBase {
 	private MPGameState mPendingSpecialState = MPGameState.InPlay;
 	public OnGuiMessage mGUIMessage = null;
 	public OnGuiMessage mEndMessage = null;
+	public OnGuiMessage mDesyncMessage = null; //Shown the desync report if the players' worlds differ
+	public OnSoundEffect mSoundEffect = null;
 	
 	/* MPWorld(input)
 	 * Loads a world from specified XML file
@@ -106,6 +155,7 @@ public class MPWorld extends WorldBase {
 			mSpecialSquares[i].square_type = SquareType.Empty;
 			mSpecialSquares[i].player_id = -1;
 		}
+		allSquaresChanged();
 		for(int i = 0; i < 4; i++)
 		{
 			mCursorPositions[i] = new Vector2i(-1, -1);
@@ -121,23 +171,23 @@ public class MPWorld extends WorldBase {
 		return mCursorPositions;
 	}
 	
-	public ArrayList<Walker> getLiveMice() {
+	public WalkerList getLiveMice() {
 		return mLiveMice;
 	}
 	
-	public ArrayList<Walker> getLiveCats() {
+	public WalkerList getLiveCats() {
 		return mLiveCats;
 	}
 	
-	public ArrayList<Walker> getDeadMice() {
+	public WalkerList getDeadMice() {
 		return mDeadMice;
 	}
 	
-	public ArrayList<Walker> getDeadCats() {
+	public WalkerList getDeadCats() {
 		return mDeadCats;
 	}
 	
-	public ArrayList<Walker> getRescuedMice() {
+	public WalkerList getRescuedMice() {
 		return mRescuedMice;
 	}
 	
@@ -147,21 +197,16 @@ public class MPWorld extends WorldBase {
 	
 	public void addWalker(int x, int y, Direction d, WalkerType walker_type)
 	{
-		Walker w = new Walker();
-		w.setWalkerType(walker_type);
-		w.setPosition(new Vector2i(x, y));
-		w.setDirection(d);
-		w.setWorld(this);
+		if(mWidth <= x || mHeight <= y)
+			throw new InvalidParameterException("Unable to add walker outside world. Walker at (" + Integer.toString(x) + "," + Integer.toString(y) + "), world size is (" + Integer.toString(mWidth) + "," + Integer.toString(mHeight) + ")");
 		switch (walker_type) {
 		case Mouse:
 		case MouseGold:
 		case MouseSpecial:
-			mLiveMice.add(w);
-			w.setSpeed(Walker.MouseSpeed);
+			mLiveMice.add(mWalkers.allocate(x, y, d, walker_type, Walker.MouseSpeed));
 			break;
 		default:
-			mLiveCats.add(w);
-			w.setSpeed(Walker.CatSpeed);
+			mLiveCats.add(mWalkers.allocate(x, y, d, walker_type, Walker.CatSpeed));
 			break;
 		}
 	}
@@ -170,31 +215,30 @@ public class MPWorld extends WorldBase {
 	 * Loads XML specific to the multiplayer modes - eg player locations, spawners etc
 	 */
 	@Override
-	protected void loadSpecific(Element root) {
+	protected void loadSpecific(LevelElements elements) {
 		mSpecialSquares = new MPSquareType[mWidth * mHeight];
 		for(int i = 0; i < mWidth * mHeight; i++){
 			mSpecialSquares[i] = new MPSquareType();
 			mSpecialSquares[i].square_type = SquareType.Empty;
 			mSpecialSquares[i].player_id = -1;
 		}
-		loadEntities(root);
+		allSquaresChanged();
+		loadEntities(elements);
 	}
 	
 	/**
 	 * Loads entities from XML
-	 * @param root the document element of the XML
+	 * @param elements the elements of the XML
 	 */
-	private void loadEntities(Element root) {
+	private void loadEntities(LevelElements elements) {
 		
 		//Load rockets (player locations)
-		NodeList player_list = NL.ElementsByTag(root, "PlayerRocket");
-		for(int i = 0; i < player_list.getLength(); i++)
-		{
-			Node player_rocket = player_list.item(i);
-			NamedNodeMap rocket_attr = player_rocket.getAttributes();
-			Node pos_x = rocket_attr.getNamedItem("x");
-			Node pos_y = rocket_attr.getNamedItem("y");
-			Node player_id = rocket_attr.getNamedItem("id");
+		int player_count = elements.getCount("PlayerRocket");
+		for(int i = 0; i < player_count; i++)
+		{
+			String pos_x = elements.getAttribute("PlayerRocket", i, "x");
+			String pos_y = elements.getAttribute("PlayerRocket", i, "y");
+			String player_id = elements.getAttribute("PlayerRocket", i, "id");
 			if(pos_x == null || pos_y == null || player_id == null)
 			{
 				throw new InvalidParameterException("Both x, y & id must be specified in PlayerRocket");
@@ -202,9 +246,9 @@ public class MPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
-					int id = Integer.parseInt(player_id.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
+					int id = Integer.parseInt(player_id);
 					
 					setRocket(x, y, id);
 				} catch(NullPointerException nfe)
@@ -215,14 +259,12 @@ public class MPWorld extends WorldBase {
 		}
 		
 		//Load spawners
-		NodeList spawner_list = NL.ElementsByTag(root, "Spawner");
-		for(int i = 0; i < spawner_list.getLength(); i++)
-		{
-			Node spawner = spawner_list.item(i);
-			NamedNodeMap spawner_attr = spawner.getAttributes();
-			Node pos_x = spawner_attr.getNamedItem("x");
-			Node pos_y = spawner_attr.getNamedItem("y");
-			Node dir = spawner_attr.getNamedItem("d");
+		int spawner_count = elements.getCount("Spawner");
+		for(int i = 0; i < spawner_count; i++)
+		{
+			String pos_x = elements.getAttribute("Spawner", i, "x");
+			String pos_y = elements.getAttribute("Spawner", i, "y");
+			String dir = elements.getAttribute("Spawner", i, "d");
 			if(pos_x == null || pos_y == null || dir == null)
 			{
 				throw new InvalidParameterException("Both x, y & d must be specified in Spawner");
@@ -230,9 +272,9 @@ public class MPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
-					Direction direction = Direction.valueOf(dir.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
+					Direction direction = Direction.valueOf(dir);
 					
 					setSpawner(x, y, direction);
 				} catch(NullPointerException nfe)
@@ -243,14 +285,11 @@ public class MPWorld extends WorldBase {
 		}
 
 		//Load holes
-		NodeList hole_list = NL.ElementsByTag(root, "Hole");
-		for(int i = 0; i < hole_list.getLength(); i++)
+		int hole_count = elements.getCount("Hole");
+		for(int i = 0; i < hole_count; i++)
 		{			
-			Node hole_node = hole_list.item(i);
-			NamedNodeMap hole_position_attr = hole_node.getAttributes();
-			
-			Node pos_x = hole_position_attr.getNamedItem("x");
-			Node pos_y = hole_position_attr.getNamedItem("y");
+			String pos_x = elements.getAttribute("Hole", i, "x");
+			String pos_y = elements.getAttribute("Hole", i, "y");
 			if(pos_x == null || pos_y == null)
 			{
 				throw new InvalidParameterException("Both x and y must be specified in hole");			
@@ -258,8 +297,8 @@ public class MPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
 					setHole(x, y, true);
 				} catch(NumberFormatException nfe)
 				{
@@ -269,16 +308,130 @@ public class MPWorld extends WorldBase {
 		}
 	}
 	
+	/**
+	 * Sets the connection to the other players. If not set before the first Tick
+	 * a LocalSync is created from the connect string
+	 */
+	public void setSync(GameSync sync) {
+		mSync = sync;
+		mPlayerID = sync.getClientID();
+	}
+	
+	/**
+	 * Enables rollback, set before the first Tick. Rather than freezing until the other
+	 * players' messages for a communication frame arrive, the world carries on predicting
+	 * they do nothing. When their messages arrive the world is restored to the start of
+	 * that frame and simulated forward again with them. If messages are more than
+	 * ROLLBACK_FRAMES frames late the world freezes as it would without rollback.
+	 */
+	public void setRollback(boolean rollback) {
+		mRollback = rollback;
+		for(int i = 0; i < ROLLBACK_FRAMES; i++)
+		{
+			if(mRollbackFrames[i] == null)
+				mRollbackFrames[i] = new RollbackFrame();
+		}
+	}
+	
+	/**
+	 * Seeds the random numbers that decide spawns and specials, set before the first Tick.
+	 * Every player's world must use the same seed
+	 */
+	public void setSeed(long seed) {
+		mRandom.setSeed(seed);
+	}
+	
+	/**
+	 * Advances the world a number of fixed timesteps as if no more messages arrive, for an
+	 * AI to see what would happen on a copy of the world restored from a snapshot. The game
+	 * state timers do not run, so specials only start from a special mouse being rescued
+	 */
+	public void lookAhead(int steps) {
+		int timespan = FIXED_TIMESTEP;
+		if(mGameState == MPGameState.SpeedUp)
+			timespan = FIXED_TIMESTEP * 2;
+		else if(mGameState == MPGameState.SlowDown)
+			timespan = FIXED_TIMESTEP / 2;
+		for(int i = 0; i < steps; i++)
+			step(timespan);
+	}
+	
+	public boolean getRollback() {
+		return mRollback;
+	}
+	
+	/**
+	 * @return the number of times the world has been rolled back to take late messages
+	 */
+	public int getRollbackCount() {
+		return mRollbackCount;
+	}
+	
+	/**
+	 * @return the number of ticks the world has been frozen waiting for the other players
+	 */
+	public int getStallCount() {
+		return mStallCount;
+	}
+	
+	/**
+	 * @return true once the game is over
+	 */
+	public boolean isFinished() {
+		return mGameState == MPGameState.Finished;
+	}
+	
 	public void Tick(int timespan) {
-		int ltv_realtime = mRealtime;
-		mRealtime += timespan;
 		//Initialise as a temporary measure
 		if(mSync == null){
 			mSync = new LocalSync(this);
 			mSync.Connect(mConnectString);
 			mPlayerID = mSync.getClientID();
-			mRandom = new Random(0);
 		}
+		if(mRollback)
+		{
+			confirmFrames();
+			recordTimespan(timespan);
+		}
+		mCurrentTick = mTickCount;
+		tick(timespan);
+		mTickCount++;
+		
+		if(mDesyncReport == null && mSync.getDesyncFrame() >= 0)
+		{
+			mDesyncReport = createDesyncReport();
+			if(mDesyncMessage != null)
+				mDesyncMessage.show(mDesyncReport, 0);
+		}
+	}
+	
+	/**
+	 * @return a description of the first difference found between this world and another
+	 * player's, or null if none has been found
+	 */
+	public String getDesyncReport() {
+		return mDesyncReport;
+	}
+	
+	/* tick
+	 * Advances the game by one real time tick. Called again for ticks being resimulated
+	 * after a rollback, in which case nothing is sent to the other players or shown
+	 */
+	private void tick(int timespan) {
+		//Once a frame has ended everything, timers included, waits for the messages to start
+		//the next, so the game runs the same for every player however long each waits
+		if(mCommunicationFrameTime >= FIXED_TIMESTEP * COMM_RATIO)
+		{
+			beginFrame(mHeldTimespan);
+			if(mCommunicationFrameTime < FIXED_TIMESTEP * COMM_RATIO)
+				step(mHeldTimespan);
+			else if(!mReplaying)
+				mStallCount++;
+			return;
+		}
+		
+		int ltv_realtime = mRealtime;
+		mRealtime += timespan;
 		mStateTimerLTV = mStateTimer;
 		if(mStateTimer > 0)
 		{
@@ -287,7 +440,7 @@ public class MPWorld extends WorldBase {
 			{
 				if(mGameState == MPGameState.Countdown && mGUIMessage != null)
 				{
-					mGUIMessage.show("GO!", 1200);
+					showGuiMessage("GO!", 1200);
 				}
 				mGameState = mPendingSpecialState;
 				mPendingSpecialState = MPGameState.InPlay;
@@ -322,21 +475,21 @@ public class MPWorld extends WorldBase {
 			{
 				if(mGUIMessage != null)
 				{
-					mGUIMessage.show("3", 800);
+					showGuiMessage("3", 800);
 				}
 			}
 			if(mStateTimer < 2000 && mStateTimerLTV >= 2000)
 			{
 				if(mGUIMessage != null)
 				{
-					mGUIMessage.show("2", 800);
+					showGuiMessage("2", 800);
 				}
 			}
 			if(mStateTimer < 1000 && mStateTimerLTV >= 1000)
 			{
 				if(mGUIMessage != null)
 				{
-					mGUIMessage.show("1", 800);
+					showGuiMessage("1", 800);
 				}
 			}
 			timespan = 0;
@@ -372,11 +525,11 @@ public class MPWorld extends WorldBase {
 							roll_state = MPGameState.SlowDown;
 							break;
 						}
-						mGUIMessage.show(mStateNames.get(roll_state), 500);
-						SoundManager.PlaySound("Sounds/Roulette.ogg");
+						showGuiMessage(mStateNames.get(roll_state), 500);
+						playSound("Sounds/Roulette.ogg");
 					} else
 					{
-						mGUIMessage.show(mStateNames.get(mPendingSpecialState), 500);
+						showGuiMessage(mStateNames.get(mPendingSpecialState), 500);
 					}
 				}
 			}
@@ -385,7 +538,7 @@ public class MPWorld extends WorldBase {
 		default:
 			timespan = 0;
 			if(mRealtime > GAME_TIME + 2000)
-				mEndMessage.show("", 0); //End the game, return to Menu
+				showEndMessage(); //End the game, return to Menu
 			break;
 		case SpeedUp:
 			timespan = FIXED_TIMESTEP * 2;
@@ -396,28 +549,28 @@ public class MPWorld extends WorldBase {
 		}
 		if(mRealtime > GAME_TIME - 30000 && ltv_realtime <= GAME_TIME - 30000)
 		{
-			mGUIMessage.show("30s left!", 750);
+			showGuiMessage("30s left!", 750);
 		}
 		if(mRealtime > GAME_TIME - 10000 && ltv_realtime <= GAME_TIME - 10000) {
-			SoundManager.PlaySound("Sounds/Beep1.ogg"); }
+			playSound("Sounds/Beep1.ogg"); }
 		if(mRealtime > GAME_TIME - 9000 && ltv_realtime <= GAME_TIME - 9000) {
-			SoundManager.PlaySound("Sounds/Beep1.ogg"); }
+			playSound("Sounds/Beep1.ogg"); }
 		if(mRealtime > GAME_TIME - 8000 && ltv_realtime <= GAME_TIME - 8000) {
-			SoundManager.PlaySound("Sounds/Beep1.ogg"); }
+			playSound("Sounds/Beep1.ogg"); }
 		if(mRealtime > GAME_TIME - 7000 && ltv_realtime <= GAME_TIME - 7000) {
-			SoundManager.PlaySound("Sounds/Beep1.ogg"); }
+			playSound("Sounds/Beep1.ogg"); }
 		if(mRealtime > GAME_TIME - 6000 && ltv_realtime <= GAME_TIME - 6000) {
-			SoundManager.PlaySound("Sounds/Beep2.ogg"); }
+			playSound("Sounds/Beep2.ogg"); }
 		if(mRealtime > GAME_TIME - 5000 && ltv_realtime <= GAME_TIME - 5000) {
-			SoundManager.PlaySound("Sounds/Beep2.ogg"); }
+			playSound("Sounds/Beep2.ogg"); }
 		if(mRealtime > GAME_TIME - 4000 && ltv_realtime <= GAME_TIME - 4000) {
-			SoundManager.PlaySound("Sounds/Beep2.ogg"); }
+			playSound("Sounds/Beep2.ogg"); }
 		if(mRealtime > GAME_TIME - 3000 && ltv_realtime <= GAME_TIME - 3000) {
-			SoundManager.PlaySound("Sounds/Beep2.ogg"); }
+			playSound("Sounds/Beep2.ogg"); }
 		if(mRealtime > GAME_TIME - 2000 && ltv_realtime <= GAME_TIME - 2000) {
-			SoundManager.PlaySound("Sounds/Beep3.ogg"); }
+			playSound("Sounds/Beep3.ogg"); }
 		if(mRealtime > GAME_TIME - 1000 && ltv_realtime <= GAME_TIME - 1000) {
-			SoundManager.PlaySound("Sounds/Beep3.ogg"); }
+			playSound("Sounds/Beep3.ogg"); }
 
 		if(mRealtime > GAME_TIME && mGameState != MPGameState.Finished)
 		{
@@ -429,7 +582,7 @@ public class MPWorld extends WorldBase {
 					win_index = i;
 			}
 			
-			mGUIMessage.show(mSync.getPlayerNames().get(win_index) + " wins!", 20000);
+			showGuiMessage(mSync.getPlayerNames().get(win_index) + " wins!", 20000);
 			mGameState = MPGameState.Finished;
 		}
 
@@ -437,113 +590,577 @@ public class MPWorld extends WorldBase {
 		mCommunicationFrameTime += FIXED_TIMESTEP;
 		if(mCommunicationFrameTime >= FIXED_TIMESTEP * COMM_RATIO)
 		{
-			if(mCommunicationFrameTime == FIXED_TIMESTEP * COMM_RATIO)
-			{
+			if(mRollback)
+				endRollbackFrame();
+			else
+				mSync.setFrameChecksum(mSync.getSentFrame() + 1, computeChecksum());
+			if(!mReplaying)
 				mSync.SendFrameEnd();
-			}
-			//Allow to advance once sync frame is within 2 of sent frame
-			if(mSync.getReadyFrame() >= mSync.getSentFrame() - 2)
-			{
-				mCommunicationFrameTime = 0;
-				mSubFrame = 0;
-				mMessages = mSync.popMessages();
-			}
+			mHeldTimespan = timespan;
+			beginFrame(timespan);
 		}
 		
 		//If mCommunicationFrameTime has been reset then simulation is synced and can continue
 		if(mCommunicationFrameTime < FIXED_TIMESTEP * COMM_RATIO)
+			step(timespan);
+		else if(!mReplaying)
+			mStallCount++;
+	}
+	
+	/* computeChecksum
+	 * Hashes the state every player's world must agree on, in parts so a desync report
+	 * can say which differs. The special squares rarely change, so their hash is kept up
+	 * to date as they do. Walkers move every step, so are hashed here once a frame rather
+	 * than every step, without allocating
+	 * @return mChecksum
+	 */
+	private int[] computeChecksum() {
+		long random = mRandom.getState();
+		mChecksum[CHECKSUM_RANDOM] = hash(hash(HASH_SEED, (int)(random >>> 32)), (int)random);
+		
+		int walkers = HASH_SEED;
+		walkers = hashWalkers(walkers, mLiveMice);
+		walkers = hashWalkers(walkers, mLiveCats);
+		walkers = hash(walkers, mDeadMice.size());
+		walkers = hash(walkers, mRescuedMice.size());
+		walkers = hash(walkers, mDeadCats.size());
+		mChecksum[CHECKSUM_WALKERS] = walkers;
+		
+		mChecksum[CHECKSUM_SQUARES] = mSquaresHash;
+		
+		int game = HASH_SEED;
+		for(int i = 0; i < 4; i++)
 		{
-			mTimer += timespan;
-			if(mSpawnTimer <= mTimer && mLiveMice.size() + mLiveCats.size() < mSpawnMax)
-			{
-				spawnWalkers();
-				mSpawnTimer = mTimer + mSpawnInterval;
-			}
-			
-			//Action any messages this frame
-			if(mMessages.size() > 0)
+			game = hash(game, mScores[i]);
+			game = hash(game, mArrowCount[i]);
+			game = hash(game, mCursorPositions[i].x);
+			game = hash(game, mCursorPositions[i].y);
+		}
+		game = hash(game, mGameState.ordinal());
+		game = hash(game, mStateTimer);
+		game = hash(game, mRealtime);
+		game = hash(game, mTimer);
+		game = hash(game, mSpawnTimer);
+		mChecksum[CHECKSUM_GAME] = game;
+		return mChecksum;
+	}
+	
+	/* FNV-1a, a word at a time */
+	private static final int HASH_SEED = 0x811c9dc5;
+	
+	private static int hash(int hash, int value) {
+		return (hash ^ value) * 0x01000193;
+	}
+	
+	/* hashSquare
+	 * Rehashes one special square into mSquaresHash. XOR lets it be taken out and put
+	 * back without going over the others
+	 */
+	private void hashSquare(int index) {
+		MPSquareType square = mSpecialSquares[index];
+		int square_hash = hash(hash(hash(hash(HASH_SEED, index), square.square_type.ordinal()), square.player_id), square.order);
+		mSquaresHash ^= mSquareHashes[index] ^ square_hash;
+		mSquareHashes[index] = square_hash;
+	}
+	
+	private static int hashWalkers(int hash, WalkerList walkers) {
+		hash = hash(hash, walkers.size());
+		for(int i = 0; i < walkers.size(); i++)
+		{
+			hash = hash(hash, walkers.getX(i));
+			hash = hash(hash, walkers.getY(i));
+			hash = hash(hash, walkers.getFraction(i));
+			hash = hash(hash, walkers.getDirection(i).ordinal());
+			hash = hash(hash, walkers.getWalkerType(i).ordinal());
+		}
+		return hash;
+	}
+	
+	/* createDesyncReport
+	 * Lists which parts of the checksum differ, followed by this world's current state
+	 */
+	private String createDesyncReport() {
+		int[] local = mSync.getDesyncLocalChecksum();
+		int[] remote = mSync.getDesyncRemoteChecksum();
+		StringBuilder report = new StringBuilder();
+		report.append("Desync with player ").append(mSync.getDesyncPlayer());
+		report.append(" at frame ").append(mSync.getDesyncFrame()).append('\n');
+		for(int i = 0; i < local.length; i++)
+		{
+			report.append(CHECKSUM_NAMES[i]).append(local[i] == remote[i] ? " same " : " DIFFERS ");
+			report.append(Integer.toHexString(local[i])).append(' ').append(Integer.toHexString(remote[i])).append('\n');
+		}
+		report.append("State at frame ").append(mSync.getSentFrame()).append('\n');
+		report.append("random ").append(Long.toHexString(mRandom.getState()));
+		report.append(" state ").append(mGameState.toString()).append(' ').append(mStateTimer);
+		report.append(" realtime ").append(mRealtime).append(" timer ").append(mTimer).append('\n');
+		for(int i = 0; i < 4; i++)
+			report.append("player ").append(i).append(" score ").append(mScores[i]).append(" arrows ").append(mArrowCount[i]).append('\n');
+		appendWalkers(report, "mouse", mLiveMice);
+		appendWalkers(report, "cat", mLiveCats);
+		for(int y = 0; y < mHeight; y++)
+		{
+			for(int x = 0; x < mWidth; x++)
 			{
-				Message next = mMessages.get(0); 
-				while(next != null && next.sub_frame_id <= mSubFrame)
+				MPSquareType square = mSpecialSquares[wallIndex(x, y)];
+				if(square.square_type != SquareType.Empty)
 				{
-					handleMessage(next);
-					
-					mMessages.remove(0);
-					if(mMessages.size() == 0)
-						next = null;
-					else
-						next = mMessages.get(0);
+					report.append(square.square_type.toString()).append(" (").append(x).append(',').append(y);
+					report.append(") player ").append(square.player_id).append(" order ").append(square.order).append('\n');
 				}
 			}
-			
-			ArrayList<Walker> justDeadMice = new ArrayList<Walker>();
-			ArrayList<Walker> justRescuedMice = new ArrayList<Walker>();
-			ArrayList<Walker> justDeadCats = new ArrayList<Walker>();
-			ArrayList<Walker> expiredWalkers = new ArrayList<Walker>();
-			
-			for(Walker mouse : mLiveMice)
+		}
+		return report.toString();
+	}
+	
+	private static void appendWalkers(StringBuilder report, String name, WalkerList walkers) {
+		for(int i = 0; i < walkers.size(); i++)
+		{
+			report.append(name).append(" (").append(walkers.getX(i)).append(',').append(walkers.getY(i));
+			report.append(") ").append(walkers.getDirection(i).toString()).append(' ').append(walkers.getFraction(i));
+			report.append(' ').append(walkers.getWalkerType(i).toString()).append('\n');
+		}
+	}
+	
+	/* beginFrame
+	 * Starts the next communication frame if the messages for it are ready, resetting
+	 * mCommunicationFrameTime
+	 */
+	private void beginFrame(int timespan) {
+		if(mRollback)
+		{
+			beginRollbackFrame(timespan);
+		} else if(mSync.getReadyFrame() >= mSync.getSentFrame() - 2)
+		{
+			//Allow to advance once sync frame is within 2 of sent frame
+			mCommunicationFrameTime = 0;
+			mSubFrame = 0;
+			clearMessages();
+			mSync.popMessages(mMessages);
+		}
+	}
+	
+	/* step
+	 * Advances the simulation by timespan, actioning the messages due in this sub frame
+	 */
+	private void step(int timespan) {
+		mTimer += timespan;
+		if(mSpawnTimer <= mTimer && mLiveMice.size() + mLiveCats.size() < mSpawnMax)
+		{
+			spawnWalkers();
+			mSpawnTimer = mTimer + mSpawnInterval;
+		}
+		
+		//Action any messages this frame
+		while(mMessageIndex < mMessages.size() && mMessages.get(mMessageIndex).sub_frame_id <= mSubFrame)
+		{
+			Message message = mMessages.get(mMessageIndex);
+			handleMessage(message);
+			mMessageIndex++;
+			//With rollback the frame's messages are kept in case it is simulated again
+			if(!mRollback)
+				MessagePool.recycle(message);
+		}
+		
+		//Walkers that die or are rescued are appended straight onto the dead/rescued lists
+		//and flagged by index, then the live lists are compacted in place
+		int mouse_count = mLiveMice.size();
+		int cat_count = mLiveCats.size();
+		mMiceDead = ensureFlags(mMiceDead, mouse_count);
+		mMiceRescued = ensureFlags(mMiceRescued, mouse_count);
+		mCatsDead = ensureFlags(mCatsDead, cat_count);
+		
+		for(int i = 0; i < mouse_count; i++)
+		{
+			int mouse = mLiveMice.getSlot(i);
+			mWalkers.advance(mouse, timespan, this);
+			mMiceDead[i] = mWalkers.getWalkerState(mouse) == WalkerState.Dead;
+			mMiceRescued[i] = mWalkers.getWalkerState(mouse) == WalkerState.Rescued;
+			if(mMiceDead[i])
+				mDeadMice.add(mouse);
+			if(mMiceRescued[i])
+				mRescuedMice.add(mouse);
+		}
+		for(int i = 0; i < cat_count; i++)
+		{
+			int cat = mLiveCats.getSlot(i);
+			mWalkers.advance(cat, timespan, this);
+			mCatsDead[i] = mWalkers.getWalkerState(cat) == WalkerState.Dead || 
+						   mWalkers.getWalkerState(cat) == WalkerState.Rescued;
+			if(mCatsDead[i])
+				mDeadCats.add(cat);
+		}
+		
+		//Only mice in squares near a cat are tested, in the same order as testing all of them
+		mCollisionGrid.reset(mWidth, mHeight, mouse_count);
+		for(int i = 0; i < mouse_count; i++)
+		{
+			if(!mMiceDead[i])
+				mCollisionGrid.add(i, mLiveMice.getX(i), mLiveMice.getY(i), mLiveMice.getFraction(i), mLiveMice.getDirection(i));
+		}
+		for(int c = 0; c < cat_count; c++)
+		{
+			int cat = mLiveCats.getSlot(c);
+			int candidates = mCollisionGrid.query(mWalkers.getX(cat), mWalkers.getY(cat), mWalkers.getFraction(cat), mWalkers.getDirection(cat));
+			for(int k = 0; k < candidates; k++)
 			{
-				mouse.Advance(timespan);
-				if(mouse.getWalkerState() == WalkerState.Dead && !justDeadMice.contains(mouse))
+				int i = mCollisionGrid.getCandidate(k);
+				int mouse = mLiveMice.getSlot(i);
+				//Calculate distance
+				if(!mMiceDead[i] && checkCollision(mWalkers.getX(cat), mWalkers.getY(cat), mWalkers.getFraction(cat), mWalkers.getDirection(cat),
+												   mWalkers.getX(mouse), mWalkers.getY(mouse), mWalkers.getFraction(mouse), mWalkers.getDirection(mouse)))
 				{
-					justDeadMice.add(mouse);
-				}
-				if(mouse.getWalkerState() == WalkerState.Rescued && !justRescuedMice.contains(mouse))
-				{
-					justRescuedMice.add(mouse);
-				}
-			}
-			for (Walker cat : mLiveCats) {
-				cat.Advance(timespan);
-				if((cat.getWalkerState() == WalkerState.Dead || 
-					cat.getWalkerState() == WalkerState.Rescued) && !justDeadCats.contains(cat))
-				{
-					justDeadCats.add(cat);
+					mMiceDead[i] = true;
+					mDeadMice.add(mouse);
 				}
 			}
-			
-			for(Walker cat : mLiveCats) {
-				for(Walker mouse : mLiveMice) {
-					//Calculate distance
-					if(checkCollision(cat, mouse) && !justDeadMice.contains(mouse))
-					{
-						justDeadMice.add(mouse);
-					}
-				}
+		}
+		for(int i = 0; i < mouse_count; i++)
+		{
+			mMiceDead[i] |= mMiceRescued[i];
+		}
+		
+		mLiveMice.compact(mMiceDead);
+		mLiveCats.compact(mCatsDead);
+		
+		//Slots are recycled once their death animation has completed
+		mDeadMice.deathTick(timespan);
+		mRescuedMice.deathTick(timespan);
+		mDeadCats.deathTick(timespan);
+		mDeadMice.removeExpired(EXPIRY_TIME);
+		mRescuedMice.removeExpired(EXPIRY_TIME);
+		mDeadCats.removeExpired(EXPIRY_TIME);
+		mSubFrame++;
+	}
+
+	/* beginRollbackFrame
+	 * Starts the next communication frame, with the other players' messages if they have
+	 * arrived, otherwise predicting there are none. The state at the start of each frame
+	 * started on a prediction is kept so the frame can be simulated again
+	 * @param timespan the simulated timespan of this tick
+	 */
+	private void beginRollbackFrame(int timespan) {
+		int frame = mFrame + 1;
+		RollbackFrame rollback_frame = mRollbackFrames[frame % ROLLBACK_FRAMES];
+		if(mReplaying)
+		{
+			//Frames start in the same ticks as they first did
+			if(frame > mReplayEndFrame || mCurrentTick < rollback_frame.tick)
+				return;
+		} else
+		{
+			if(frame - mConfirmedFrame >= ROLLBACK_FRAMES)
+				return; //Too far ahead of the other players, so wait for them
+			//The frame this slot last held can no longer be simulated again
+			for(int i = 0; i < rollback_frame.messages.size(); i++)
+				MessagePool.recycle(rollback_frame.messages.get(i));
+			rollback_frame.messages.clear();
+			rollback_frame.confirmed = false;
+			rollback_frame.ended = false;
+			rollback_frame.tick = mCurrentTick;
+			rollback_frame.timespan = timespan;
+			if(mConfirmedFrame == mFrame && canPopMessages(frame))
+			{
+				mSync.popMessages(rollback_frame.messages);
+				rollback_frame.confirmed = true;
+				mConfirmedFrame = frame;
 			}
-			
-			mLiveMice.removeAll(justDeadMice);
-			mDeadMice.addAll(justDeadMice);
-			mLiveMice.removeAll(justRescuedMice);
-			mRescuedMice.addAll(justRescuedMice);
-			mLiveCats.removeAll(justDeadCats);
-			mDeadCats.addAll(justDeadCats);
-			
-			for(Walker mouse : mDeadMice)
+		}
+		mFrame = frame;
+		mCommunicationFrameTime = 0;
+		mSubFrame = 0;
+		mMessages.clear();
+		mMessageIndex = 0;
+		if(!rollback_frame.confirmed)
+			Snapshot(rollback_frame.snapshot);
+		mMessages.addAll(rollback_frame.messages);
+	}
+	
+	/* endRollbackFrame
+	 * Keeps the checksum of the world as the current frame ends. It is only given to
+	 * GameSync once every frame up to this one is confirmed, which may be now, when the
+	 * frame is confirmed without messages or when it is simulated again after a rollback
+	 */
+	private void endRollbackFrame() {
+		RollbackFrame rollback_frame = mRollbackFrames[mFrame % ROLLBACK_FRAMES];
+		System.arraycopy(computeChecksum(), 0, rollback_frame.checksum, 0, GameSync.CHECKSUM_SIZE);
+		rollback_frame.ended = true;
+		if(mFrame <= mConfirmedFrame)
+			mSync.setFrameChecksum(mFrame + 1, rollback_frame.checksum);
+	}
+	
+	/* confirmFrames
+	 * Takes the messages for frames started on a prediction as they arrive. If any player
+	 * did something in them, the world is rolled back to the earliest such frame and
+	 * simulated forward again to the current tick
+	 */
+	private void confirmFrames() {
+		int rollback_to = 0;
+		while(mConfirmedFrame < mFrame && canPopMessages(mConfirmedFrame + 1))
+		{
+			mConfirmedFrame++;
+			RollbackFrame rollback_frame = mRollbackFrames[mConfirmedFrame % ROLLBACK_FRAMES];
+			mSync.popMessages(rollback_frame.messages);
+			rollback_frame.confirmed = true;
+			if(rollback_to == 0 && rollback_frame.messages.size() > 0)
+				rollback_to = mConfirmedFrame;
+			//Up to the first frame with messages the prediction was right, so the
+			//checksum kept as the frame ended stands
+			if(rollback_to == 0 && rollback_frame.ended)
+				mSync.setFrameChecksum(mConfirmedFrame + 1, rollback_frame.checksum);
+		}
+		if(rollback_to > 0)
+			resimulate(rollback_to);
+		
+		//Ticks from before the oldest frame that may still be simulated again are not needed
+		int oldest_tick = mTickCount;
+		if(mConfirmedFrame < mFrame)
+			oldest_tick = mRollbackFrames[(mConfirmedFrame + 1) % ROLLBACK_FRAMES].tick;
+		int discard = oldest_tick - mTimespanBase;
+		if(discard > 0)
+		{
+			System.arraycopy(mTimespans, discard, mTimespans, 0, mTimespanCount - discard);
+			mTimespanCount -= discard;
+			mTimespanBase = oldest_tick;
+		}
+	}
+	
+	/* resimulate
+	 * Restores the world to the start of frame, then simulates every tick since again
+	 */
+	private void resimulate(int frame) {
+		RollbackFrame rollback_frame = mRollbackFrames[frame % ROLLBACK_FRAMES];
+		mReplaying = true;
+		mReplayEndFrame = mFrame;
+		Restore(rollback_frame.snapshot);
+		mFrame = frame;
+		mMessages.addAll(rollback_frame.messages);
+		//Finish the tick the frame started in, then repeat those since
+		step(rollback_frame.timespan);
+		for(int replay_tick = rollback_frame.tick + 1; replay_tick < mTickCount; replay_tick++)
+		{
+			mCurrentTick = replay_tick;
+			tick(mTimespans[replay_tick - mTimespanBase]);
+		}
+		mReplaying = false;
+		mRollbackCount++;
+	}
+	
+	private boolean canPopMessages(int frame) {
+		return mSync.hasMessages() && mSync.getReadyFrame() >= frame - 2;
+	}
+	
+	/* recordTimespan
+	 * Keeps the length of the current tick in case it has to be simulated again
+	 */
+	private void recordTimespan(int timespan) {
+		int index = mTickCount - mTimespanBase;
+		if(index == mTimespans.length)
+		{
+			int[] timespans = new int[mTimespans.length * 2];
+			System.arraycopy(mTimespans, 0, timespans, 0, mTimespanCount);
+			mTimespans = timespans;
+		}
+		mTimespans[index] = timespan;
+		mTimespanCount = index + 1;
+	}
+	
+	/* GUI and sound are left alone while ticks are simulated again */
+	private void showGuiMessage(String message, int duration) {
+		if(mGUIMessage != null && !mReplaying)
+			mGUIMessage.show(message, duration);
+	}
+	
+	private void showEndMessage() {
+		if(mEndMessage != null && !mReplaying)
+			mEndMessage.show("", 0);
+	}
+	
+	private void playSound(String sound) {
+		if(mSoundEffect != null && !mReplaying)
+			mSoundEffect.play(sound);
+	}
+	
+	/* hasPortableSnapshots
+	 * Walkers live in the WalkerStore and messages are written by value, so an AI can
+	 * restore a snapshot of the game into its own copy of the world to look ahead on
+	 */
+	@Override
+	protected boolean hasPortableSnapshots() {
+		return true;
+	}
+	
+	/* writeSnapshot
+	 * Writes the walkers, special squares, players, timers, game state, random number state
+	 * and the messages still to be actioned this frame. The connection to the other players
+	 * and the GUI are not included
+	 */
+	@Override
+	protected void writeSnapshot(WorldSnapshot snapshot) {
+		super.writeSnapshot(snapshot);
+		mWalkers.writeSnapshot(snapshot);
+		mLiveMice.writeSnapshot(snapshot);
+		mLiveCats.writeSnapshot(snapshot);
+		mDeadMice.writeSnapshot(snapshot);
+		mRescuedMice.writeSnapshot(snapshot);
+		mDeadCats.writeSnapshot(snapshot);
+		for(int i = 0; i < mSpecialSquares.length; i++)
+		{
+			snapshot.writeInt(mSpecialSquares[i].square_type.ordinal());
+			snapshot.writeInt(mSpecialSquares[i].player_id);
+			snapshot.writeInt(mSpecialSquares[i].order);
+		}
+		for(int i = 0; i < 4; i++)
+		{
+			snapshot.writeInt(mCursorPositions[i].x);
+			snapshot.writeInt(mCursorPositions[i].y);
+			snapshot.writeInt(mScores[i]);
+			snapshot.writeInt(mArrowCount[i]);
+		}
+		snapshot.writeInt(mSpawnMax);
+		snapshot.writeInt(mSpawnInterval);
+		snapshot.writeInt(mSpawnTimer);
+		snapshot.writeInt(mTimer);
+		snapshot.writeInt(mRealtime);
+		snapshot.writeInt(mCommunicationFrameTime);
+		snapshot.writeInt(mSubFrame);
+		snapshot.writeInt(mHeldTimespan);
+		snapshot.writeInt(mGameState.ordinal());
+		snapshot.writeInt(mPendingSpecialState.ordinal());
+		snapshot.writeInt(mStateTimer);
+		snapshot.writeInt(mStateTimerLTV);
+		snapshot.writeLong(mRandom.getState());
+		//Messages are written by value, as they are recycled once actioned
+		snapshot.writeInt(mMessages.size() - mMessageIndex);
+		for(int i = mMessageIndex; i < mMessages.size(); i++)
+		{
+			Message message = mMessages.get(i);
+			snapshot.writeInt(message.message_type);
+			snapshot.writeInt(message.user_id);
+			snapshot.writeInt(message.sub_frame_id);
+			switch(message.message_type)
 			{
-				mouse.DeathTick(timespan);
-				if(mouse.getDeathTime() > 5000)
-					expiredWalkers.add(mouse);
+			case Message.MESSAGE_CURSOR_POSITION:
+				snapshot.writeInt(((CursorPositioningMessage)message).x);
+				snapshot.writeInt(((CursorPositioningMessage)message).y);
+				break;
+			case Message.MESSAGE_ARROW_PLACEMENT:
+				snapshot.writeInt(((ArrowPlacementMessage)message).x);
+				snapshot.writeInt(((ArrowPlacementMessage)message).y);
+				snapshot.writeInt(((ArrowPlacementMessage)message).direction.ordinal());
+				break;
 			}
-			for(Walker mouse : mRescuedMice)
+		}
+	}
+	
+	/* readSnapshot
+	 * Reads what writeSnapshot wrote, reusing the existing walker store, lists and squares
+	 */
+	@Override
+	protected void readSnapshot(WorldSnapshot snapshot) {
+		super.readSnapshot(snapshot);
+		boolean resized = mRowChanged.length != mHeight || mColChanged.length != mWidth;
+		if(mSpecialSquares.length != mWidth * mHeight)
+		{
+			//Restoring into a copy that has not held this level before
+			mSpecialSquares = new MPSquareType[mWidth * mHeight];
+			for(int i = 0; i < mSpecialSquares.length; i++)
+				mSpecialSquares[i] = new MPSquareType();
+			resized = true;
+		}
+		mWalkers.readSnapshot(snapshot);
+		mLiveMice.readSnapshot(snapshot);
+		mLiveCats.readSnapshot(snapshot);
+		mDeadMice.readSnapshot(snapshot);
+		mRescuedMice.readSnapshot(snapshot);
+		mDeadCats.readSnapshot(snapshot);
+		//Only squares that differ count as changed, so AIs restoring a copy each frame keep
+		//what they have worked out about the rest
+		for(int i = 0; i < mSpecialSquares.length; i++)
+		{
+			SquareType square_type = mSquareTypes[snapshot.readInt()];
+			int player_id = snapshot.readInt();
+			int order = snapshot.readInt();
+			MPSquareType square = mSpecialSquares[i];
+			if(square.square_type != square_type || square.player_id != player_id)
 			{
-				mouse.DeathTick(timespan);
-				if(mouse.getDeathTime() > 5000)
-					expiredWalkers.add(mouse);
+				square.square_type = square_type;
+				square.player_id = player_id;
+				square.order = order;
+				if(!resized)
+					squareChanged(i % mWidth, i / mWidth);
+			} else if(square.order != order)
+			{
+				square.order = order;
+				hashSquare(i);
 			}
-			for(Walker cat : mDeadCats)
+		}
+		if(resized)
+			allSquaresChanged();
+		for(int i = 0; i < 4; i++)
+		{
+			mCursorPositions[i].x = snapshot.readInt();
+			mCursorPositions[i].y = snapshot.readInt();
+			mScores[i] = snapshot.readInt();
+			mArrowCount[i] = snapshot.readInt();
+		}
+		mSpawnMax = snapshot.readInt();
+		mSpawnInterval = snapshot.readInt();
+		mSpawnTimer = snapshot.readInt();
+		mTimer = snapshot.readInt();
+		mRealtime = snapshot.readInt();
+		mCommunicationFrameTime = snapshot.readInt();
+		mSubFrame = snapshot.readInt();
+		mHeldTimespan = snapshot.readInt();
+		mGameState = mGameStates[snapshot.readInt()];
+		mPendingSpecialState = mGameStates[snapshot.readInt()];
+		mStateTimer = snapshot.readInt();
+		mStateTimerLTV = snapshot.readInt();
+		mRandom.setState(snapshot.readLong());
+		clearMessages();
+		int message_count = snapshot.readInt();
+		for(int i = 0; i < message_count; i++)
+		{
+			int message_type = snapshot.readInt();
+			int user_id = snapshot.readInt();
+			int sub_frame_id = snapshot.readInt();
+			Message message;
+			switch(message_type)
 			{
-				cat.DeathTick(timespan);
-				if(cat.getDeathTime() > 5000)
-					expiredWalkers.add(cat);
+			case Message.MESSAGE_CURSOR_POSITION:
+				{
+					int x = snapshot.readInt();
+					message = MessagePool.obtainCursorPosition(x, snapshot.readInt());
+				}
+				break;
+			case Message.MESSAGE_ARROW_PLACEMENT:
+				{
+					int x = snapshot.readInt();
+					int y = snapshot.readInt();
+					message = MessagePool.obtainArrowPlacement(x, y, mDirections[snapshot.readInt()]);
+				}
+				break;
+			default:
+				message = MessagePool.obtainArrowClear();
+				break;
 			}
-			//TODO remove dead walkers once animation complete
-			mDeadMice.removeAll(expiredWalkers);
-			mRescuedMice.removeAll(expiredWalkers);
-			mDeadCats.removeAll(expiredWalkers);
-			mSubFrame++;
+			message.setCommon(user_id, sub_frame_id);
+			mMessages.add(message);
 		}
 	}
+	
+	/* clearMessages
+	 * Empties mMessages, recycling any not yet actioned unless they belong to a rollback frame
+	 */
+	private void clearMessages() {
+		if(!mRollback)
+		{
+			for(int i = mMessageIndex; i < mMessages.size(); i++)
+				MessagePool.recycle(mMessages.get(i));
+		}
+		mMessages.clear();
+		mMessageIndex = 0;
+	}
 
 	/**
 	 * Spawns a walker from each spawner
@@ -601,22 +1218,21 @@ public class MPWorld extends WorldBase {
 	}
 
 	/**
-	 * Called when walker reaches a new gird square and must turn/die
+	 * Called when the walker in slot reaches a new gird square and must turn/die
 	 */
-	@Override
-	public void walkerReachNewSquare(Walker walker, int x, int y, Direction d) {
+	void walkerReachNewSquare(int walker, int x, int y, Direction d) {
 		//First interact with special squares (arrow, holes & rockets)
 		SquareType square = getSpecialSquare(x, y);
 		//Holes
 		if(square == SquareType.Hole)
 		{
-			walker.setWalkerState(WalkerState.Dead);
+			mWalkers.setWalkerState(walker, WalkerState.Dead);
 		}
 		if(square == SquareType.Rocket)
 		{
 			int player = getPlayer(x, y);
 			//TODO score increment
-			switch(walker.getWalkerType())
+			switch(mWalkers.getWalkerType(walker))
 			{
 			case Mouse:
 				mScores[player]++;
@@ -639,21 +1255,21 @@ public class MPWorld extends WorldBase {
 			}
 			if(mScores[player] < 0) mScores[player] = 0;
 			if(mScores[player] > 999) mScores[player] = 999;
-			walker.setWalkerState(WalkerState.Rescued);
+			mWalkers.setWalkerState(walker, WalkerState.Rescued);
 		}
 		//Arrows
 		Direction arrow_direction = square.toArrowDirection(); 
 		if(arrow_direction != Direction.Invalid)
 		{
-			if(arrow_direction == Turns.TurnAround(d) && walker.getWalkerType() == WalkerType.Cat)
+			if(arrow_direction == Turns.TurnAround(d) && mWalkers.getWalkerType(walker) == WalkerType.Cat)
 			{
 				SquareType reduced = square.DiminishMP();
 				setSpecialSquare(x, y, reduced, getPlayer(x, y));
 			}
-			walker.setDirection2(arrow_direction);
+			mWalkers.setDirection(walker, arrow_direction);
 		}
 		/* Now interact with walls */
-		super.walkerReachNewSquare(walker, x, y, walker.getDirection());
+		mWalkers.setDirection(walker, wallTurn(x, y, mWalkers.getDirection(walker)));
 	}
 	
 	private void handleMessage(Message next_message) {
@@ -697,6 +1313,7 @@ public class MPWorld extends WorldBase {
 	 */
 	public void toggleHole(int x, int y) {
 		mSpecialSquares[wallIndex(x, y)].square_type = getHole(x, y) ? SquareType.Hole : SquareType.Empty;
+		squareChanged(x, y);
 	}
 	
 	/**
@@ -704,6 +1321,7 @@ public class MPWorld extends WorldBase {
 	 */
 	public void setHole(int x, int y, boolean hole) {
 		mSpecialSquares[wallIndex(x, y)].square_type = hole ? SquareType.Hole : SquareType.Empty; 
+		squareChanged(x, y);
 	}
 	
 	/**
@@ -718,6 +1336,7 @@ public class MPWorld extends WorldBase {
 	 */
 	public void toggleSpawner(int x, int y, Direction direction) {
 		mSpecialSquares[wallIndex(x, y)].square_type = getSpawner(x, y) != direction ? direction.toSpawner() : SquareType.Empty;
+		squareChanged(x, y);
 	}
 	
 	/**
@@ -725,6 +1344,7 @@ public class MPWorld extends WorldBase {
 	 */
 	public void setSpawner(int x, int y, Direction direction) {
 		mSpecialSquares[wallIndex(x, y)].square_type = direction.toSpawner(); 
+		squareChanged(x, y);
 	}
 	
 	/**
@@ -787,6 +1407,7 @@ public class MPWorld extends WorldBase {
 		mSpecialSquares[wallIndex(x, y)].square_type = direction.toArrow();
 		mSpecialSquares[wallIndex(x, y)].player_id = direction == Direction.Invalid ? -1 : player;
 		if(player != -1) mSpecialSquares[wallIndex(x, y)].order = mArrowCount[player];
+		squareChanged(x, y);
 	}
 	
 	/**
@@ -854,6 +1475,7 @@ public class MPWorld extends WorldBase {
 	public void setRocket(int x, int y, int player) {
 		mSpecialSquares[wallIndex(x, y)].square_type = SquareType.Rocket;
 		mSpecialSquares[wallIndex(x, y)].player_id = player;
+		squareChanged(x, y);
 	}
 	
 	/**
@@ -890,12 +1512,62 @@ public class MPWorld extends WorldBase {
 			mSpecialSquares[wallIndex(x, y)].player_id = -1;
 			break;
 		}
+		squareChanged(x, y);
+	}
+	
+	/**
+	 * @return a count that changes whenever a special square in row y changes, so an AI can
+	 * tell whether what it has worked out about the row still holds
+	 */
+	public int getRowChanged(int y) {
+		return mRowChanged[y];
+	}
+	
+	/**
+	 * @return a count that changes whenever a special square in column x changes
+	 */
+	public int getColChanged(int x) {
+		return mColChanged[x];
+	}
+	
+	private void squareChanged(int x, int y) {
+		mSquareChanges++;
+		mRowChanged[y] = mSquareChanges;
+		mColChanged[x] = mSquareChanges;
+		hashSquare(wallIndex(x, y));
+	}
+	
+	private void allSquaresChanged() {
+		mSquareChanges++;
+		if(mRowChanged.length != mHeight)
+			mRowChanged = new int[mHeight];
+		if(mColChanged.length != mWidth)
+			mColChanged = new int[mWidth];
+		for(int y = 0; y < mHeight; y++)
+			mRowChanged[y] = mSquareChanges;
+		for(int x = 0; x < mWidth; x++)
+			mColChanged[x] = mSquareChanges;
+		if(mSquareHashes.length != mSpecialSquares.length)
+			mSquareHashes = new int[mSpecialSquares.length];
+		mSquaresHash = 0;
+		for(int i = 0; i < mSquareHashes.length; i++)
+		{
+			mSquareHashes[i] = 0;
+			hashSquare(i);
+		}
 	}
 	
 	public int getPlayerID() {
 		return mPlayerID;
 	}
 	
+	/**
+	 * @return the string the world was created with, passed to GameSync.Connect
+	 */
+	public String getConnectString() {
+		return mConnectString;
+	}
+	
 	public final int[] getPlayerScores() {
 		return mScores;
 	}
@@ -905,20 +1577,20 @@ public class MPWorld extends WorldBase {
 	 */
 	public void arrowPlacement(int x, int y, Direction d)
 	{
-		mSync.sendMessage(new ArrowPlacementMessage(x, y, d));
+		mSync.sendMessage(MessagePool.obtainArrowPlacement(x, y, d));
 	}
 	
 	/**
 	 * Clears all of this players arrows
 	 */
 	public void clearArrows() {
-		mSync.sendMessage(new ArrowClearMessage());
+		mSync.sendMessage(MessagePool.obtainArrowClear());
 	}
 	
 	/**
 	 * Moves the cursor for this player - purely aesthetic
 	 */
 	public void cursorPlacement(int x, int y) {
-		mSync.sendMessage(new CursorPositioningMessage(x, y));
+		mSync.sendMessage(MessagePool.obtainCursorPosition(x, y));
 	}
 }
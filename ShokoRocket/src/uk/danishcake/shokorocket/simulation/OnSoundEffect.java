@@ -0,0 +1,5 @@
+package uk.danishcake.shokorocket.simulation;
+
+public abstract class OnSoundEffect {
+	public abstract void play(String sound);
+}
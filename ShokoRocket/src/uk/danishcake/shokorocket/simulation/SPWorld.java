@@ -1,27 +1,50 @@
 package uk.danishcake.shokorocket.simulation;
 
-import uk.danishcake.shokorocket.NL;
 import uk.danishcake.shokorocket.simulation.Walker.WalkerState;
 import uk.danishcake.shokorocket.simulation.Walker.WalkerType;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Node;
-import org.w3c.dom.NamedNodeMap;
-
 public class SPWorld extends WorldBase {
 	public enum WorldState
 	{
 		OK, Failed, Success
 	}
+	public static final String BINARY_EXTENSION = ".LevelBin";
+	private static final int BINARY_MAGIC = 0x53524C42; //SRLB
+	private static final int BINARY_VERSION = 1;
+	
+	public enum FailureCause
+	{
+		None, MouseInHole, MouseCaught, CatInRocket, Loop, OutOfTime
+	}
+	/* VerifyResult
+	 * The outcome of Verify. simulated_time is how long the level ran before it
+	 * finished, was found to loop or ran out of time
+	 */
+	public static class VerifyResult
+	{
+		public boolean success = false;
+		public FailureCause failure_cause = FailureCause.None;
+		public boolean loop_detected = false;
+		public int simulated_time = 0;
+	}
+	/* VisitListener
+	 * Told by Resume after each step in which a walker first reaches a square
+	 */
+	interface VisitListener
+	{
+		void squaresVisited(int steps);
+	}
 	public class ArrowRecord
 	{
 		public int x;
@@ -46,6 +69,30 @@ public class SPWorld extends WorldBase {
 	
 	private boolean mMouseRescued = false;
 	private int mRotation = 0;
+	
+	private boolean[] mVisitedSquares = null;
+	private int mVisitedCount = 0;
+	
+	//Dynamic states seen by Resume, to find loops. Each is kept in mSeen as its length then
+	//its values, found through an open addressed table of offsets that is only valid where
+	//the stamp is the current run's. Reused between runs
+	private int[] mState = new int[0];
+	private int[] mSeen = new int[256];
+	private int mSeenUsed = 0;
+	private int mSeenCount = 0;
+	private int[] mSeenTable = new int[64];
+	private int[] mSeenStamp = new int[64];
+	private int mRunStamp = 0;
+	private int mArrowsDamaged = 0; //By cats, only ever counted up
+	
+	//Per step flags used by Tick, indexed as mLiveMice/mLiveCats. Reused between steps
+	private boolean[] mMiceDead = new boolean[0];
+	private boolean[] mMiceRescued = new boolean[0];
+	private boolean[] mCatsDead = new boolean[0];
+	
+	private static final WorldState[] mWorldStates = WorldState.values();
+	private static final SquareType[] mSquareTypes = SquareType.values();
+	private static final Direction[] mDirections = Direction.values();
 		
 	/**
 	 * Sets the splash message. This will be shown when a level is loaded.
@@ -439,6 +486,20 @@ public class SPWorld extends WorldBase {
 		mUnlimitedArrows = unlimited_arrows;
 	}
 	
+	/* setVisitedSquares
+	 * Flags each square any walker reaches in visited, indexed by y * width + x. Pass null to stop
+	 */
+	void setVisitedSquares(boolean[] visited) {
+		mVisitedSquares = visited;
+	}
+	
+	/* getSolutionLength
+	 * @return the number of arrows in the stored solution, 0 if the level has none
+	 */
+	public int getSolutionLength() {
+		return mSolution.size();
+	}
+	
 	/* getArrowStock
 	 * @return the stock or remaining arrows
 	 */
@@ -481,35 +542,31 @@ public class SPWorld extends WorldBase {
 	}
 	
 	@Override
-	protected void loadSpecific(Element root) {
+	protected void loadSpecific(LevelElements elements) {
 		mUnlimitedArrows = false;
 		mSpecialSquares = new SquareType[mWidth*mHeight];
 		defaultSpecialSquares();
-		NodeList splash_nodes = NL.ElementsByTag(root, "Splash");
-		if(splash_nodes.getLength() >= 1)
+		if(elements.getCount("Splash") >= 1)
 		{
-			String splash_text = splash_nodes.item(0).getFirstChild().getNodeValue();
+			String splash_text = elements.getText("Splash", 0);
 			if(splash_text != null)
 				mSplashMessage = splash_text; 
 		}
-		loadEntities(root);
-		loadSolution(root);
+		loadEntities(elements);
+		loadSolution(elements);
 	}
 	
 	/* Loads entities from XML
-	 * @param root the document element in the XML level
+	 * @param elements the elements of the XML level
 	 */
-	private void loadEntities(Element root) {
+	private void loadEntities(LevelElements elements) {
 		//Load mice
-		NodeList mouse_list = NL.ElementsByTag(root, "Mouse");
-		for(int i = 0; i < mouse_list.getLength(); i++)
+		int mouse_count = elements.getCount("Mouse");
+		for(int i = 0; i < mouse_count; i++)
 		{			
-			Node mouse_node = mouse_list.item(i);
-			NamedNodeMap mouse_position_attr = mouse_node.getAttributes();
-			
-			Node pos_x = mouse_position_attr.getNamedItem("x");
-			Node pos_y = mouse_position_attr.getNamedItem("y");
-			Node dir = mouse_position_attr.getNamedItem("d");
+			String pos_x = elements.getAttribute("Mouse", i, "x");
+			String pos_y = elements.getAttribute("Mouse", i, "y");
+			String dir = elements.getAttribute("Mouse", i, "d");
 			if(pos_x == null || pos_y == null || dir == null)
 			{
 				throw new InvalidParameterException("Both x and y must be specified in mouse");			
@@ -517,11 +574,11 @@ public class SPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
 					Walker walker = new Walker();
 					walker.setPosition(new Vector2i(x,y));
-					walker.setDirection(Direction.valueOf(dir.getNodeValue()));
+					walker.setDirection(Direction.valueOf(dir));
 					addMouse(walker);
 				} catch(NumberFormatException nfe)
 				{
@@ -533,15 +590,12 @@ public class SPWorld extends WorldBase {
 			}
 		}		
 		//Load cats
-		NodeList cat_list = NL.ElementsByTag(root, "Cat");
-		for(int i = 0; i < cat_list.getLength(); i++)
+		int cat_count = elements.getCount("Cat");
+		for(int i = 0; i < cat_count; i++)
 		{			
-			Node cat_node = cat_list.item(i);
-			NamedNodeMap cat_position_attr = cat_node.getAttributes();
-			
-			Node pos_x = cat_position_attr.getNamedItem("x");
-			Node pos_y = cat_position_attr.getNamedItem("y");
-			Node dir = cat_position_attr.getNamedItem("d");
+			String pos_x = elements.getAttribute("Cat", i, "x");
+			String pos_y = elements.getAttribute("Cat", i, "y");
+			String dir = elements.getAttribute("Cat", i, "d");
 			if(pos_x == null || pos_y == null || dir == null)
 			{
 				throw new InvalidParameterException("Both x, y and d must be specified in cat");			
@@ -549,11 +603,11 @@ public class SPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
 					Walker walker = new Walker();
 					walker.setPosition(new Vector2i(x,y));
-					walker.setDirection(Direction.valueOf(dir.getNodeValue()));
+					walker.setDirection(Direction.valueOf(dir));
 					addCat(walker);
 				} catch(NumberFormatException nfe)
 				{
@@ -565,14 +619,11 @@ public class SPWorld extends WorldBase {
 			}
 		}
 		//Load rockets
-		NodeList rocket_list = NL.ElementsByTag(root, "Rocket");
-		for(int i = 0; i < rocket_list.getLength(); i++)
+		int rocket_count = elements.getCount("Rocket");
+		for(int i = 0; i < rocket_count; i++)
 		{			
-			Node rocket_node = rocket_list.item(i);
-			NamedNodeMap rocket_position_attr = rocket_node.getAttributes();
-			
-			Node pos_x = rocket_position_attr.getNamedItem("x");
-			Node pos_y = rocket_position_attr.getNamedItem("y");
+			String pos_x = elements.getAttribute("Rocket", i, "x");
+			String pos_y = elements.getAttribute("Rocket", i, "y");
 			if(pos_x == null || pos_y == null)
 			{
 				throw new InvalidParameterException("Both x and y must be specified in rocket");			
@@ -580,8 +631,8 @@ public class SPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
 					setRocket(x, y, true);
 				} catch(NumberFormatException nfe)
 				{
@@ -590,14 +641,11 @@ public class SPWorld extends WorldBase {
 			}
 		}
 		//Load holes
-		NodeList hole_list = NL.ElementsByTag(root, "Hole");
-		for(int i = 0; i < hole_list.getLength(); i++)
+		int hole_count = elements.getCount("Hole");
+		for(int i = 0; i < hole_count; i++)
 		{			
-			Node hole_node = hole_list.item(i);
-			NamedNodeMap hole_position_attr = hole_node.getAttributes();
-			
-			Node pos_x = hole_position_attr.getNamedItem("x");
-			Node pos_y = hole_position_attr.getNamedItem("y");
+			String pos_x = elements.getAttribute("Hole", i, "x");
+			String pos_y = elements.getAttribute("Hole", i, "y");
 			if(pos_x == null || pos_y == null)
 			{
 				throw new InvalidParameterException("Both x and y must be specified in hole");			
@@ -605,8 +653,8 @@ public class SPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
 					setHole(x, y, true);
 				} catch(NumberFormatException nfe)
 				{
@@ -616,17 +664,14 @@ public class SPWorld extends WorldBase {
 		}
 	}
 	
-	private void loadSolution(Element root) {
+	private void loadSolution(LevelElements elements) {
 		//Load arrows
-		NodeList arrow_list = NL.ElementsByTag(root, "Arrow");
-		for(int i = 0; i < arrow_list.getLength(); i++)
+		int arrow_count = elements.getCount("Arrow");
+		for(int i = 0; i < arrow_count; i++)
 		{			
-			Node arrow_node = arrow_list.item(i);
-			NamedNodeMap arrow_position_attr = arrow_node.getAttributes();
-			
-			Node pos_x = arrow_position_attr.getNamedItem("x");
-			Node pos_y = arrow_position_attr.getNamedItem("y");
-			Node dir = arrow_position_attr.getNamedItem("d");
+			String pos_x = elements.getAttribute("Arrow", i, "x");
+			String pos_y = elements.getAttribute("Arrow", i, "y");
+			String dir = elements.getAttribute("Arrow", i, "d");
 			if(pos_x == null || pos_y == null || dir == null)
 			{
 				throw new InvalidParameterException("Both x, y and d must be specified in arrow");			
@@ -634,14 +679,14 @@ public class SPWorld extends WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
-					//setArrow(x, y, Direction.valueOf(dir.getNodeValue()));
-					mArrowStock.add(Direction.valueOf(dir.getNodeValue()));
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
+					//setArrow(x, y, Direction.valueOf(dir));
+					mArrowStock.add(Direction.valueOf(dir));
 					ArrowRecord ar = new ArrowRecord();
 					ar.x = x;
 					ar.y = y;
-					ar.direction = Direction.valueOf(dir.getNodeValue());
+					ar.direction = Direction.valueOf(dir);
 					mSolution.add(ar);
 				} catch(NumberFormatException nfe)
 				{
@@ -728,6 +773,155 @@ public class SPWorld extends WorldBase {
 		out.close();
 	}
 	
+	/* SaveBinary
+	 * Writes the level in the compact binary format read by LoadBinary. As with Save,
+	 * the arrows currently placed are written as the solution. After the header and
+	 * walls come the splash message, the holes and rockets as runs of square type, then
+	 * the mice, cats and arrows
+	 */
+	public void SaveBinary(OutputStream output) throws IOException {
+		DataOutputStream out = new DataOutputStream(output);
+		out.writeInt(BINARY_MAGIC);
+		out.writeByte(BINARY_VERSION);
+		writeBinaryProperties(out);
+		out.writeBoolean(mSplashMessage != null);
+		if(mSplashMessage != null)
+			out.writeUTF(mSplashMessage);
+		
+		//Runs of up to 255 squares, arrows are saved as the solution below
+		int run_length = 0;
+		SquareType run_type = SquareType.Empty;
+		for(int i = 0; i < mSpecialSquares.length; i++)
+		{
+			SquareType square = mSpecialSquares[i];
+			if(square != SquareType.Hole && square != SquareType.Rocket)
+				square = SquareType.Empty;
+			if(run_length > 0 && (square != run_type || run_length == 255))
+			{
+				out.writeByte(run_length);
+				out.writeByte(run_type.ordinal());
+				run_length = 0;
+			}
+			run_type = square;
+			run_length++;
+		}
+		out.writeByte(run_length);
+		out.writeByte(run_type.ordinal());
+		
+		writeBinaryWalkers(out, mLiveMice);
+		writeBinaryWalkers(out, mLiveCats);
+		
+		int arrow_count = 0;
+		for(int i = 0; i < mSpecialSquares.length; i++)
+		{
+			if(mSpecialSquares[i].getArrowDirectionality() != Direction.Invalid)
+				arrow_count++;
+		}
+		out.writeShort(arrow_count);
+		for(int i = 0; i < mSpecialSquares.length; i++)
+		{
+			Direction d = mSpecialSquares[i].getArrowDirectionality();
+			if(d != Direction.Invalid)
+			{
+				out.writeByte(i % mWidth);
+				out.writeByte(i / mWidth);
+				out.writeByte(d.ordinal());
+			}
+		}
+		out.flush();
+	}
+	
+	private static void writeBinaryWalkers(DataOutputStream out, ArrayList<Walker> walkers) throws IOException {
+		out.writeShort(walkers.size());
+		for (Walker walker : walkers) {
+			out.writeByte(walker.getStartingPosition().x);
+			out.writeByte(walker.getStartingPosition().y);
+			out.writeByte(walker.getStartingDirection().ordinal());
+		}
+	}
+	
+	/* LoadBinary
+	 * Loads a world written by SaveBinary
+	 * @param input an InputStream representing the level
+	 */
+	public static SPWorld LoadBinary(InputStream input) throws IOException {
+		SPWorld world = new SPWorld();
+		world.loadBinary(new DataInputStream(input));
+		return world;
+	}
+	
+	private void loadBinary(DataInputStream in) throws IOException {
+		if(in.readInt() != BINARY_MAGIC)
+			throw new IOException("Unable to load level as it is not a binary level");
+		int version = in.readUnsignedByte();
+		if(version != BINARY_VERSION)
+			throw new IOException("Unable to load level due to unknown binary version " + Integer.toString(version));
+		readBinaryProperties(in);
+		mUnlimitedArrows = false;
+		if(in.readBoolean())
+			mSplashMessage = in.readUTF();
+		
+		mSpecialSquares = new SquareType[mWidth*mHeight];
+		SquareType[] square_types = SquareType.values();
+		int square = 0;
+		while(square < mSpecialSquares.length)
+		{
+			int run_length = in.readUnsignedByte();
+			int type = in.readUnsignedByte();
+			if(run_length == 0 || square + run_length > mSpecialSquares.length || type >= square_types.length ||
+			   (square_types[type] != SquareType.Empty && square_types[type] != SquareType.Hole && square_types[type] != SquareType.Rocket))
+				throw new IOException("Unable to load level due to invalid special squares in binary level");
+			for(int i = 0; i < run_length; i++)
+			{
+				mSpecialSquares[square] = square_types[type];
+				square++;
+			}
+		}
+		
+		int mouse_count = in.readUnsignedShort();
+		for(int i = 0; i < mouse_count; i++)
+		{
+			Walker walker = new Walker();
+			walker.setPosition(readBinaryPosition(in));
+			walker.setDirection(readBinaryDirection(in));
+			addMouse(walker);
+		}
+		int cat_count = in.readUnsignedShort();
+		for(int i = 0; i < cat_count; i++)
+		{
+			Walker walker = new Walker();
+			walker.setPosition(readBinaryPosition(in));
+			walker.setDirection(readBinaryDirection(in));
+			addCat(walker);
+		}
+		int arrow_count = in.readUnsignedShort();
+		for(int i = 0; i < arrow_count; i++)
+		{
+			ArrowRecord ar = new ArrowRecord();
+			Vector2i position = readBinaryPosition(in);
+			ar.x = position.x;
+			ar.y = position.y;
+			ar.direction = readBinaryDirection(in);
+			mArrowStock.add(ar.direction);
+			mSolution.add(ar);
+		}
+	}
+	
+	private Vector2i readBinaryPosition(DataInputStream in) throws IOException {
+		int x = in.readUnsignedByte();
+		int y = in.readUnsignedByte();
+		if(x >= mWidth || y >= mHeight)
+			throw new IOException("Unable to load level due to position outside level in binary level");
+		return new Vector2i(x, y);
+	}
+	
+	private static Direction readBinaryDirection(DataInputStream in) throws IOException {
+		int d = in.readUnsignedByte();
+		if(d == Direction.Invalid.ordinal() || d >= Direction.values().length)
+			throw new IOException("Unable to load level due to invalid direction in binary level");
+		return Direction.values()[d];
+	}
+	
 	/* defaultSpecialSquares()
 	 * Sets the default special squares
 	 */
@@ -755,65 +949,87 @@ public class SPWorld extends WorldBase {
 			timespan -= sub_timespan;
 			if(mWorldState == WorldState.OK)
 			{
-				//Whether or not justDeadX is a good pattern to use I don't know, but it works in C++
-				//and works here, so will use
-				ArrayList<Walker> justDeadMice = new ArrayList<Walker>();
-				ArrayList<Walker> justRescuedMice = new ArrayList<Walker>();
-				ArrayList<Walker> justDeadCats = new ArrayList<Walker>();
+				//Walkers that die or are rescued are appended straight onto the dead/rescued lists
+				//and flagged by index, then the live lists are compacted in place. This keeps the
+				//same ordering as the old justDeadX lists without allocating each step
+				int mouse_count = mLiveMice.size();
+				int cat_count = mLiveCats.size();
+				mMiceDead = ensureFlags(mMiceDead, mouse_count);
+				mMiceRescued = ensureFlags(mMiceRescued, mouse_count);
+				mCatsDead = ensureFlags(mCatsDead, cat_count);
 				
-				for (Walker mouse : mLiveMice) {
+				for(int i = 0; i < mouse_count; i++)
+				{
+					Walker mouse = mLiveMice.get(i);
 					mouse.Advance(sub_timespan);
-					if(mouse.getWalkerState() == WalkerState.Dead && !justDeadMice.contains(mouse))
+					mMiceDead[i] = mouse.getWalkerState() == WalkerState.Dead;
+					mMiceRescued[i] = mouse.getWalkerState() == WalkerState.Rescued;
+					if(mMiceDead[i])
 					{
-						justDeadMice.add(mouse);
+						mDeadMice.add(mouse);
 						mWorldState = WorldState.Failed;
 					}
-					if(mouse.getWalkerState() == WalkerState.Rescued && !justRescuedMice.contains(mouse))
+					if(mMiceRescued[i])
 					{
-						justRescuedMice.add(mouse);
+						mRescuedMice.add(mouse);
 						mMouseRescued = true;
 					}
 				}
-				for (Walker cat : mLiveCats) {
+				for(int i = 0; i < cat_count; i++)
+				{
+					Walker cat = mLiveCats.get(i);
 					cat.Advance(sub_timespan);
-					if(cat.getWalkerState() == WalkerState.Dead && !justDeadCats.contains(cat))
-						justDeadCats.add(cat);
-					if(cat.getWalkerState() == WalkerState.Rescued && !justDeadCats.contains(cat))
-					{
-						justDeadCats.add(cat);
+					mCatsDead[i] = cat.getWalkerState() == WalkerState.Dead || 
+								   cat.getWalkerState() == WalkerState.Rescued;
+					if(mCatsDead[i])
+						mDeadCats.add(cat);
+					if(cat.getWalkerState() == WalkerState.Rescued)
 						mWorldState = WorldState.Failed;
-					}
 				}
 				
-				for(Walker cat : mLiveCats) {
-					for(Walker mouse : mLiveMice) {
+				//Only mice in squares near a cat are tested, in the same order as testing all of them
+				mCollisionGrid.reset(mWidth, mHeight, mouse_count);
+				for(int i = 0; i < mouse_count; i++)
+				{
+					Walker mouse = mLiveMice.get(i);
+					if(!mMiceDead[i])
+						mCollisionGrid.add(i, mouse.getX(), mouse.getY(), mouse.getFraction(), mouse.getDirection());
+				}
+				for(int c = 0; c < cat_count; c++)
+				{
+					Walker cat = mLiveCats.get(c);
+					int candidates = mCollisionGrid.query(cat.getX(), cat.getY(), cat.getFraction(), cat.getDirection());
+					for(int k = 0; k < candidates; k++)
+					{
+						int i = mCollisionGrid.getCandidate(k);
 						//Calculate distance
-						if(checkCollision(cat, mouse) && !justDeadMice.contains(mouse))
+						if(!mMiceDead[i] && checkCollision(cat, mLiveMice.get(i)))
 						{
-							justDeadMice.add(mouse);
+							mMiceDead[i] = true;
+							mDeadMice.add(mLiveMice.get(i));
 							mWorldState = WorldState.Failed;
 						}
 					}
 				}
-				mLiveMice.removeAll(justDeadMice);
-				mDeadMice.addAll(justDeadMice);
-				mLiveMice.removeAll(justRescuedMice);
-				mRescuedMice.addAll(justRescuedMice);
-				mLiveCats.removeAll(justDeadCats);
-				mDeadCats.addAll(justDeadCats);
+				for(int i = 0; i < mouse_count; i++)
+				{
+					mMiceDead[i] |= mMiceRescued[i];
+				}
+				compactWalkers(mLiveMice, mMiceDead);
+				compactWalkers(mLiveCats, mCatsDead);
 			}
 			
-			for(Walker mouse : mDeadMice)
+			for(int i = 0; i < mDeadMice.size(); i++)
 			{
-				mouse.DeathTick(sub_timespan);
+				mDeadMice.get(i).DeathTick(sub_timespan);
 			}
-			for(Walker mouse : mRescuedMice)
+			for(int i = 0; i < mRescuedMice.size(); i++)
 			{
-				mouse.DeathTick(sub_timespan);
+				mRescuedMice.get(i).DeathTick(sub_timespan);
 			}
-			for(Walker cat : mDeadCats)
+			for(int i = 0; i < mDeadCats.size(); i++)
 			{
-				cat.DeathTick(sub_timespan);
+				mDeadCats.get(i).DeathTick(sub_timespan);
 			}
 			
 			if(mDeadMice.size() == 0 && mLiveMice.size() == 0 && mRescuedMice.size() > 0)
@@ -823,8 +1039,323 @@ public class SPWorld extends WorldBase {
 		}
 	}
 	
+	/* TickEvents
+	 * Gives the same result as calling Tick(step) count times, but only steps one at a time
+	 * when a walker reaches a new square or a cat is near a mouse. Steps in between just move
+	 * walkers along, so are simulated in one go. Stops after the step in which the world
+	 * leaves the OK state.
+	 * @param step milliseconds per step, 1 to 100
+	 * @return the number of steps simulated
+	 */
+	public int TickEvents(int step, int count) {
+		if(step <= 0 || step > 100)
+			throw new InvalidParameterException("Step must be between 1 and 100ms");
+		int done = 0;
+		while(done < count && mWorldState == WorldState.OK)
+		{
+			done += TickToEvent(step, count - done);
+		}
+		return done;
+	}
+	
+	/* TickToEvent
+	 * Simulates the quiet steps before the next event, then the event step itself
+	 * unless that would be more than count steps
+	 * @return the number of steps simulated
+	 */
+	private int TickToEvent(int step, int count) {
+		int quiet = stepsToNextEvent(step) - 1;
+		if(quiet >= count)
+			quiet = count;
+		if(quiet > 0)
+		{
+			int timespan = quiet * step;
+			for(int i = 0; i < mLiveMice.size(); i++)
+				mLiveMice.get(i).Advance(timespan);
+			for(int i = 0; i < mLiveCats.size(); i++)
+				mLiveCats.get(i).Advance(timespan);
+			for(int i = 0; i < mDeadMice.size(); i++)
+				mDeadMice.get(i).DeathTick(timespan);
+			for(int i = 0; i < mRescuedMice.size(); i++)
+				mRescuedMice.get(i).DeathTick(timespan);
+			for(int i = 0; i < mDeadCats.size(); i++)
+				mDeadCats.get(i).DeathTick(timespan);
+		}
+		if(quiet == count)
+			return quiet;
+		Tick(step);
+		return quiet + 1;
+	}
+	
+	/* Verify
+	 * Runs the level from the start with the current arrows, as the editor's 50ms
+	 * verification loop did, then resets it. Rather than running out the clock on a
+	 * level that never finishes, the dynamic state is recorded each time a walker
+	 * reaches a new square and the run stops as soon as a state repeats, as from then
+	 * on the level can only go round the same loop
+	 * @param step milliseconds per step, 1 to 100
+	 * @param max_time the longest time to simulate in milliseconds
+	 */
+	public VerifyResult Verify(int step, int max_time) {
+		if(step <= 0 || step > 100)
+			throw new InvalidParameterException("Step must be between 1 and 100ms");
+		Reset();
+		VerifyResult result = Resume(step, max_time, 0, null);
+		Reset();
+		return result;
+	}
+	
+	/* Resume
+	 * Carries on a run as Verify does, from however far it has got, without resetting it
+	 * first or after. ArrowSolver uses this to carry on from a snapshot taken part way
+	 * through. Loops are only looked for from the state it resumes from, so one that began
+	 * before may take another time round to be found
+	 * @param steps the steps the run has already taken
+	 * @param listener told after each step in which a walker first reaches a square flagged
+	 * by setVisitedSquares, or null
+	 */
+	VerifyResult Resume(int step, int max_time, int steps, VisitListener listener) {
+		if(step <= 0 || step > 100)
+			throw new InvalidParameterException("Step must be between 1 and 100ms");
+		VerifyResult result = new VerifyResult();
+		int max_steps = max_time / step;
+		clearSeen();
+		while(steps < max_steps && mWorldState == WorldState.OK)
+		{
+			int visited_count = mVisitedCount;
+			steps += TickToEvent(step, max_steps - steps);
+			if(listener != null && mVisitedCount != visited_count)
+				listener.squaresVisited(steps);
+			if(mWorldState != WorldState.OK)
+				break;
+			if(!addSeen(dynamicState()))
+			{
+				result.loop_detected = true;
+				break;
+			}
+		}
+		result.simulated_time = steps * step;
+		result.success = mWorldState == WorldState.Success;
+		if(mWorldState == WorldState.Failed)
+			result.failure_cause = failureCause();
+		else if(result.loop_detected)
+			result.failure_cause = FailureCause.Loop;
+		else if(!result.success)
+			result.failure_cause = FailureCause.OutOfTime;
+		return result;
+	}
+	
+	/* Verify
+	 * Verifies in 50ms steps for up to 240s
+	 */
+	public VerifyResult Verify() {
+		return Verify(50, 1000 * 240);
+	}
+	
+	/* failureCause
+	 * Works out why the world failed. Drowned mice are added to the dead list as they
+	 * move, caught mice only once the cats have moved, so holes are checked first
+	 */
+	private FailureCause failureCause() {
+		for(int i = 0; i < mDeadMice.size(); i++)
+		{
+			if(mDeadMice.get(i).getWalkerState() == WalkerState.Dead)
+				return FailureCause.MouseInHole;
+		}
+		for(int i = 0; i < mDeadCats.size(); i++)
+		{
+			if(mDeadCats.get(i).getWalkerState() == WalkerState.Rescued)
+				return FailureCause.CatInRocket;
+		}
+		return FailureCause.MouseCaught;
+	}
+	
+	/* dynamicState
+	 * Writes to mState everything that changes as the level runs and decides what happens
+	 * next: the position, fraction and direction of each live walker and the damage done
+	 * to arrows by cats. Damage is never undone as the level runs, so the count of arrows
+	 * damaged tells whether the special squares are the same as at another point of a run
+	 * @return the length written
+	 */
+	private int dynamicState() {
+		int length = 3 + (mLiveMice.size() + mLiveCats.size()) * 4;
+		if(mState.length < length)
+			mState = new int[length];
+		int[] state = mState;
+		int index = 0;
+		state[index++] = mLiveMice.size();
+		for(int i = 0; i < mLiveMice.size(); i++)
+			index = writeWalkerState(state, index, mLiveMice.get(i));
+		state[index++] = mLiveCats.size();
+		for(int i = 0; i < mLiveCats.size(); i++)
+			index = writeWalkerState(state, index, mLiveCats.get(i));
+		state[index++] = mArrowsDamaged;
+		return index;
+	}
+	
+	private void clearSeen() {
+		mSeenUsed = 0;
+		mSeenCount = 0;
+		mRunStamp++;
+		if(mRunStamp == 0)
+		{
+			Arrays.fill(mSeenStamp, 0);
+			mRunStamp = 1;
+		}
+	}
+	
+	/* addSeen
+	 * Records the first length values of mState as a state seen this run
+	 * @return false if it had already been seen
+	 */
+	private boolean addSeen(int length) {
+		int mask = mSeenTable.length - 1;
+		int slot = hashState(mState, 0, length) & mask;
+		while(mSeenStamp[slot] == mRunStamp)
+		{
+			if(sameState(mSeenTable[slot], length))
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		if(mSeenUsed + length + 1 > mSeen.length)
+			mSeen = Arrays.copyOf(mSeen, Math.max(mSeen.length * 2, mSeenUsed + length + 1));
+		mSeen[mSeenUsed] = length;
+		System.arraycopy(mState, 0, mSeen, mSeenUsed + 1, length);
+		mSeenTable[slot] = mSeenUsed;
+		mSeenStamp[slot] = mRunStamp;
+		mSeenUsed += length + 1;
+		mSeenCount++;
+		if(mSeenCount * 2 > mSeenTable.length)
+			growSeen();
+		return true;
+	}
+	
+	private boolean sameState(int offset, int length) {
+		if(mSeen[offset] != length)
+			return false;
+		for(int i = 0; i < length; i++)
+		{
+			if(mSeen[offset + 1 + i] != mState[i])
+				return false;
+		}
+		return true;
+	}
+	
+	/* growSeen
+	 * Doubles the table, adding back the states seen this run
+	 */
+	private void growSeen() {
+		int size = mSeenTable.length * 2;
+		mSeenTable = new int[size];
+		mSeenStamp = new int[size];
+		mRunStamp = 1;
+		for(int offset = 0; offset < mSeenUsed; offset += mSeen[offset] + 1)
+		{
+			int slot = hashState(mSeen, offset + 1, mSeen[offset]) & (size - 1);
+			while(mSeenStamp[slot] == mRunStamp)
+				slot = (slot + 1) & (size - 1);
+			mSeenTable[slot] = offset;
+			mSeenStamp[slot] = mRunStamp;
+		}
+	}
+	
+	private static int hashState(int[] values, int offset, int length) {
+		int hash = 1;
+		for(int i = 0; i < length; i++)
+			hash = hash * 31 + values[offset + i];
+		//Spread the high bits down, as the table is indexed by the low ones
+		return hash ^ (hash >>> 16);
+	}
+	
+	private static int writeWalkerState(int[] state, int index, Walker walker) {
+		state[index++] = walker.getX();
+		state[index++] = walker.getY();
+		state[index++] = walker.getFraction();
+		state[index++] = walker.getDirection().ordinal();
+		return index;
+	}
+	
+	/* stepsToNextEvent
+	 * Counts the steps up to and including the next in which a walker reaches a new square
+	 * or a cat may catch a mouse
+	 */
+	private int stepsToNextEvent(int step) {
+		int steps = Integer.MAX_VALUE;
+		for(int i = 0; i < mLiveMice.size(); i++)
+			steps = Math.min(steps, mLiveMice.get(i).advancesToNewSquare(step));
+		for(int i = 0; i < mLiveCats.size(); i++)
+			steps = Math.min(steps, mLiveCats.get(i).advancesToNewSquare(step));
+		if(steps > 1)
+			steps = Math.min(steps, stepsToCatch(step));
+		return steps;
+	}
+	
+	/* stepsToCatch
+	 * Counts the steps up to and including the first in which a cat could be close enough to 
+	 * catch a mouse. Until a walker reaches a new square it moves in a straight line, so a pair
+	 * far apart on either axis stays clear for as long as their combined speed allows
+	 */
+	private int stepsToCatch(int step) {
+		final long FractionScale = 1000; //As checkCollision
+		final long clear = 333 + 4; //Collision radius, plus truncation of both positions now and later
+		int steps = Integer.MAX_VALUE;
+		for(int c = 0; c < mLiveCats.size(); c++)
+		{
+			Walker cat = mLiveCats.get(c);
+			long cat_x = scaledPosition(cat.getX(), cat.getFraction(), cat.getDirection(), Direction.East, Direction.West);
+			long cat_y = scaledPosition(cat.getY(), cat.getFraction(), cat.getDirection(), Direction.South, Direction.North);
+			for(int i = 0; i < mLiveMice.size(); i++)
+			{
+				Walker mouse = mLiveMice.get(i);
+				long mouse_x = scaledPosition(mouse.getX(), mouse.getFraction(), mouse.getDirection(), Direction.East, Direction.West);
+				long mouse_y = scaledPosition(mouse.getY(), mouse.getFraction(), mouse.getDirection(), Direction.South, Direction.North);
+				long distance = Math.max(wrappedDistance(cat_x - mouse_x, mWidth * FractionScale),
+										 wrappedDistance(cat_y - mouse_y, mHeight * FractionScale));
+				if(distance <= clear)
+					return 1;
+				//Closing speed per step in FractionScale units, scaled up by FractionReset / FractionScale
+				long closing = (long)(cat.getSpeed() + mouse.getSpeed()) * step;
+				if(closing > 0)
+				{
+					long quiet = ((distance - clear) * (Walker.FractionReset / FractionScale) - 1) / closing;
+					if(quiet + 1 < steps)
+						steps = (int)(quiet + 1);
+				}
+			}
+		}
+		return steps;
+	}
+	
+	/* scaledPosition
+	 * Position along one axis in thousandths of a square, truncated as in checkCollision
+	 */
+	private static long scaledPosition(int square, int fraction, Direction direction, Direction positive, Direction negative) {
+		final long FractionScale = 1000;
+		long position = square * FractionScale;
+		if(direction == positive)
+			position += fraction * FractionScale / Walker.FractionReset;
+		else if(direction == negative)
+			position -= fraction * FractionScale / Walker.FractionReset;
+		return position;
+	}
+	
+	/* wrappedDistance
+	 * Distance along an axis that wraps every size units
+	 */
+	private static long wrappedDistance(long delta, long size) {
+		delta %= size;
+		if(delta < 0)
+			delta += size;
+		return Math.min(delta, size - delta);
+	}
+	
 	@Override
 	public void walkerReachNewSquare(Walker walker, int x, int y, Direction d) {
+		if(mVisitedSquares != null && !mVisitedSquares[wallIndex(x, y)])
+		{
+			mVisitedSquares[wallIndex(x, y)] = true;
+			mVisitedCount++;
+		}
 		//First interact with special squares (arrow, holes & rockets)
 		SquareType square = getSpecialSquare(x, y);
 		//Holes
@@ -844,6 +1375,7 @@ public class SPWorld extends WorldBase {
 			{
 				SquareType reduced = square.Diminish();
 				setSpecialSquare(x, y, reduced);
+				mArrowsDamaged++;
 			}
 			walker.setDirection2(arrow_direction);
 		}
@@ -880,6 +1412,95 @@ public class SPWorld extends WorldBase {
 		mWorldState = WorldState.OK;
 	}
 	
+	/* writeSnapshot
+	 * Writes the world state, special squares, arrow stock and solution, then each list of
+	 * walkers in order. Walkers are kept by reference, with their state
+	 */
+	@Override
+	protected void writeSnapshot(WorldSnapshot snapshot) {
+		super.writeSnapshot(snapshot);
+		snapshot.writeInt(mWorldState.ordinal());
+		snapshot.writeBoolean(mMouseRescued);
+		snapshot.writeInt(mRotation);
+		snapshot.writeBoolean(mUnlimitedArrows);
+		for(int i = 0; i < mSpecialSquares.length; i++)
+			snapshot.writeInt(mSpecialSquares[i].ordinal());
+		snapshot.writeInt(mArrowStock.size());
+		for(int i = 0; i < mArrowStock.size(); i++)
+			snapshot.writeInt(mArrowStock.get(i).ordinal());
+		snapshot.writeInt(mSolution.size());
+		for(int i = 0; i < mSolution.size(); i++)
+		{
+			ArrowRecord ar = mSolution.get(i);
+			snapshot.writeInt(ar.x);
+			snapshot.writeInt(ar.y);
+			snapshot.writeInt(ar.direction.ordinal());
+		}
+		writeSnapshotWalkers(snapshot, mLiveMice);
+		writeSnapshotWalkers(snapshot, mDeadMice);
+		writeSnapshotWalkers(snapshot, mRescuedMice);
+		writeSnapshotWalkers(snapshot, mLiveCats);
+		writeSnapshotWalkers(snapshot, mDeadCats);
+	}
+	
+	private static void writeSnapshotWalkers(WorldSnapshot snapshot, ArrayList<Walker> walkers) {
+		snapshot.writeInt(walkers.size());
+		for(int i = 0; i < walkers.size(); i++)
+		{
+			Walker walker = walkers.get(i);
+			snapshot.writeObject(walker);
+			walker.writeSnapshot(snapshot);
+		}
+	}
+	
+	/* readSnapshot
+	 * Reads what writeSnapshot wrote, reusing the existing arrays, lists and solution records
+	 */
+	@Override
+	protected void readSnapshot(WorldSnapshot snapshot) {
+		super.readSnapshot(snapshot);
+		mWorldState = mWorldStates[snapshot.readInt()];
+		mMouseRescued = snapshot.readBoolean();
+		mRotation = snapshot.readInt();
+		mUnlimitedArrows = snapshot.readBoolean();
+		if(mSpecialSquares.length != mWidth * mHeight)
+			mSpecialSquares = new SquareType[mWidth * mHeight];
+		for(int i = 0; i < mSpecialSquares.length; i++)
+			mSpecialSquares[i] = mSquareTypes[snapshot.readInt()];
+		mArrowStock.clear();
+		int stock_count = snapshot.readInt();
+		for(int i = 0; i < stock_count; i++)
+			mArrowStock.add(mDirections[snapshot.readInt()]);
+		int solution_count = snapshot.readInt();
+		while(mSolution.size() > solution_count)
+			mSolution.remove(mSolution.size() - 1);
+		while(mSolution.size() < solution_count)
+			mSolution.add(new ArrowRecord());
+		for(int i = 0; i < solution_count; i++)
+		{
+			ArrowRecord ar = mSolution.get(i);
+			ar.x = snapshot.readInt();
+			ar.y = snapshot.readInt();
+			ar.direction = mDirections[snapshot.readInt()];
+		}
+		readSnapshotWalkers(snapshot, mLiveMice);
+		readSnapshotWalkers(snapshot, mDeadMice);
+		readSnapshotWalkers(snapshot, mRescuedMice);
+		readSnapshotWalkers(snapshot, mLiveCats);
+		readSnapshotWalkers(snapshot, mDeadCats);
+	}
+	
+	private static void readSnapshotWalkers(WorldSnapshot snapshot, ArrayList<Walker> walkers) {
+		walkers.clear();
+		int count = snapshot.readInt();
+		for(int i = 0; i < count; i++)
+		{
+			Walker walker = (Walker)snapshot.readObject();
+			walker.readSnapshot(snapshot);
+			walkers.add(walker);
+		}
+	}
+	
 	public void LoadSolution() {
 		ClearArrows();
 		for (ArrowRecord ar : mSolution) {
@@ -0,0 +1,63 @@
+package uk.danishcake.shokorocket.simulation;
+
+import java.security.InvalidParameterException;
+
+/* SyncRandom
+ * The linear congruential generator specified for java.util.Random, so gives the same
+ * numbers for the same seed, but its state can be read and set. Used for the random
+ * numbers that must match between players, so they can be included in snapshots.
+ */
+public class SyncRandom {
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	private long mState;
+
+	public SyncRandom(long seed) {
+		setSeed(seed);
+	}
+
+	/**
+	 * Restarts the sequence, as if newly created with seed
+	 */
+	public void setSeed(long seed) {
+		mState = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	/**
+	 * @return the current state, which is not the seed it was created with
+	 */
+	public long getState() {
+		return mState;
+	}
+
+	/**
+	 * Sets a state previously returned by getState
+	 */
+	public void setState(long state) {
+		mState = state & MASK;
+	}
+
+	private int next(int bits) {
+		mState = (mState * MULTIPLIER + ADDEND) & MASK;
+		return (int)(mState >>> (48 - bits));
+	}
+
+	/**
+	 * @return a number from 0 to n - 1, as java.util.Random.nextInt(n)
+	 */
+	public int nextInt(int n) {
+		if(n <= 0)
+			throw new InvalidParameterException("n must be positive");
+		if((n & -n) == n) //Power of two
+			return (int)((n * (long)next(31)) >> 31);
+		int bits;
+		int value;
+		do
+		{
+			bits = next(31);
+			value = bits % n;
+		} while(bits - value + (n - 1) < 0);
+		return value;
+	}
+}
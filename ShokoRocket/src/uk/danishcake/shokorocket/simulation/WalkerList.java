@@ -0,0 +1,111 @@
+package uk.danishcake.shokorocket.simulation;
+
+import uk.danishcake.shokorocket.simulation.Walker.WalkerState;
+import uk.danishcake.shokorocket.simulation.Walker.WalkerType;
+
+/* WalkerList
+ * An ordered, read only view of some of the walkers in a WalkerStore.
+ * Walkers are addressed by their position in the list, so drawing code and AIs
+ * can iterate with size() and the getters without allocating.
+ */
+public class WalkerList {
+	private WalkerStore mStore;
+	private int[] mSlots = new int[16];
+	private int mSize = 0;
+
+	WalkerList(WalkerStore store) {
+		mStore = store;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public int getX(int index) {return mStore.getX(mSlots[index]);}
+	public int getY(int index) {return mStore.getY(mSlots[index]);}
+	public int getFraction(int index) {return mStore.getFraction(mSlots[index]);}
+	public int getSpeed(int index) {return mStore.getSpeed(mSlots[index]);}
+	public int getDeathTime(int index) {return mStore.getDeathTime(mSlots[index]);}
+	public Direction getDirection(int index) {return mStore.getDirection(mSlots[index]);}
+	public WalkerType getWalkerType(int index) {return mStore.getWalkerType(mSlots[index]);}
+	public WalkerState getWalkerState(int index) {return mStore.getWalkerState(mSlots[index]);}
+
+	/**
+	 * @return the WalkerStore slot of the walker at index
+	 */
+	int getSlot(int index) {
+		return mSlots[index];
+	}
+
+	void add(int slot) {
+		if(mSize == mSlots.length)
+		{
+			int[] slots = new int[mSlots.length * 2];
+			System.arraycopy(mSlots, 0, slots, 0, mSize);
+			mSlots = slots;
+		}
+		mSlots[mSize] = slot;
+		mSize++;
+	}
+
+	void writeSnapshot(WorldSnapshot snapshot) {
+		snapshot.writeInt(mSize);
+		for(int i = 0; i < mSize; i++)
+			snapshot.writeInt(mSlots[i]);
+	}
+
+	void readSnapshot(WorldSnapshot snapshot) {
+		mSize = snapshot.readInt();
+		if(mSize > mSlots.length)
+			mSlots = new int[mSize * 2];
+		for(int i = 0; i < mSize; i++)
+			mSlots[i] = snapshot.readInt();
+	}
+
+	/* compact
+	 * Removes the walkers whose index is flagged in remove, preserving the order of the rest.
+	 * The walkers stay in the store as they have moved to another list
+	 */
+	void compact(boolean[] remove) {
+		int kept = 0;
+		for(int i = 0; i < mSize; i++)
+		{
+			if(!remove[i])
+			{
+				mSlots[kept] = mSlots[i];
+				kept++;
+			}
+		}
+		mSize = kept;
+	}
+
+	/* deathTick
+	 * Advances the death animation timer of each walker in the list
+	 */
+	void deathTick(int timespan) {
+		for(int i = 0; i < mSize; i++)
+		{
+			mStore.deathTick(mSlots[i], timespan);
+		}
+	}
+
+	/* removeExpired
+	 * Removes and frees walkers dead for longer than expiry_time, preserving the order of the rest
+	 */
+	void removeExpired(int expiry_time) {
+		int kept = 0;
+		for(int i = 0; i < mSize; i++)
+		{
+			int slot = mSlots[i];
+			if(mStore.getDeathTime(slot) <= expiry_time)
+			{
+				mSlots[kept] = slot;
+				kept++;
+			} else
+			{
+				mStore.free(slot);
+			}
+		}
+		mSize = kept;
+	}
+}
@@ -0,0 +1,214 @@
+package uk.danishcake.shokorocket.simulation;
+
+import uk.danishcake.shokorocket.simulation.Walker.WalkerState;
+import uk.danishcake.shokorocket.simulation.Walker.WalkerType;
+
+/* WalkerStore
+ * Holds the state of many walkers in parallel primitive arrays, indexed by slot.
+ * Freed slots are recycled, so once the store has grown to the peak number of
+ * walkers spawning, advancing and expiring walkers no longer allocates.
+ * Movement mirrors Walker.Advance exactly.
+ */
+public class WalkerStore {
+	private static final Direction[] mDirections = Direction.values();
+	private static final WalkerType[] mWalkerTypes = WalkerType.values();
+	private static final WalkerState[] mWalkerStates = WalkerState.values();
+	private static final int INITIAL_CAPACITY = 32;
+
+	private int[] mX = new int[INITIAL_CAPACITY];
+	private int[] mY = new int[INITIAL_CAPACITY];
+	private int[] mFraction = new int[INITIAL_CAPACITY];
+	private int[] mSpeed = new int[INITIAL_CAPACITY];
+	private int[] mDirection = new int[INITIAL_CAPACITY];
+	private int[] mType = new int[INITIAL_CAPACITY];
+	private int[] mState = new int[INITIAL_CAPACITY];
+	private int[] mDeathTime = new int[INITIAL_CAPACITY];
+	private boolean[] mFirstAdvance = new boolean[INITIAL_CAPACITY];
+	private boolean[] mInUse = new boolean[INITIAL_CAPACITY];
+	private int[] mFreeSlots = new int[INITIAL_CAPACITY];
+	private int mFreeCount = 0;
+	private int mHighWater = 0; //Slots at or above this have never been handed out
+
+	/* allocate
+	 * Takes a free slot and initialises it as a live walker
+	 * @return the slot of the new walker
+	 */
+	int allocate(int x, int y, Direction direction, WalkerType walker_type, int speed) {
+		int slot;
+		if(mFreeCount > 0)
+		{
+			mFreeCount--;
+			slot = mFreeSlots[mFreeCount];
+		} else
+		{
+			if(mHighWater == mX.length)
+				grow(mX.length * 2);
+			slot = mHighWater;
+			mHighWater++;
+		}
+		mX[slot] = x;
+		mY[slot] = y;
+		mFraction[slot] = 0;
+		mSpeed[slot] = speed;
+		mDirection[slot] = direction.ordinal();
+		mType[slot] = walker_type.ordinal();
+		mState[slot] = WalkerState.Alive.ordinal();
+		mDeathTime[slot] = 0;
+		mFirstAdvance[slot] = true;
+		mInUse[slot] = true;
+		return slot;
+	}
+
+	/* free
+	 * Returns a slot for reuse. A walker may be in more than one list (eg rescued then caught),
+	 * so freeing an already free slot is ignored
+	 */
+	void free(int slot) {
+		if(!mInUse[slot])
+			return;
+		mInUse[slot] = false;
+		mFreeSlots[mFreeCount] = slot;
+		mFreeCount++;
+	}
+
+	/**
+	 * @return the number of walkers currently held
+	 */
+	public int getCount() {
+		return mHighWater - mFreeCount;
+	}
+
+	private void grow(int capacity) {
+		mX = copyOf(mX, capacity);
+		mY = copyOf(mY, capacity);
+		mFraction = copyOf(mFraction, capacity);
+		mSpeed = copyOf(mSpeed, capacity);
+		mDirection = copyOf(mDirection, capacity);
+		mType = copyOf(mType, capacity);
+		mState = copyOf(mState, capacity);
+		mDeathTime = copyOf(mDeathTime, capacity);
+		mFreeSlots = copyOf(mFreeSlots, capacity);
+		boolean[] first_advance = new boolean[capacity];
+		System.arraycopy(mFirstAdvance, 0, first_advance, 0, mFirstAdvance.length);
+		mFirstAdvance = first_advance;
+		boolean[] in_use = new boolean[capacity];
+		System.arraycopy(mInUse, 0, in_use, 0, mInUse.length);
+		mInUse = in_use;
+	}
+
+	/* writeSnapshot
+	 * Writes every slot handed out so far, in use or not, and the free slots
+	 */
+	void writeSnapshot(WorldSnapshot snapshot) {
+		snapshot.writeInt(mHighWater);
+		snapshot.writeInt(mFreeCount);
+		for(int slot = 0; slot < mHighWater; slot++)
+		{
+			snapshot.writeInt(mX[slot]);
+			snapshot.writeInt(mY[slot]);
+			snapshot.writeInt(mFraction[slot]);
+			snapshot.writeInt(mSpeed[slot]);
+			snapshot.writeInt(mDirection[slot]);
+			snapshot.writeInt(mType[slot]);
+			snapshot.writeInt(mState[slot]);
+			snapshot.writeInt(mDeathTime[slot]);
+			snapshot.writeBoolean(mFirstAdvance[slot]);
+			snapshot.writeBoolean(mInUse[slot]);
+		}
+		for(int i = 0; i < mFreeCount; i++)
+			snapshot.writeInt(mFreeSlots[i]);
+	}
+
+	/* readSnapshot
+	 * Reads what writeSnapshot wrote, growing the store if it has since been cleared down
+	 */
+	void readSnapshot(WorldSnapshot snapshot) {
+		mHighWater = snapshot.readInt();
+		mFreeCount = snapshot.readInt();
+		if(mHighWater > mX.length)
+			grow(mHighWater);
+		for(int slot = 0; slot < mHighWater; slot++)
+		{
+			mX[slot] = snapshot.readInt();
+			mY[slot] = snapshot.readInt();
+			mFraction[slot] = snapshot.readInt();
+			mSpeed[slot] = snapshot.readInt();
+			mDirection[slot] = snapshot.readInt();
+			mType[slot] = snapshot.readInt();
+			mState[slot] = snapshot.readInt();
+			mDeathTime[slot] = snapshot.readInt();
+			mFirstAdvance[slot] = snapshot.readBoolean();
+			mInUse[slot] = snapshot.readBoolean();
+		}
+		for(int i = 0; i < mFreeCount; i++)
+			mFreeSlots[i] = snapshot.readInt();
+	}
+
+	private static int[] copyOf(int[] source, int capacity) {
+		int[] copy = new int[capacity];
+		System.arraycopy(source, 0, copy, 0, source.length);
+		return copy;
+	}
+
+	public int getX(int slot) {return mX[slot];}
+	public int getY(int slot) {return mY[slot];}
+	public int getFraction(int slot) {return mFraction[slot];}
+	public int getSpeed(int slot) {return mSpeed[slot];}
+	public int getDeathTime(int slot) {return mDeathTime[slot];}
+	public Direction getDirection(int slot) {return mDirections[mDirection[slot]];}
+	public WalkerType getWalkerType(int slot) {return mWalkerTypes[mType[slot]];}
+	public WalkerState getWalkerState(int slot) {return mWalkerStates[mState[slot]];}
+
+	void setDirection(int slot, Direction direction) {
+		mDirection[slot] = direction.ordinal();
+	}
+
+	void setWalkerState(int slot, WalkerState state) {
+		mState[slot] = state.ordinal();
+	}
+
+	void deathTick(int slot, int timespan) {
+		mDeathTime[slot] += timespan;
+	}
+
+	/* advance
+	 * Advances the walker in slot by timespan milliseconds, wrapping around the edges
+	 * of the world and informing it each time a new square is reached
+	 */
+	void advance(int slot, int timespan, MPWorld world) {
+		if(mFirstAdvance[slot])
+		{
+			world.walkerReachNewSquare(slot, mX[slot], mY[slot], mDirections[mDirection[slot]]);
+			mFirstAdvance[slot] = false;
+		}
+		mFraction[slot] += mSpeed[slot] * timespan;
+		while(mFraction[slot] >= Walker.FractionReset)
+		{
+			mFraction[slot] -= Walker.FractionReset;
+			switch(mDirections[mDirection[slot]])
+			{
+			case North:
+				mY[slot]--;
+				break;
+			case South:
+				mY[slot]++;
+				break;
+			case East:
+				mX[slot]++;
+				break;
+			case West:
+				mX[slot]--;
+				break;
+			}
+			if(mY[slot] == -1)
+				mY[slot] += world.getHeight();
+			if(mX[slot] == -1)
+				mX[slot] += world.getWidth();
+			if(mY[slot] == world.getHeight())
+				mY[slot] = 0;
+			if(mX[slot] == world.getWidth())
+				mX[slot] = 0;
+			world.walkerReachNewSquare(slot, mX[slot], mY[slot], mDirections[mDirection[slot]]);
+		}
+	}
+}
@@ -1,21 +1,18 @@
 package uk.danishcake.shokorocket.simulation;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import uk.danishcake.shokorocket.NL;
-
 public abstract class WorldBase {
 	protected int mWidth = 12;
 	protected int mHeight = 9;
@@ -25,6 +22,16 @@ public abstract class WorldBase {
 	protected final int eWestWall = 1;
 	protected final int eNorthWall = 2;
 	protected int[] mWalls = new int[mWidth*mHeight];
+	//Outgoing direction indexed by square and incoming direction, see wallTurn
+	private byte[] mTurnTable = new byte[0];
+	private boolean mTurnTableDirty = true;
+	private static final Direction[] mDirections = Direction.values();
+	private static final int TURN_STRIDE = mDirections.length; //Includes Invalid
+	//Broad phase for cat/mouse collisions, rebuilt each step
+	protected CollisionGrid mCollisionGrid = new CollisionGrid();
+	
+	//Looking up the factory is slow, so it is shared. Factories are not thread safe
+	private static final SAXParserFactory mParserFactory = SAXParserFactory.newInstance();
 	
 	protected String mIdentifier = "";
 	protected String mFilename = "";
@@ -108,17 +115,18 @@ public abstract class WorldBase {
 	{
 		try
 		{
-			javax.xml.parsers.DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			dbf.setValidating(false);
-			dbf.setCoalescing(false);
-			dbf.setExpandEntityReferences(false);
-			javax.xml.parsers.DocumentBuilder dbuilder = dbf.newDocumentBuilder();
-			Document document = dbuilder.parse(input);
-			Element root = document.getDocumentElement();
+			//Streamed in one pass, then each tag is loaded in the same order as when a DOM was used
+			SAXParser parser;
+			synchronized(mParserFactory)
+			{
+				parser = mParserFactory.newSAXParser();
+			}
+			LevelElements elements = new LevelElements();
+			parser.parse(input, elements);
 			
-			loadProperties(root);
-			loadWalls(root);
-			loadSpecific(root);
+			loadProperties(elements);
+			loadWalls(elements);
+			loadSpecific(elements);
 		}
 		catch(ParserConfigurationException parse_config_error)
 		{
@@ -135,31 +143,26 @@ public abstract class WorldBase {
 	}
 
 	/* Loads size, author and name etc from XML
-	 * @param root the document element in the XML level
+	 * @param elements the elements of the XML level
 	 */
-	private void loadProperties(Element root) {
-		NodeList author_nodes = NL.ElementsByTag(root, "Author");
-		if(author_nodes.getLength() >= 1)
+	private void loadProperties(LevelElements elements) {
+		if(elements.getCount("Author") >= 1)
 		{
-			String author = author_nodes.item(0).getFirstChild().getNodeValue();
+			String author = elements.getText("Author", 0);
 			if(author != null)
 				mLevelAuthor = author;
 		}
-		NodeList levelname_nodes = NL.ElementsByTag(root, "Name");
-		if(levelname_nodes.getLength() >= 1)
+		if(elements.getCount("Name") >= 1)
 		{
-			String level_name = levelname_nodes.item(0).getFirstChild().getNodeValue();
+			String level_name = elements.getText("Name", 0);
 			if(level_name != null)
 				mLevelName = level_name; 
 		}
 
-		NodeList size_nodes = NL.ElementsByTag(root, "Size");
-		if(size_nodes.getLength() >= 1)
+		if(elements.getCount("Size") >= 1)
 		{
-			Node size_node = size_nodes.item(0);
-			NamedNodeMap sizes = size_node.getAttributes();
-			Node size_x = sizes.getNamedItem("x");
-			Node size_y = sizes.getNamedItem("y");
+			String size_x = elements.getAttribute("Size", 0, "x");
+			String size_y = elements.getAttribute("Size", 0, "y");
 			if(size_x == null || size_y == null)
 			{
 				throw new InvalidParameterException("Both x and y must be specified in size");			
@@ -167,9 +170,10 @@ public abstract class WorldBase {
 			{
 				try
 				{
-					mWidth = Integer.parseInt(size_x.getNodeValue());
-					mHeight = Integer.parseInt(size_y.getNodeValue());
+					mWidth = Integer.parseInt(size_x);
+					mHeight = Integer.parseInt(size_y);
 					mWalls = new int[mWidth*mHeight];
+					mTurnTableDirty = true;
 				} catch(NumberFormatException nfe)
 				{
 					throw new InvalidParameterException("Unable to parse x or y in size");
@@ -180,17 +184,14 @@ public abstract class WorldBase {
 	
 	
 	/* Loads walls from XML
-	 * @param root the document element in the XML level
+	 * @param elements the elements of the XML level
 	 */	
-	private void loadWalls(Element root) {
-		NodeList h_list = NL.ElementsByTag(root, "H");
-		for(int i = 0; i < h_list.getLength(); i++)
+	private void loadWalls(LevelElements elements) {
+		int h_count = elements.getCount("H");
+		for(int i = 0; i < h_count; i++)
 		{			
-			Node h_node = h_list.item(i);
-			NamedNodeMap wall_position_attr = h_node.getAttributes();
-			
-			Node pos_x = wall_position_attr.getNamedItem("x");
-			Node pos_y = wall_position_attr.getNamedItem("y");
+			String pos_x = elements.getAttribute("H", i, "x");
+			String pos_y = elements.getAttribute("H", i, "y");
 			if(pos_x == null || pos_y == null)
 			{
 				throw new InvalidParameterException("Both x and y must be specified in wall");			
@@ -198,8 +199,8 @@ public abstract class WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
 					setNorth(x, y, true);
 				} catch(NumberFormatException nfe)
 				{
@@ -208,14 +209,11 @@ public abstract class WorldBase {
 			}
 		}
 		
-		NodeList v_list = NL.ElementsByTag(root, "V");
-		for(int i = 0; i < v_list.getLength(); i++)
+		int v_count = elements.getCount("V");
+		for(int i = 0; i < v_count; i++)
 		{			
-			Node v_node = v_list.item(i);
-			NamedNodeMap wall_position_attr = v_node.getAttributes();
-			
-			Node pos_x = wall_position_attr.getNamedItem("x");
-			Node pos_y = wall_position_attr.getNamedItem("y");
+			String pos_x = elements.getAttribute("V", i, "x");
+			String pos_y = elements.getAttribute("V", i, "y");
 			if(pos_x == null || pos_y == null)
 			{
 				throw new InvalidParameterException("Both x and y must be specified in wall");			
@@ -223,8 +221,8 @@ public abstract class WorldBase {
 			{
 				try
 				{
-					int x = Integer.parseInt(pos_x.getNodeValue());
-					int y = Integer.parseInt(pos_y.getNodeValue());
+					int x = Integer.parseInt(pos_x);
+					int y = Integer.parseInt(pos_y);
 					setWest(x, y, true);
 				} catch(NumberFormatException nfe)
 				{
@@ -235,7 +233,105 @@ public abstract class WorldBase {
 	}
 
 	
-	protected abstract void loadSpecific(Element root);
+	protected abstract void loadSpecific(LevelElements elements);
+	
+	/* writeBinaryProperties
+	 * Writes name, author, size and walls for the binary level format.
+	 * Walls are packed two bits per square, west then north
+	 */
+	protected void writeBinaryProperties(DataOutputStream output) throws IOException {
+		if(mWidth > 255 || mHeight > 255)
+			throw new IOException("Level too large for binary format");
+		output.writeUTF(mLevelName);
+		output.writeUTF(mLevelAuthor);
+		output.writeByte(mWidth);
+		output.writeByte(mHeight);
+		byte[] packed = new byte[(mWidth * mHeight + 3) / 4];
+		for(int i = 0; i < mWidth * mHeight; i++)
+		{
+			packed[i / 4] |= (mWalls[i] & (eWestWall | eNorthWall)) << ((i % 4) * 2);
+		}
+		output.write(packed);
+	}
+	
+	/* readBinaryProperties
+	 * Reads what writeBinaryProperties wrote
+	 */
+	protected void readBinaryProperties(DataInputStream input) throws IOException {
+		mLevelName = input.readUTF();
+		mLevelAuthor = input.readUTF();
+		mWidth = input.readUnsignedByte();
+		mHeight = input.readUnsignedByte();
+		if(mWidth == 0 || mHeight == 0)
+			throw new IOException("Unable to load level due to invalid size in binary level");
+		mWalls = new int[mWidth * mHeight];
+		mTurnTableDirty = true;
+		byte[] packed = new byte[(mWidth * mHeight + 3) / 4];
+		input.readFully(packed);
+		for(int i = 0; i < mWidth * mHeight; i++)
+		{
+			mWalls[i] = (packed[i / 4] >> ((i % 4) * 2)) & (eWestWall | eNorthWall);
+		}
+	}
+	
+	/* Snapshot
+	 * Copies the state of the world into snapshot, replacing what it held. The world
+	 * can be returned to this state with Restore, any number of times
+	 */
+	public void Snapshot(WorldSnapshot snapshot) {
+		snapshot.startWrite(this);
+		writeSnapshot(snapshot);
+	}
+	
+	/* Restore
+	 * Returns the world to the state copied into snapshot by Snapshot
+	 * @throws InvalidParameterException if the snapshot was taken from another world, unless
+	 * the snapshot is portable and that world is of the same class
+	 */
+	public void Restore(WorldSnapshot snapshot) {
+		snapshot.startRead(this);
+		readSnapshot(snapshot);
+	}
+	
+	/* hasPortableSnapshots
+	 * True if writeSnapshot only writes values, so a snapshot may be restored into another
+	 * world of the same class, eg a copy for an AI to simulate ahead on
+	 */
+	protected boolean hasPortableSnapshots() {
+		return false;
+	}
+	
+	/* writeSnapshot
+	 * Writes the size and walls. Subclasses write their own state after calling this
+	 */
+	protected void writeSnapshot(WorldSnapshot snapshot) {
+		snapshot.writeInt(mWidth);
+		snapshot.writeInt(mHeight);
+		for(int i = 0; i < mWalls.length; i++)
+			snapshot.writeInt(mWalls[i]);
+	}
+	
+	/* readSnapshot
+	 * Reads what writeSnapshot wrote. The turn table is only rebuilt if the walls differ
+	 */
+	protected void readSnapshot(WorldSnapshot snapshot) {
+		mWidth = snapshot.readInt();
+		mHeight = snapshot.readInt();
+		if(mWalls.length != mWidth * mHeight)
+		{
+			mWalls = new int[mWidth * mHeight];
+			mTurnTableDirty = true;
+		}
+		for(int i = 0; i < mWalls.length; i++)
+		{
+			int walls = snapshot.readInt();
+			if(mWalls[i] != walls)
+			{
+				mWalls[i] = walls;
+				mTurnTableDirty = true;
+			}
+		}
+	}
 	
 	public WorldBase(int width, int height)
 	{
@@ -334,6 +430,7 @@ public abstract class WorldBase {
 			throw new InvalidParameterException("x/y outside valid world area");
 		int wi = wallIndex(x, y);
 		mWalls[wi] = (mWalls[wi] & ~eNorthWall) | (set ? eNorthWall : 0);  
+		mTurnTableDirty = true;
 	}
 	/* setWest
 	 * Sets the west wall state. Achieves this by bit twiddling.
@@ -343,6 +440,7 @@ public abstract class WorldBase {
 			throw new InvalidParameterException("x/y outside valid world area");
 		int wi = wallIndex(x, y);
 		mWalls[wi] = (mWalls[wi] & ~eWestWall) | (set ? eWestWall : 0);	
+		mTurnTableDirty = true;
 	}
 	/* setEast
 	 * Sets the east wall state. Achieves this by bit twiddling.
@@ -352,6 +450,7 @@ public abstract class WorldBase {
 			throw new InvalidParameterException("x/y outside valid world area");
 		int wi = wallIndex((x+1) % mWidth, y);
 		mWalls[wi] = (mWalls[wi] & ~eWestWall) | (set ? eWestWall : 0);		
+		mTurnTableDirty = true;
 	}
 	/* setSouth
 	 * Sets the south wall state. Achieves this by bit twiddling
@@ -361,6 +460,7 @@ public abstract class WorldBase {
 			throw new InvalidParameterException("x/y outside valid world area");
 		int wi = wallIndex(x, (y + 1) % mHeight);
 		mWalls[wi] = (mWalls[wi] & ~eNorthWall) | (set ? eNorthWall : 0);		
+		mTurnTableDirty = true;
 	}
 	
 	public void toggleDirection(int x, int y, Direction direction) {
@@ -385,44 +485,51 @@ public abstract class WorldBase {
 	 * Checks if the two walkers are close
 	 */
 	protected boolean checkCollision(Walker cat, Walker mouse) {
+		return checkCollision(cat.getX(), cat.getY(), cat.getFraction(), cat.getDirection(),
+							  mouse.getX(), mouse.getY(), mouse.getFraction(), mouse.getDirection());
+	}
+	
+	/* checkCollision
+	 * Checks if a cat and mouse given by grid position, fraction and direction are close
+	 */
+	protected boolean checkCollision(int cat_x, int cat_y, int cat_fraction, Direction cat_direction,
+									 int mouse_x, int mouse_y, int mouse_fraction, Direction mouse_direction) {
 		final long FractionScale = 1000;
 		final long CollisionRadius = 333*333;
-		Vector2i cat_pos = cat.getPosition();
-		Vector2i mouse_pos = mouse.getPosition();
-		long cat_pos_x = cat_pos.x * FractionScale;
-		long cat_pos_y = cat_pos.y * FractionScale;
-		long mouse_pos_x = mouse_pos.x * FractionScale;
-		long mouse_pos_y = mouse_pos.y * FractionScale;
+		long cat_pos_x = cat_x * FractionScale;
+		long cat_pos_y = cat_y * FractionScale;
+		long mouse_pos_x = mouse_x * FractionScale;
+		long mouse_pos_y = mouse_y * FractionScale;
 		
-		switch(cat.getDirection())
+		switch(cat_direction)
 		{
 		case East:
-			cat_pos_x += cat.getFraction() * FractionScale / Walker.FractionReset;
+			cat_pos_x += cat_fraction * FractionScale / Walker.FractionReset;
 			break;
 		case North:
-			cat_pos_y -= cat.getFraction() * FractionScale / Walker.FractionReset;
+			cat_pos_y -= cat_fraction * FractionScale / Walker.FractionReset;
 			break;
 		case South:
-			cat_pos_y += cat.getFraction() * FractionScale / Walker.FractionReset;
+			cat_pos_y += cat_fraction * FractionScale / Walker.FractionReset;
 			break;
 		case West:
-			cat_pos_x -= cat.getFraction() * FractionScale / Walker.FractionReset;
+			cat_pos_x -= cat_fraction * FractionScale / Walker.FractionReset;
 			break;	
 		}
 		
-		switch(mouse.getDirection())
+		switch(mouse_direction)
 		{
 		case East:
-			mouse_pos_x += mouse.getFraction() * FractionScale / Walker.FractionReset;
+			mouse_pos_x += mouse_fraction * FractionScale / Walker.FractionReset;
 			break;
 		case North:
-			mouse_pos_y -= mouse.getFraction() * FractionScale / Walker.FractionReset;
+			mouse_pos_y -= mouse_fraction * FractionScale / Walker.FractionReset;
 			break;
 		case South:
-			mouse_pos_y += mouse.getFraction() * FractionScale / Walker.FractionReset;
+			mouse_pos_y += mouse_fraction * FractionScale / Walker.FractionReset;
 			break;
 		case West:
-			mouse_pos_x -= mouse.getFraction() * FractionScale / Walker.FractionReset;
+			mouse_pos_x -= mouse_fraction * FractionScale / Walker.FractionReset;
 			break;	
 		}
 		
@@ -462,24 +569,88 @@ public abstract class WorldBase {
 		return false;
 	}
 
+	/* ensureFlags
+	 * Returns flags if it can hold size entries, otherwise a larger replacement
+	 * Used to keep per tick scratch buffers between ticks
+	 */
+	protected static boolean[] ensureFlags(boolean[] flags, int size) {
+		if(flags.length >= size)
+			return flags;
+		return new boolean[size * 2];
+	}
+	
+	/* compactWalkers
+	 * Removes the walkers whose index is flagged in remove, preserving the order of the rest.
+	 * Unlike removeAll this does not allocate and is linear in the size of the list
+	 */
+	protected static void compactWalkers(ArrayList<Walker> walkers, boolean[] remove) {
+		int count = walkers.size();
+		int kept = 0;
+		for(int i = 0; i < count; i++)
+		{
+			if(!remove[i])
+			{
+				walkers.set(kept, walkers.get(i));
+				kept++;
+			}
+		}
+		while(walkers.size() > kept)
+			walkers.remove(walkers.size() - 1);
+	}
+
 	public void walkerReachNewSquare(Walker walker, int x, int y, Direction d)
 	{
 		//Now interact with walls
-		if(!getDirection(x, y, d))
+		Direction turned = wallTurn(x, y, d);
+		if(turned != d)
+			walker.setDirection2(turned);
+	}
+	
+	/* wallTurn
+	 * Gets the direction a walker arriving at (x,y) heading in d leaves in, given the walls.
+	 * Looked up from a table compiled from the walls, rebuilt after they change
+	 */
+	protected Direction wallTurn(int x, int y, Direction d)
+	{
+		if(mTurnTableDirty)
+			buildTurnTable();
+		return mDirections[mTurnTable[wallIndex(x, y) * TURN_STRIDE + d.ordinal()]];
+	}
+	
+	/* buildTurnTable
+	 * Compiles the walls into the outgoing direction for every square and incoming direction
+	 */
+	private void buildTurnTable()
+	{
+		if(mTurnTable.length != mWidth * mHeight * TURN_STRIDE)
+			mTurnTable = new byte[mWidth * mHeight * TURN_STRIDE];
+		for(int y = 0; y < mHeight; y++)
 		{
-			//mDirection = mDirection; //Carry straight on!
-		} 
-		else if(getDirection(x, y, d) && 
-				!getDirection(x, y, Turns.TurnRight(d)))
-			walker.setDirection2(Turns.TurnRight(d));
-		else if(getDirection(x, y, d) &&
-				getDirection(x, y, Turns.TurnRight(d)) &&
-				!getDirection(x, y, Turns.TurnLeft(d)))
-			walker.setDirection2(Turns.TurnLeft(d));
+			for(int x = 0; x < mWidth; x++)
+			{
+				for(int d = 0; d < TURN_STRIDE; d++)
+				{
+					mTurnTable[wallIndex(x, y) * TURN_STRIDE + d] = (byte)computeWallTurn(x, y, mDirections[d]).ordinal();
+				}
+			}
+		}
+		mTurnTableDirty = false;
+	}
+	
+	/* computeWallTurn
+	 * Walkers turn right if blocked, then left, then around. Direction.Invalid if boxed in
+	 */
+	private Direction computeWallTurn(int x, int y, Direction d)
+	{
+		if(!getDirection(x, y, d))
+			return d; //Carry straight on!
+		else if(!getDirection(x, y, Turns.TurnRight(d)))
+			return Turns.TurnRight(d);
+		else if(!getDirection(x, y, Turns.TurnLeft(d)))
+			return Turns.TurnLeft(d);
 		else if(!getDirection(x, y, Turns.TurnAround(d)))
-			walker.setDirection2(Turns.TurnAround(d));
+			return Turns.TurnAround(d);
 		else
-			walker.setDirection2(Direction.Invalid);
-
+			return Direction.Invalid;
 	}
 }
@@ -0,0 +1,131 @@
+package uk.danishcake.shokorocket.simulation;
+
+import java.security.InvalidParameterException;
+
+/* WorldSnapshot
+ * A reusable buffer holding the state of a world, written by WorldBase.Snapshot and read
+ * back by WorldBase.Restore. State is flattened into ints, with walkers kept by reference,
+ * so a snapshot may only be restored into the world that took it. Worlds that keep nothing
+ * by reference say so with hasPortableSnapshots, and their snapshots may also be restored
+ * into other worlds of the same class. Once the buffer has grown to fit a world, taking
+ * and restoring snapshots does not allocate.
+ */
+public class WorldSnapshot {
+	private int[] mData = new int[256];
+	private int mSize = 0;
+	private Object[] mObjects = new Object[16];
+	private int mObjectCount = 0;
+	private int mPosition = 0;
+	private int mObjectPosition = 0;
+	private WorldBase mWorld = null;
+	private boolean mPortable = false;
+
+	/**
+	 * @return true if this holds a snapshot of world
+	 */
+	public boolean isSnapshotOf(WorldBase world) {
+		return mWorld != null && mWorld == world;
+	}
+
+	/**
+	 * @return true if this holds a snapshot that can be restored into world
+	 */
+	public boolean canRestore(WorldBase world) {
+		return isSnapshotOf(world) || (mWorld != null && mPortable && mWorld.getClass() == world.getClass());
+	}
+
+	/**
+	 * @return the number of ints used to hold the state
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Copies another snapshot into this one, reusing this buffer
+	 */
+	public void copyFrom(WorldSnapshot other) {
+		if(mData.length < other.mSize)
+			mData = new int[other.mData.length];
+		System.arraycopy(other.mData, 0, mData, 0, other.mSize);
+		mSize = other.mSize;
+		if(mObjects.length < other.mObjectCount)
+			mObjects = new Object[other.mObjects.length];
+		System.arraycopy(other.mObjects, 0, mObjects, 0, other.mObjectCount);
+		for(int i = other.mObjectCount; i < mObjectCount; i++)
+			mObjects[i] = null;
+		mObjectCount = other.mObjectCount;
+		mWorld = other.mWorld;
+		mPortable = other.mPortable;
+	}
+
+	void startWrite(WorldBase world) {
+		//Drop references from the last snapshot so walkers can be collected
+		for(int i = 0; i < mObjectCount; i++)
+			mObjects[i] = null;
+		mWorld = world;
+		mPortable = world.hasPortableSnapshots();
+		mSize = 0;
+		mObjectCount = 0;
+	}
+
+	void startRead(WorldBase world) {
+		if(!canRestore(world))
+			throw new InvalidParameterException("Unable to restore a snapshot taken from another world");
+		mPosition = 0;
+		mObjectPosition = 0;
+	}
+
+	void writeInt(int value) {
+		if(mSize == mData.length)
+		{
+			int[] data = new int[mData.length * 2];
+			System.arraycopy(mData, 0, data, 0, mSize);
+			mData = data;
+		}
+		mData[mSize] = value;
+		mSize++;
+	}
+
+	void writeBoolean(boolean value) {
+		writeInt(value ? 1 : 0);
+	}
+
+	void writeLong(long value) {
+		writeInt((int)(value >>> 32));
+		writeInt((int)value);
+	}
+
+	void writeObject(Object value) {
+		if(mObjectCount == mObjects.length)
+		{
+			Object[] objects = new Object[mObjects.length * 2];
+			System.arraycopy(mObjects, 0, objects, 0, mObjectCount);
+			mObjects = objects;
+		}
+		mObjects[mObjectCount] = value;
+		mObjectCount++;
+	}
+
+	int readInt() {
+		if(mPosition >= mSize)
+			throw new InvalidParameterException("Snapshot is shorter than the world being restored");
+		return mData[mPosition++];
+	}
+
+	boolean readBoolean() {
+		return readInt() != 0;
+	}
+
+	long readLong() {
+		long high = readInt();
+		long low = readInt();
+		return (high << 32) | (low & 0xffffffffL);
+	}
+
+	Object readObject() {
+		if(mObjectPosition >= mObjectCount)
+			throw new InvalidParameterException("Snapshot is shorter than the world being restored");
+		return mObjects[mObjectPosition++];
+	}
+}
@@ -0,0 +1,101 @@
+package uk.danishcake.shokorocket.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import android.test.AndroidTestCase;
+
+import uk.danishcake.shokorocket.simulation.ArrowSolver;
+import uk.danishcake.shokorocket.simulation.SPWorld;
+
+public class ArrowSolverTests extends AndroidTestCase {
+	/**
+	 * Every solution found must work, and the stored solution must be one of them
+	 */
+	public void testSolverFindsStoredSolution()
+	{
+		try
+		{
+			String level = "Levels/01-Original Easy/Level 01.Level";
+			ArrowSolver solver = new ArrowSolver(getContext().getAssets().open(level));
+			ArrowSolver.Result result = solver.Solve(2, 60 * 1000);
+			assertTrue(result.complete);
+			assertTrue(result.solutions.size() > 0);
+
+			SPWorld stored = new SPWorld(getContext().getAssets().open(level));
+			stored.LoadSolution();
+			boolean found_stored = false;
+			for(ArrowSolver.Arrow[] solution : result.solutions)
+			{
+				SPWorld world = new SPWorld(getContext().getAssets().open(level));
+				boolean matches_stored = true;
+				for(ArrowSolver.Arrow arrow : solution)
+				{
+					world.setArrow(arrow.x, arrow.y, arrow.direction);
+					if(stored.getSpecialSquare(arrow.x, arrow.y).getArrowDirectionality() != arrow.direction)
+						matches_stored = false;
+				}
+				assertTrue(world.Verify().success);
+				found_stored |= matches_stored;
+			}
+			assertTrue(found_stored);
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+
+	/**
+	 * The mouse walks straight into the rocket with no arrows, but the stored solution takes
+	 * it round with the whole stock. Both must be found
+	 */
+	public void testSolverFindsFullStockAsWellAsShorterSolution()
+	{
+		try
+		{
+			String level = "<Level><Size x=\"5\" y=\"3\"/><Mouse x=\"0\" y=\"1\" d=\"East\"/><Rocket x=\"4\" y=\"1\"/>" +
+						   "<Arrow x=\"1\" y=\"1\" d=\"North\"/><Arrow x=\"1\" y=\"0\" d=\"East\"/><Arrow x=\"4\" y=\"0\" d=\"South\"/></Level>";
+			ArrowSolver solver = new ArrowSolver(new ByteArrayInputStream(level.getBytes()));
+			ArrowSolver.Result result = solver.Solve(2, 60 * 1000);
+			assertTrue(result.complete);
+
+			SPWorld stored = new SPWorld(new ByteArrayInputStream(level.getBytes()));
+			stored.LoadSolution();
+			boolean found_empty = false;
+			boolean found_stored = false;
+			for(ArrowSolver.Arrow[] solution : result.solutions)
+			{
+				boolean matches_stored = solution.length == 3;
+				for(ArrowSolver.Arrow arrow : solution)
+				{
+					if(stored.getSpecialSquare(arrow.x, arrow.y).getArrowDirectionality() != arrow.direction)
+						matches_stored = false;
+				}
+				found_empty |= solution.length == 0;
+				found_stored |= matches_stored;
+			}
+			assertTrue(found_empty);
+			assertTrue(found_stored);
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+
+	public void testSolverStopsAtTimeBudget()
+	{
+		try
+		{
+			ArrowSolver solver = new ArrowSolver(getContext().getAssets().open("Levels/01-Original Easy/Level 03.Level"));
+			ArrowSolver.Result result = solver.Solve(2, 0);
+			assertFalse(result.complete);
+			assertTrue(result.elapsed_ms < 1000);
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+}
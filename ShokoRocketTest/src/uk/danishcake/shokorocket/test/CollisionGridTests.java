@@ -0,0 +1,84 @@
+package uk.danishcake.shokorocket.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import uk.danishcake.shokorocket.simulation.CollisionGrid;
+import uk.danishcake.shokorocket.simulation.Direction;
+import uk.danishcake.shokorocket.simulation.SPWorld;
+import uk.danishcake.shokorocket.simulation.Walker;
+
+public class CollisionGridTests extends TestCase {
+	/**
+	 * Exposes the narrow phase collision test
+	 */
+	private static class CollisionWorld extends SPWorld {
+		public CollisionWorld(int width, int height) {
+			super(width, height);
+		}
+		public boolean collides(int cat_x, int cat_y, int cat_fraction, Direction cat_direction,
+								int mouse_x, int mouse_y, int mouse_fraction, Direction mouse_direction) {
+			return checkCollision(cat_x, cat_y, cat_fraction, cat_direction, mouse_x, mouse_y, mouse_fraction, mouse_direction);
+		}
+	}
+
+	/**
+	 * Every colliding pair found by testing all mice must be found through the grid,
+	 * in the same order, including across the edges of the world
+	 */
+	public void testGridMatchesBruteForce()
+	{
+		Random random = new Random(1234);
+		Direction[] directions = Direction.values();
+		CollisionGrid grid = new CollisionGrid();
+		final int walker_count = 40;
+		int[] x = new int[walker_count];
+		int[] y = new int[walker_count];
+		int[] fraction = new int[walker_count];
+		Direction[] direction = new Direction[walker_count];
+		int collisions = 0;
+
+		for(int size = 1; size <= 14; size++)
+		{
+			CollisionWorld world = new CollisionWorld(size, size / 2 + 1);
+			for(int round = 0; round < 50; round++)
+			{
+				for(int i = 0; i < walker_count; i++)
+				{
+					x[i] = random.nextInt(world.getWidth());
+					y[i] = random.nextInt(world.getHeight());
+					fraction[i] = random.nextInt(Walker.FractionReset);
+					direction[i] = directions[random.nextInt(directions.length)];
+				}
+				//First half are cats, second half mice
+				int half = walker_count / 2;
+				grid.reset(world.getWidth(), world.getHeight(), half);
+				for(int m = 0; m < half; m++)
+					grid.add(m, x[half + m], y[half + m], fraction[half + m], direction[half + m]);
+
+				for(int c = 0; c < half; c++)
+				{
+					int candidates = grid.query(x[c], y[c], fraction[c], direction[c]);
+					int k = 0;
+					for(int m = 0; m < half; m++)
+					{
+						boolean collides = world.collides(x[c], y[c], fraction[c], direction[c],
+								x[half + m], y[half + m], fraction[half + m], direction[half + m]);
+						while(k < candidates && grid.getCandidate(k) < m)
+							k++;
+						boolean found = k < candidates && grid.getCandidate(k) == m;
+						if(collides)
+						{
+							collisions++;
+							assertTrue("Grid missed collision in world of width " + Integer.toString(size), found);
+						}
+					}
+					for(int i = 1; i < candidates; i++)
+						assertTrue(grid.getCandidate(i - 1) < grid.getCandidate(i));
+				}
+			}
+		}
+		//Make sure the test actually exercised some collisions
+		assertTrue(collisions > 100);
+	}
+}
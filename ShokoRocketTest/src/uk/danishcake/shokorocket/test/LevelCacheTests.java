@@ -0,0 +1,83 @@
+package uk.danishcake.shokorocket.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import android.test.AndroidTestCase;
+
+import uk.danishcake.shokorocket.moding.LevelCache;
+import uk.danishcake.shokorocket.moding.Progress;
+import uk.danishcake.shokorocket.simulation.SPWorld;
+
+public class LevelCacheTests extends AndroidTestCase {
+	private SPWorld waitForWorld(LevelCache cache, String level) throws IOException, InterruptedException {
+		for(int i = 0; i < 500; i++)
+		{
+			SPWorld world = cache.getWorld(level);
+			if(world != null)
+				return world;
+			Thread.sleep(10);
+		}
+		return null;
+	}
+
+	private String saveXML(SPWorld world) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		world.LoadSolution();
+		world.Save(output);
+		return output.toString();
+	}
+
+	/**
+	 * Cached levels must match the level loaded directly, and each request must get its own world
+	 */
+	public void testCacheHandsOutCopies()
+	{
+		try
+		{
+			Progress progress = new Progress(getContext());
+			LevelCache cache = new LevelCache(progress, 4);
+			String level = progress.getLevel();
+			SPWorld first = waitForWorld(cache, level);
+			assertNotNull(first);
+			SPWorld second = cache.getWorld(level);
+			assertNotNull(second);
+			assertNotSame(first, second);
+			assertEquals(level, first.getIdentifier());
+
+			SPWorld expected = progress.getWorld();
+			assertEquals(saveXML(expected), saveXML(first));
+			first.ClearArrows();
+			assertEquals(saveXML(expected), saveXML(second));
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+		catch(InterruptedException int_ex)
+		{
+			assertTrue("Interrupted", false);
+		}
+	}
+
+	public void testPrefetchLoadsInBackground()
+	{
+		try
+		{
+			Progress progress = new Progress(getContext());
+			LevelCache cache = new LevelCache(progress, 4);
+			String next = progress.getLevel(1);
+			cache.prefetch(next);
+			assertNotNull(waitForWorld(cache, next));
+			assertEquals(progress.getLevel(), progress.getLevel(progress.getLevelPackSize()));
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+		catch(InterruptedException int_ex)
+		{
+			assertTrue("Interrupted", false);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package uk.danishcake.shokorocket.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.test.AndroidTestCase;
+
+import uk.danishcake.shokorocket.moding.LevelIndex;
+import uk.danishcake.shokorocket.simulation.SPWorld;
+
+public class LevelIndexTests extends AndroidTestCase {
+	private byte[] readAsset(String name) throws IOException {
+		InputStream input = getContext().getAssets().open(name);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while((read = input.read(buffer)) >= 0)
+			data.write(buffer, 0, read);
+		input.close();
+		return data.toByteArray();
+	}
+
+	public void testEntrySummarisesLevel()
+	{
+		try
+		{
+			byte[] data = readAsset("Levels/01-Original Easy/Level 01.Level");
+			LevelIndex.Entry entry = LevelIndex.CreateEntry("Level 01.Level", 0, data);
+			SPWorld world = new SPWorld(new ByteArrayInputStream(data));
+			assertEquals(world.getLevelName(), entry.name);
+			assertEquals(world.getAuthor(), entry.author);
+			assertEquals(world.getWidth(), entry.width);
+			assertEquals(world.getHeight(), entry.height);
+			assertEquals(world.getLiveMice().size(), entry.mice);
+			assertEquals(world.getLiveCats().size(), entry.cats);
+			assertEquals(world.getSolutionLength(), entry.arrows);
+			assertTrue(entry.rockets > 0);
+
+			//The preview must be the same level
+			SPWorld preview = entry.getPreview();
+			preview.LoadSolution();
+			world.LoadSolution();
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			world.Save(expected);
+			preview.Save(actual);
+			assertEquals(expected.toString(), actual.toString());
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+
+	public void testIndexRoundTripAndInvalidation()
+	{
+		try
+		{
+			byte[] data = readAsset("Levels/01-Original Easy/Level 02.Level");
+			LevelIndex index = new LevelIndex("Version 1");
+			index.put(LevelIndex.CreateEntry("Level 02.Level", 100, data));
+			assertTrue(index.isDirty());
+			ByteArrayOutputStream saved = new ByteArrayOutputStream();
+			index.Save(saved);
+			assertFalse(index.isDirty());
+
+			LevelIndex loaded = LevelIndex.Load(new ByteArrayInputStream(saved.toByteArray()), "Version 1");
+			assertEquals(1, loaded.size());
+			LevelIndex.Entry entry = loaded.get("Level 02.Level", 100, null);
+			assertNotNull(entry);
+			assertEquals(new SPWorld(new ByteArrayInputStream(data)).getLevelName(), entry.name);
+
+			//Touched file with unchanged content is reused, changed content is not
+			assertNull(loaded.get("Level 02.Level", 200, null));
+			assertNotNull(loaded.get("Level 02.Level", 200, data));
+			assertTrue(loaded.isDirty());
+			byte[] changed = data.clone();
+			changed[changed.length - 1] ^= 1;
+			assertNull(loaded.get("Level 02.Level", 300, changed));
+
+			//A different version discards the whole index
+			LevelIndex stale = LevelIndex.Load(new ByteArrayInputStream(saved.toByteArray()), "Version 2");
+			assertEquals(0, stale.size());
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+}
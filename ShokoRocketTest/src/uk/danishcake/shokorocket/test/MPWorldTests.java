@@ -1,7 +1,18 @@
 package uk.danishcake.shokorocket.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import uk.danishcake.shokorocket.networking.GameSync;
+import uk.danishcake.shokorocket.networking.messages.ArrowClearMessage;
+import uk.danishcake.shokorocket.networking.messages.ArrowPlacementMessage;
+import uk.danishcake.shokorocket.networking.messages.Message;
 import uk.danishcake.shokorocket.simulation.Direction;
 import uk.danishcake.shokorocket.simulation.MPWorld;
+import uk.danishcake.shokorocket.simulation.WalkerList;
+import uk.danishcake.shokorocket.simulation.WorldSnapshot;
 import uk.danishcake.shokorocket.simulation.Walker.WalkerType;
 import android.test.AndroidTestCase;
 
@@ -35,4 +46,268 @@ public class MPWorldTests extends AndroidTestCase {
 		assertEquals(3, world.getLiveMice().size());
 		assertEquals(1, world.getLiveCats().size());		
 	}
+	
+	public void testMPWalkerExpiry()
+	{
+		try
+		{
+			//No AI players so nothing else changes the world
+			String level = "<Level><Size x=\"12\" y=\"9\"/></Level>";
+			MPWorld world = new MPWorld(new ByteArrayInputStream(level.getBytes()), "000");
+			world.setHole(0, 0, true);
+			world.addWalker(0, 0, Direction.East, WalkerType.Mouse);
+			
+			//Countdown then the first step drops the mouse into the hole
+			for(int i = 0; i < 200 && world.getLiveMice().size() > 0; i++)
+				world.Tick(20);
+			assertEquals(0, world.getLiveMice().size());
+			assertEquals(1, world.getDeadMice().size());
+			assertEquals(0, world.getDeadMice().getX(0));
+			assertEquals(0, world.getDeadMice().getY(0));
+			
+			//Removed once the death animation has finished
+			for(int i = 0; i < 400 && world.getDeadMice().size() > 0; i++)
+				world.Tick(20);
+			assertEquals(0, world.getDeadMice().size());
+			
+			//Recycled slot starts afresh
+			world.addWalker(1, 1, Direction.South, WalkerType.Cat);
+			assertEquals(1, world.getLiveCats().size());
+			assertEquals(1, world.getLiveCats().getX(0));
+			assertEquals(1, world.getLiveCats().getY(0));
+			assertEquals(0, world.getLiveCats().getDeathTime(0));
+			assertEquals(Direction.South, world.getLiveCats().getDirection(0));
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Some sort of io error - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	private void assertSameWalkers(WalkerList expected, WalkerList actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++)
+		{
+			assertEquals(expected.getX(i), actual.getX(i));
+			assertEquals(expected.getY(i), actual.getY(i));
+			assertEquals(expected.getFraction(i), actual.getFraction(i));
+			assertEquals(expected.getDirection(i), actual.getDirection(i));
+			assertEquals(expected.getWalkerType(i), actual.getWalkerType(i));
+			assertEquals(expected.getDeathTime(i), actual.getDeathTime(i));
+		}
+	}
+	
+	public void testMPSnapshotRestoresState()
+	{
+		try
+		{
+			//Spawners use the synchronised random numbers, and walkers expire and are recycled
+			String level = "<Level><Size x=\"12\" y=\"9\"/>" +
+						   "<Spawner x=\"0\" y=\"0\" d=\"East\"/><Spawner x=\"11\" y=\"8\" d=\"West\"/>" +
+						   "<PlayerRocket x=\"6\" y=\"0\" id=\"0\"/><Hole x=\"5\" y=\"8\"/></Level>";
+			MPWorld expected = new MPWorld(new ByteArrayInputStream(level.getBytes()), "000");
+			MPWorld world = new MPWorld(new ByteArrayInputStream(level.getBytes()), "000");
+			for(int i = 0; i < 1000; i++)
+			{
+				expected.Tick(20);
+				world.Tick(20);
+			}
+			WorldSnapshot snapshot = new WorldSnapshot();
+			world.Snapshot(snapshot);
+			for(int i = 0; i < 1000; i++)
+				world.Tick(20);
+			world.Restore(snapshot);
+			for(int i = 0; i < 1000; i++)
+			{
+				expected.Tick(20);
+				world.Tick(20);
+			}
+			assertTrue(expected.getLiveMice().size() + expected.getLiveCats().size() > 0);
+			assertEquals(expected.getPlayerScores()[0], world.getPlayerScores()[0]);
+			assertSameWalkers(expected.getLiveMice(), world.getLiveMice());
+			assertSameWalkers(expected.getLiveCats(), world.getLiveCats());
+			assertSameWalkers(expected.getDeadMice(), world.getDeadMice());
+			assertSameWalkers(expected.getRescuedMice(), world.getRescuedMice());
+			assertSameWalkers(expected.getDeadCats(), world.getDeadCats());
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Some sort of io error - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	/**
+	 * An AI looks ahead on its own copy of the game, so a snapshot must restore into
+	 * another MPWorld, even one created with a different size
+	 */
+	public void testMPSnapshotRestoresIntoCopy()
+	{
+		try
+		{
+			String level = "<Level><Size x=\"9\" y=\"12\"/>" +
+						   "<Spawner x=\"0\" y=\"0\" d=\"East\"/><Spawner x=\"8\" y=\"11\" d=\"West\"/>" +
+						   "<PlayerRocket x=\"4\" y=\"0\" id=\"0\"/><PlayerRocket x=\"4\" y=\"11\" id=\"1\"/></Level>";
+			MPWorld world = new MPWorld(new ByteArrayInputStream(level.getBytes()), "000");
+			world.setArrow(8, 0, Direction.South, 1);
+			for(int i = 0; i < 1000; i++)
+				world.Tick(20);
+			WorldSnapshot snapshot = new WorldSnapshot();
+			world.Snapshot(snapshot);
+			MPWorld copy = new MPWorld();
+			assertTrue(snapshot.canRestore(copy));
+			copy.Restore(snapshot);
+			assertEquals(9, copy.getWidth());
+			assertEquals(12, copy.getHeight());
+			world.lookAhead(200);
+			copy.lookAhead(200);
+			assertTrue(world.getPlayerScores()[1] > 0);
+			assertEquals(world.getPlayerScores()[0], copy.getPlayerScores()[0]);
+			assertEquals(world.getPlayerScores()[1], copy.getPlayerScores()[1]);
+			assertEquals(Direction.South, copy.getArrow(8, 0));
+			assertSameWalkers(world.getLiveMice(), copy.getLiveMice());
+			assertSameWalkers(world.getLiveCats(), copy.getLiveCats());
+			assertSameWalkers(world.getRescuedMice(), copy.getRescuedMice());
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Some sort of io error - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	public void testMPRowAndColumnChanges()
+	{
+		MPWorld world = new MPWorld();
+		int row = world.getRowChanged(3);
+		int col = world.getColChanged(4);
+		int other_row = world.getRowChanged(5);
+		int other_col = world.getColChanged(6);
+		world.setArrow(4, 3, Direction.North, 0);
+		assertTrue(world.getRowChanged(3) != row);
+		assertTrue(world.getColChanged(4) != col);
+		assertEquals(other_row, world.getRowChanged(5));
+		assertEquals(other_col, world.getColChanged(6));
+
+		//Restoring only changes the squares that differ
+		WorldSnapshot snapshot = new WorldSnapshot();
+		world.Snapshot(snapshot);
+		world.setArrow(1, 5, Direction.East, 2);
+		row = world.getRowChanged(5);
+		col = world.getColChanged(1);
+		other_row = world.getRowChanged(3);
+		other_col = world.getColChanged(4);
+		world.Restore(snapshot);
+		assertTrue(world.getRowChanged(5) != row);
+		assertTrue(world.getColChanged(1) != col);
+		assertEquals(other_row, world.getRowChanged(3));
+		assertEquals(other_col, world.getColChanged(4));
+		assertEquals(Direction.Invalid, world.getArrow(1, 5));
+	}
+	
+	/* DelayedSync
+	 * Player 1 places an arrow in front of a spawner once the countdown is over
+	 * and clears it later.
+	 * Each frame's messages arrive delay ticks after the frame is sent
+	 */
+	private static class DelayedSync extends GameSync {
+		private int mDelay;
+		private int mTick = 0;
+		private LinkedList<ArrayList<Message>> mInFlight = new LinkedList<ArrayList<Message>>();
+		private LinkedList<Integer> mArrivals = new LinkedList<Integer>();
+		
+		public DelayedSync(int delay) {
+			mDelay = delay;
+		}
+		
+		@Override
+		public void Connect(String dest) {
+		}
+		
+		@Override
+		public void SendFrameEnd() {
+			mLocalFrame++;
+			mSyncedFrame = mLocalFrame - 1;
+			ArrayList<Message> messages = new ArrayList<Message>();
+			if(mLocalFrame == 60)
+			{
+				Message message = new ArrowPlacementMessage(9, 8, Direction.North);
+				message.setCommon(1, 2);
+				messages.add(message);
+			}
+			if(mLocalFrame == 150)
+			{
+				Message message = new ArrowClearMessage();
+				message.setCommon(1, 0);
+				messages.add(message);
+			}
+			mInFlight.add(messages);
+			mArrivals.add(mTick + mDelay);
+			deliver(false);
+		}
+		
+		public void tick(boolean flush) {
+			mTick++;
+			deliver(flush);
+		}
+		
+		private void deliver(boolean flush) {
+			while(mArrivals.size() > 0 && (flush || mArrivals.getFirst() <= mTick))
+			{
+				mArrivals.removeFirst();
+				ArrayList<Message> messages = mInFlight.removeFirst();
+				for(int i = 0; i < messages.size(); i++)
+					queueMessage(messages.get(i));
+				queueFrame();
+			}
+		}
+		
+		@Override
+		public void sendMessage(Message message) {
+		}
+		
+		@Override
+		public ArrayList<String> getPlayerNames() {
+			ArrayList<String> names = new ArrayList<String>();
+			for(int i = 0; i < 4; i++)
+				names.add("Player");
+			return names;
+		}
+	}
+	
+	public void testMPRollbackMatchesLockstep()
+	{
+		try
+		{
+			String level = "<Level><Size x=\"12\" y=\"9\"/>" +
+						   "<Spawner x=\"0\" y=\"0\" d=\"East\"/><Spawner x=\"11\" y=\"8\" d=\"West\"/>" +
+						   "<PlayerRocket x=\"9\" y=\"3\" id=\"1\"/><PlayerRocket x=\"6\" y=\"8\" id=\"0\"/></Level>";
+			MPWorld lockstep = new MPWorld(new ByteArrayInputStream(level.getBytes()), "000");
+			DelayedSync lockstep_sync = new DelayedSync(0);
+			lockstep.setSync(lockstep_sync);
+			MPWorld rollback = new MPWorld(new ByteArrayInputStream(level.getBytes()), "000");
+			DelayedSync rollback_sync = new DelayedSync(12);
+			rollback.setSync(rollback_sync);
+			rollback.setRollback(true);
+			for(int i = 0; i < 1500; i++)
+			{
+				lockstep_sync.tick(false);
+				lockstep.Tick(20);
+				rollback_sync.tick(i == 1499);
+				rollback.Tick(20);
+			}
+			assertTrue(rollback.getRollbackCount() > 0);
+			assertTrue(lockstep.getPlayerScores()[1] > 0);
+			assertEquals(lockstep.getPlayerScores()[0], rollback.getPlayerScores()[0]);
+			assertEquals(lockstep.getPlayerScores()[1], rollback.getPlayerScores()[1]);
+			assertSameWalkers(lockstep.getLiveMice(), rollback.getLiveMice());
+			assertSameWalkers(lockstep.getLiveCats(), rollback.getLiveCats());
+			assertSameWalkers(lockstep.getDeadMice(), rollback.getDeadMice());
+			assertSameWalkers(lockstep.getRescuedMice(), rollback.getRescuedMice());
+			assertSameWalkers(lockstep.getDeadCats(), rollback.getDeadCats());
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Some sort of io error - " + io_ex.getMessage(), false);
+		}
+	}
 }
@@ -0,0 +1,109 @@
+package uk.danishcake.shokorocket.test.Networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+
+import android.test.AndroidTestCase;
+
+import uk.danishcake.shokorocket.networking.LocalSync;
+import uk.danishcake.shokorocket.networking.ai.AIProfile;
+import uk.danishcake.shokorocket.networking.ai.BasicAI;
+import uk.danishcake.shokorocket.networking.ai.LookaheadAI;
+
+public class AIProfileTests extends AndroidTestCase {
+	private LinkedHashMap<Character, AIProfile> load(String xml) throws IOException {
+		return AIProfile.Load(new ByteArrayInputStream(xml.getBytes()));
+	}
+	
+	public void testLoadsProfiles() throws IOException
+	{
+		LinkedHashMap<Character, AIProfile> profiles = load("<AIProfiles>" +
+				"<Profile id=\"X\" name=\"Twitchy\" rate=\"5\" malice_block=\"true\" target_switch=\"10\"/>" +
+				"<Profile id=\"Y\" type=\"Lookahead\" rate=\"2\" horizon=\"20\" budget=\"100\"/>" +
+				"</AIProfiles>");
+		assertEquals(2, profiles.size());
+		AIProfile twitchy = profiles.get('X');
+		assertEquals("Twitchy", twitchy.name);
+		assertEquals(AIProfile.TYPE_BASIC, twitchy.type);
+		assertEquals(5, twitchy.rate);
+		assertEquals(12, twitchy.horizon);
+		assertTrue(twitchy.malice_block);
+		assertFalse(twitchy.malice_intercept);
+		assertEquals(10, twitchy.target_switch);
+		assertTrue(twitchy.createAI() instanceof BasicAI);
+		
+		AIProfile deep = profiles.get('Y');
+		assertEquals("Y", deep.name);
+		assertEquals(20, deep.horizon);
+		assertEquals(100, deep.budget);
+		assertTrue(deep.createAI() instanceof LookaheadAI);
+	}
+	
+	public void testRejectsBadProfiles()
+	{
+		String[] bad = {
+			"<AIProfiles><Profile name=\"No id\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"0\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"X\" rate=\"fast\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"X\" rate=\"0\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"X\" malice_block=\"yes\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"X\" type=\"Psychic\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"X\" type=\"Lookahead\" horizon=\"40\" budget=\"80\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"X\"/><Profile id=\"X\"/></AIProfiles>",
+			"<AIProfiles><Profile id=\"X\""
+		};
+		for(String xml : bad)
+		{
+			try
+			{
+				load(xml);
+				fail("Loaded " + xml);
+			} catch(IOException io_ex)
+			{
+			}
+		}
+	}
+	
+	/**
+	 * The shipped profiles are the built in ones, so games without the file play the same
+	 */
+	public void testAssetMatchesBuiltIn() throws IOException
+	{
+		InputStream input = getContext().getAssets().open("AIProfiles.xml");
+		LinkedHashMap<Character, AIProfile> loaded = AIProfile.Load(input);
+		input.close();
+		LinkedHashMap<Character, AIProfile> built_in = AIProfile.getProfiles();
+		assertEquals(built_in.keySet().toString(), loaded.keySet().toString());
+		for(AIProfile expected : built_in.values())
+		{
+			AIProfile profile = loaded.get(expected.id);
+			assertEquals(expected.name, profile.name);
+			assertEquals(expected.type, profile.type);
+			assertEquals(expected.rate, profile.rate);
+			assertEquals(expected.horizon, profile.horizon);
+			assertEquals(expected.budget, profile.budget);
+			assertEquals(expected.malice_intercept, profile.malice_intercept);
+			assertEquals(expected.malice_block, profile.malice_block);
+			assertEquals(expected.intercept_cats_delay, profile.intercept_cats_delay);
+			assertEquals(expected.target_switch, profile.target_switch);
+		}
+	}
+	
+	public void testProfilesPickSeats() throws IOException
+	{
+		LinkedHashMap<Character, AIProfile> built_in = AIProfile.getProfiles();
+		try
+		{
+			AIProfile.setProfiles(load("<AIProfiles><Profile id=\"X\" rate=\"5\"/></AIProfiles>"));
+			assertTrue(LocalSync.CreateAI('X') instanceof BasicAI);
+			assertNull(LocalSync.CreateAI('H'));
+			assertNull(LocalSync.CreateAI('0'));
+		} finally
+		{
+			AIProfile.setProfiles(built_in);
+		}
+		assertTrue(LocalSync.CreateAI('L') instanceof LookaheadAI);
+	}
+}
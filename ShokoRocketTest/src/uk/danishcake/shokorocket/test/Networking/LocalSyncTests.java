@@ -0,0 +1,147 @@
+package uk.danishcake.shokorocket.test.Networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.test.AndroidTestCase;
+
+import uk.danishcake.shokorocket.networking.LocalSync;
+import uk.danishcake.shokorocket.simulation.Direction;
+import uk.danishcake.shokorocket.simulation.MPWorld;
+
+public class LocalSyncTests extends AndroidTestCase {
+	private static final int TICK = 20;
+	private static final int COMM_RATIO = 5;
+
+	private byte[] readLevel() throws IOException {
+		InputStream input = getContext().getAssets().open("MultiplayerLevels/MP001.Level");
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while((read = input.read(buffer)) >= 0)
+			data.write(buffer, 0, read);
+		input.close();
+		return data.toByteArray();
+	}
+
+	/* waitForAI
+	 * The executor has one thread, so once this has run every AI started before it has decided
+	 */
+	private void waitForAI(ExecutorService executor) throws InterruptedException, ExecutionException {
+		executor.submit(new Callable<Object>() {
+			public Object call() {
+				return null;
+			}
+		}).get();
+	}
+
+	private int countArrows(MPWorld world, int player) {
+		int arrows = 0;
+		for(int y = 0; y < world.getHeight(); y++)
+		{
+			for(int x = 0; x < world.getWidth(); x++)
+			{
+				if(world.getArrow(x, y) != Direction.Invalid && world.getPlayer(x, y) == player)
+					arrows++;
+			}
+		}
+		return arrows;
+	}
+
+	private int[] playAsync(byte[] level) throws IOException, InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			MPWorld world = new MPWorld(new ByteArrayInputStream(level), "HHHH");
+			LocalSync sync = new LocalSync(world);
+			sync.setAIExecutor(executor, 10000);
+			sync.Connect("HHHH");
+			world.setSync(sync);
+			world.setSeed(3);
+			for(int tick = 0; tick < 10 * 60 * 1000 / TICK && !world.isFinished(); tick++)
+			{
+				world.Tick(TICK);
+				waitForAI(executor);
+			}
+			assertTrue(world.isFinished());
+			assertEquals(0, sync.getLateCount());
+			return world.getPlayerScores().clone();
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * AIs deciding in time on the executor play whole games, the same each time
+	 */
+	public void testAsyncAIPlaysRepeatably() throws IOException, InterruptedException, ExecutionException
+	{
+		byte[] level = readLevel();
+		int[] first = playAsync(level);
+		int[] second = playAsync(level);
+		int total = 0;
+		for(int i = 0; i < 4; i++)
+		{
+			assertEquals(first[i], second[i]);
+			total += first[i];
+		}
+		assertTrue(total > 0);
+	}
+
+	/**
+	 * An AI that has not decided by the end of the next frame sends nothing, and its
+	 * decision is dropped once made rather than sent late
+	 */
+	public void testLateAISendsNothing() throws IOException, InterruptedException, ExecutionException
+	{
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			MPWorld world = new MPWorld(new ByteArrayInputStream(readLevel()), "0H00");
+			LocalSync sync = new LocalSync(world);
+			sync.setAIExecutor(executor, 10000);
+			sync.Connect("0H00");
+			world.setSync(sync);
+
+			//Hold up the AI's thread for 200 frames
+			final CountDownLatch blocked = new CountDownLatch(1);
+			executor.submit(new Callable<Object>() {
+				public Object call() throws InterruptedException {
+					blocked.await();
+					return null;
+				}
+			});
+			for(int tick = 0; tick < 200 * COMM_RATIO; tick++)
+			{
+				world.Tick(TICK);
+				assertEquals(0, countArrows(world, 1));
+			}
+			assertTrue(sync.getLateCount() >= 199);
+
+			blocked.countDown();
+			waitForAI(executor);
+			int late = sync.getLateCount();
+			int most_arrows = 0;
+			for(int tick = 0; tick < 200 * COMM_RATIO; tick++)
+			{
+				world.Tick(TICK);
+				waitForAI(executor);
+				most_arrows = Math.max(most_arrows, countArrows(world, 1));
+			}
+			assertTrue(most_arrows > 0);
+			//Only the decision made while held up is dropped
+			assertEquals(late + 1, sync.getLateCount());
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package uk.danishcake.shokorocket.test.Networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.test.AndroidTestCase;
+
+import uk.danishcake.shokorocket.networking.LocalSync;
+import uk.danishcake.shokorocket.networking.ai.LookaheadAI;
+import uk.danishcake.shokorocket.networking.ai.MatchRunner;
+import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.simulation.MPWorld;
+
+public class LookaheadAITests extends AndroidTestCase {
+	private byte[] readLevel() throws IOException {
+		InputStream input = getContext().getAssets().open("MultiplayerLevels/MP001.Level");
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while((read = input.read(buffer)) >= 0)
+			data.write(buffer, 0, read);
+		input.close();
+		return data.toByteArray();
+	}
+	
+	/**
+	 * However busy the level the AI must not simulate more than its budget each frame
+	 */
+	public void testStaysWithinStepBudget() throws IOException
+	{
+		MPWorld world = new MPWorld(new ByteArrayInputStream(readLevel()), "0000");
+		LocalSync sync = new LocalSync(world);
+		sync.Connect("0000");
+		world.setSync(sync);
+		LookaheadAI ai = new LookaheadAI(40, 200, 1);
+		ai.setup(world, 0);
+		ArrayList<Message> messages = new ArrayList<Message>();
+		int placed = 0;
+		for(int frame = 0; frame < 400; frame++)
+		{
+			for(int tick = 0; tick < 5; tick++)
+				world.Tick(20);
+			messages.clear();
+			ai.generateMessages(messages);
+			assertTrue(ai.getStepsUsed() <= 200);
+			for(int i = 0; i < messages.size(); i++)
+			{
+				if(messages.get(i).message_type == Message.MESSAGE_ARROW_PLACEMENT)
+					placed++;
+				sync.sendMessage(messages.get(i));
+			}
+		}
+		assertTrue(placed > 0);
+		assertTrue(world.getPlayerScores()[0] > 0);
+	}
+	
+	/**
+	 * An arrow that was never sent must not hold the AI back until its next turn
+	 */
+	public void testPlacesAgainAfterDecisionDropped() throws IOException
+	{
+		MPWorld world = new MPWorld(new ByteArrayInputStream(readLevel()), "0000");
+		LocalSync sync = new LocalSync(world);
+		sync.Connect("0000");
+		world.setSync(sync);
+		LookaheadAI ai = new LookaheadAI(40, 200, 50);
+		ai.setup(world, 0);
+		ArrayList<Message> messages = new ArrayList<Message>();
+		int dropped_frame = -1;
+		int placed_frame = -1;
+		for(int frame = 0; frame < 400 && placed_frame == -1; frame++)
+		{
+			for(int tick = 0; tick < 5; tick++)
+				world.Tick(20);
+			messages.clear();
+			ai.generateMessages(messages);
+			for(int i = 0; i < messages.size(); i++)
+			{
+				if(messages.get(i).message_type != Message.MESSAGE_ARROW_PLACEMENT)
+					continue;
+				if(dropped_frame == -1)
+					dropped_frame = frame;
+				else
+					placed_frame = frame;
+			}
+			if(frame == dropped_frame)
+				ai.decisionDropped();
+		}
+		assertTrue(dropped_frame != -1);
+		assertTrue(placed_frame != -1);
+		assertTrue(placed_frame - dropped_frame < 5);
+	}
+	
+	/**
+	 * Once past its deadline the AI stops searching and places nothing
+	 */
+	public void testStopsAtDeadline() throws IOException
+	{
+		MPWorld world = new MPWorld(new ByteArrayInputStream(readLevel()), "0000");
+		LocalSync sync = new LocalSync(world);
+		sync.Connect("0000");
+		world.setSync(sync);
+		LookaheadAI ai = new LookaheadAI(40, 200, 1);
+		ai.setup(world, 0);
+		ai.setDeadline(System.nanoTime() - 1);
+		ArrayList<Message> messages = new ArrayList<Message>();
+		for(int frame = 0; frame < 100; frame++)
+		{
+			for(int tick = 0; tick < 5; tick++)
+				world.Tick(20);
+			messages.clear();
+			ai.generateMessages(messages);
+			assertEquals(0, messages.size());
+			//Only placing nothing is simulated
+			assertTrue(ai.getStepsUsed() <= 41);
+		}
+	}
+	
+	public void testOutscoresEasyAI() throws IOException, InterruptedException
+	{
+		Map<String, byte[]> levels = new LinkedHashMap<String, byte[]>();
+		levels.put("MP001.Level", readLevel());
+		ArrayList<MatchRunner.Result> results = MatchRunner.PlayAll(MatchRunner.CreateMatches("LEEE", 4, 1, levels), 2);
+		TreeMap<String, MatchRunner.Distribution> players = MatchRunner.SummarisePlayers(results);
+		assertTrue(players.get("L").getMean() > players.get("E").getMean());
+	}
+}
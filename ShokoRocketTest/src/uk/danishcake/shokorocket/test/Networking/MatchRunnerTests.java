@@ -0,0 +1,100 @@
+package uk.danishcake.shokorocket.test.Networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.test.AndroidTestCase;
+
+import uk.danishcake.shokorocket.networking.ai.MatchRunner;
+
+public class MatchRunnerTests extends AndroidTestCase {
+	private Map<String, byte[]> readLevels() throws IOException {
+		InputStream input = getContext().getAssets().open("MultiplayerLevels/MP001.Level");
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while((read = input.read(buffer)) >= 0)
+			data.write(buffer, 0, read);
+		input.close();
+		Map<String, byte[]> levels = new LinkedHashMap<String, byte[]>();
+		levels.put("MP001.Level", data.toByteArray());
+		return levels;
+	}
+	
+	/**
+	 * Matches must play out the same however many threads they are spread over
+	 */
+	public void testMatchesAreRepeatable() throws IOException, InterruptedException
+	{
+		ArrayList<MatchRunner.Match> matches = MatchRunner.CreateMatches("EMHH", 8, 3, readLevels());
+		assertEquals(8, matches.size());
+		assertEquals("EMHH", matches.get(0).players);
+		assertEquals("MHHE", matches.get(1).players);
+		assertEquals(3, matches.get(3).seed);
+		assertEquals(4, matches.get(4).seed);
+		
+		ArrayList<MatchRunner.Result> serial = MatchRunner.PlayAll(matches, 1);
+		ArrayList<MatchRunner.Result> parallel = MatchRunner.PlayAll(matches, 3);
+		int total = 0;
+		for(int i = 0; i < matches.size(); i++)
+		{
+			assertTrue(serial.get(i).finished);
+			assertSame(matches.get(i), parallel.get(i).match);
+			assertTrue(Arrays.equals(serial.get(i).scores, parallel.get(i).scores));
+			assertEquals(serial.get(i).ticks, parallel.get(i).ticks);
+			for(int score : serial.get(i).scores)
+				total += score;
+		}
+		assertTrue(total > 0);
+		assertTrue(Arrays.equals(serial.get(0).scores, MatchRunner.Play(matches.get(0)).scores));
+	}
+	
+	public void testScoresSummarised() throws IOException, InterruptedException
+	{
+		ArrayList<MatchRunner.Result> results = MatchRunner.PlayAll(MatchRunner.CreateMatches("EEHH", 4, 1, readLevels()), 2);
+		TreeMap<String, MatchRunner.Distribution> players = MatchRunner.SummarisePlayers(results);
+		assertEquals(2, players.size());
+		assertEquals(8, players.get("E").getCount());
+		assertEquals(8, players.get("H").getCount());
+		assertTrue(players.get("E").getWins() + players.get("H").getWins() <= 4);
+		assertTrue(players.get("H").getPercentile(0) <= players.get("H").getPercentile(50));
+		assertTrue(players.get("H").getPercentile(50) <= players.get("H").getPercentile(100));
+		
+		TreeMap<String, MatchRunner.Distribution> seats = MatchRunner.SummariseSeats(results);
+		assertEquals(4, seats.size());
+		assertEquals(4, seats.get("MP001.Level seat 0").getCount());
+	}
+	
+	/**
+	 * Every four players meet, and the time only AIs spend deciding is measured
+	 */
+	public void testRoundRobinMeasuresCost() throws IOException, InterruptedException
+	{
+		Map<String, byte[]> levels = readLevels();
+		assertEquals(20, MatchRunner.CreateRoundRobin("EMHLX", 4, 1, levels).size());
+		ArrayList<MatchRunner.Match> pair = MatchRunner.CreateRoundRobin("E0", 4, 1, levels);
+		assertEquals(4, pair.size());
+		assertEquals("E0E0", pair.get(0).players);
+		
+		ArrayList<MatchRunner.Result> results = MatchRunner.PlayAll(pair, 2);
+		for(MatchRunner.Result result : results)
+		{
+			for(int seat = 0; seat < 4; seat++)
+			{
+				if(result.match.players.charAt(seat) == 'E')
+					assertTrue(result.ai_time[seat] > 0);
+				else
+					assertEquals(0, result.ai_time[seat]);
+			}
+		}
+		TreeMap<String, MatchRunner.Distribution> players = MatchRunner.SummarisePlayers(results);
+		assertTrue(players.get("E").getTimePerTick() > 0);
+		assertEquals(0.0f, players.get("0").getTimePerTick());
+	}
+}
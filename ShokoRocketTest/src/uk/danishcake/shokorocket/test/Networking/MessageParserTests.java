@@ -0,0 +1,84 @@
+package uk.danishcake.shokorocket.test.Networking;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import uk.danishcake.shokorocket.networking.MessageParser;
+import uk.danishcake.shokorocket.networking.messages.ArrowClearMessage;
+import uk.danishcake.shokorocket.networking.messages.ArrowPlacementMessage;
+import uk.danishcake.shokorocket.networking.messages.CursorPositioningMessage;
+import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.simulation.Direction;
+
+public class MessageParserTests extends TestCase {
+	
+	public void testFramesRoundTrip()
+	{
+		ArrayList<Message> first = new ArrayList<Message>();
+		Message cursor = new CursorPositioningMessage(5, -1);
+		cursor.setCommon(2, 1);
+		first.add(cursor);
+		Message arrow = new ArrowPlacementMessage(300, 7, Direction.West);
+		arrow.setCommon(3, 1);
+		first.add(arrow);
+		ArrayList<Message> second = new ArrayList<Message>();
+		Message clear = new ArrowClearMessage();
+		clear.setCommon(1, 0);
+		second.add(clear);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		MessageParser.WriteFrame(buffer, 12, first);
+		MessageParser.WriteFrame(buffer, 200, second);
+		MessageParser.WriteFrame(buffer, 201, new ArrayList<Message>());
+		//Cursor 4 bytes, arrow 5, frame end 2, clear 2, frame end 3, empty frame end 3
+		assertEquals(19, buffer.position());
+		buffer.flip();
+		
+		ArrayList<Message> parsed = new ArrayList<Message>();
+		assertEquals(12, MessageParser.ParseFrame(buffer, parsed));
+		assertEquals(2, parsed.size());
+		CursorPositioningMessage parsed_cursor = (CursorPositioningMessage)parsed.get(0);
+		assertEquals(Message.MESSAGE_CURSOR_POSITION, parsed_cursor.message_type);
+		assertEquals(2, parsed_cursor.user_id);
+		assertEquals(1, parsed_cursor.sub_frame_id);
+		assertEquals(5, parsed_cursor.x);
+		assertEquals(-1, parsed_cursor.y);
+		ArrowPlacementMessage parsed_arrow = (ArrowPlacementMessage)parsed.get(1);
+		assertEquals(3, parsed_arrow.user_id);
+		assertEquals(300, parsed_arrow.x);
+		assertEquals(7, parsed_arrow.y);
+		assertEquals(Direction.West, parsed_arrow.direction);
+		
+		parsed.clear();
+		assertEquals(200, MessageParser.ParseFrame(buffer, parsed));
+		assertEquals(1, parsed.size());
+		assertEquals(Message.MESSAGE_ARROW_CLEAR, parsed.get(0).message_type);
+		assertEquals(1, parsed.get(0).user_id);
+		
+		parsed.clear();
+		assertEquals(201, MessageParser.ParseFrame(buffer, parsed));
+		assertEquals(0, parsed.size());
+		assertEquals(-1, MessageParser.ParseFrame(buffer, parsed));
+	}
+	
+	public void testTruncatedPacketRejected()
+	{
+		ArrayList<Message> messages = new ArrayList<Message>();
+		Message arrow = new ArrowPlacementMessage(1, 2, Direction.North);
+		arrow.setCommon(0, 1);
+		messages.add(arrow);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		MessageParser.WriteFrame(buffer, 1000, messages);
+		buffer.flip();
+		buffer.limit(buffer.limit() - 1);
+		try
+		{
+			MessageParser.ParseFrame(buffer, new ArrayList<Message>());
+			fail("Truncated packet should be rejected");
+		} catch(InvalidParameterException ex)
+		{
+		}
+	}
+}
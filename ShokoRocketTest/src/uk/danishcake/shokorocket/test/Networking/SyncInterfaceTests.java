@@ -1,11 +1,171 @@
 package uk.danishcake.shokorocket.test.Networking;
 
+import java.util.ArrayList;
+
 import junit.framework.TestCase;
+import uk.danishcake.shokorocket.networking.GameSync;
+import uk.danishcake.shokorocket.networking.messages.CursorPositioningMessage;
+import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.networking.messages.MessagePool;
+import uk.danishcake.shokorocket.simulation.Direction;
 
 public class SyncInterfaceTests extends TestCase {
+	/* QueueSync
+	 * Queues a frame of cursor messages, the x of each being its order sent. Each is from
+	 * a different user so none are coalesced */
+	private static class QueueSync extends GameSync {
+		public void queue(int[] sub_frames) {
+			for(int i = 0; i < sub_frames.length; i++)
+			{
+				Message message = new CursorPositioningMessage(i, 0);
+				message.setCommon(i, sub_frames[i]);
+				queueMessage(message);
+			}
+			queueFrame();
+		}
+		
+		public void queue(Message message) {
+			queueMessage(message);
+		}
+		
+		public void endFrame() {
+			queueFrame();
+		}
+		
+		@Override
+		public void Connect(String dest) {
+		}
+		
+		@Override
+		public void SendFrameEnd() {
+		}
+		
+		@Override
+		public void sendMessage(Message message) {
+		}
+		
+		@Override
+		public ArrayList<String> getPlayerNames() {
+			return new ArrayList<String>();
+		}
+	}
 
 	public void testIConnect()
 	{
 		
 	}
+	
+	/**
+	 * Frames pop in order, each in sub frame order with ties kept in the order sent,
+	 * including once the ring has gone round several times
+	 */
+	public void testQueueOrdersBySubFrame()
+	{
+		QueueSync sync = new QueueSync();
+		assertFalse(sync.hasMessages());
+		int queued = 0;
+		ArrayList<Message> messages = new ArrayList<Message>();
+		for(int frame = 0; frame < 40; frame++)
+		{
+			//Keep the ring as full as it may get
+			while(queued < 40 && queued - frame < GameSync.MAX_QUEUED_FRAMES)
+			{
+				sync.queue(new int[] {queued % 3, 1, 0, 1, queued % 5});
+				queued++;
+			}
+			assertTrue(sync.hasMessages());
+			messages.clear();
+			sync.popMessages(messages);
+			assertEquals(5, messages.size());
+			for(int i = 1; i < messages.size(); i++)
+			{
+				Message previous = messages.get(i - 1);
+				Message message = messages.get(i);
+				assertTrue(previous.sub_frame_id <= message.sub_frame_id);
+				if(previous.sub_frame_id == message.sub_frame_id)
+					assertTrue(((CursorPositioningMessage)previous).x < ((CursorPositioningMessage)message).x);
+			}
+			assertEquals(Math.max(Math.max(frame % 3, 1), frame % 5), messages.get(4).sub_frame_id);
+		}
+		assertFalse(sync.hasMessages());
+		
+		//Slots are reused once popped
+		sync.queue(new int[] {2, 0});
+		messages.clear();
+		sync.popMessages(messages);
+		assertEquals(0, messages.get(0).sub_frame_id);
+		assertEquals(2, messages.get(1).sub_frame_id);
+	}
+	
+	/**
+	 * More frames than lockstep or rollback allow are refused rather than growing the ring
+	 */
+	public void testQueueRefusesTooManyFrames()
+	{
+		QueueSync sync = new QueueSync();
+		for(int frame = 0; frame < GameSync.MAX_QUEUED_FRAMES; frame++)
+			sync.queue(new int[] {0});
+		try
+		{
+			sync.queue(new int[] {0});
+			fail("Queueing more than MAX_QUEUED_FRAMES should be refused");
+		} catch(IllegalStateException ex)
+		{
+		}
+		
+		//Popping makes room again
+		ArrayList<Message> messages = new ArrayList<Message>();
+		sync.popMessages(messages);
+		sync.endFrame();
+		for(int frame = 0; frame < GameSync.MAX_QUEUED_FRAMES; frame++)
+		{
+			messages.clear();
+			sync.popMessages(messages);
+		}
+		assertFalse(sync.hasMessages());
+	}
+	
+	/**
+	 * Only the last cursor position per user and sub frame is kept, and the merged message
+	 * goes back to the pool
+	 */
+	public void testCursorMovesCoalesce()
+	{
+		QueueSync sync = new QueueSync();
+		Message first = MessagePool.obtainCursorPosition(1, 1);
+		first.setCommon(2, 0);
+		Message arrow = MessagePool.obtainArrowPlacement(3, 3, Direction.North);
+		arrow.setCommon(2, 0);
+		Message second = MessagePool.obtainCursorPosition(4, 5);
+		second.setCommon(2, 0);
+		Message other_user = MessagePool.obtainCursorPosition(6, 6);
+		other_user.setCommon(3, 0);
+		Message later = MessagePool.obtainCursorPosition(7, 7);
+		later.setCommon(2, 1);
+		sync.queue(first);
+		sync.queue(arrow);
+		sync.queue(second);
+		sync.queue(other_user);
+		sync.queue(later);
+		sync.endFrame();
+		
+		ArrayList<Message> messages = new ArrayList<Message>();
+		sync.popMessages(messages);
+		assertEquals(4, messages.size());
+		assertSame(first, messages.get(0));
+		assertEquals(4, ((CursorPositioningMessage)first).x);
+		assertEquals(5, ((CursorPositioningMessage)first).y);
+		assertSame(arrow, messages.get(1));
+		assertSame(other_user, messages.get(2));
+		assertSame(later, messages.get(3));
+		
+		//The merged message has already been recycled
+		try
+		{
+			MessagePool.recycle(second);
+			fail("Recycling a message twice should be refused");
+		} catch(IllegalStateException ex)
+		{
+		}
+	}
 }
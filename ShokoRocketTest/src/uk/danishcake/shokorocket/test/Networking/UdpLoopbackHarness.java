@@ -0,0 +1,175 @@
+package uk.danishcake.shokorocket.test.Networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+
+import uk.danishcake.shokorocket.networking.UdpSync;
+import uk.danishcake.shokorocket.networking.ai.AIProfile;
+import uk.danishcake.shokorocket.networking.ai.BasicAI;
+import uk.danishcake.shokorocket.networking.messages.Message;
+import uk.danishcake.shokorocket.simulation.MPWorld;
+
+/**
+ * Runs several MPWorlds in one process, each with a UdpSync to the others over 127.0.0.1,
+ * played by BasicAI. Packets can be dropped and delayed, and time is simulated, so stall
+ * rates can be measured under poor network conditions.
+ * @author Edward Woolhouse
+ */
+public class UdpLoopbackHarness {
+	public static final int TICK = 20;
+	
+	/* DelayedPacket
+	 * A packet held back until its simulated arrival time */
+	private static class DelayedPacket {
+		public long due;
+		public byte[] data;
+		public InetSocketAddress address;
+		public LossySync sender;
+	}
+	
+	/* LossySync
+	 * Passes packets through the harness to be dropped or delayed */
+	private class LossySync extends UdpSync {
+		@Override
+		protected void transmit(ByteBuffer packet, InetSocketAddress address) {
+			if(mRandom.nextFloat() < mLoss)
+				return;
+			DelayedPacket delayed = new DelayedPacket();
+			delayed.due = mTime + mDelay + (mJitter > 0 ? mRandom.nextInt(mJitter) : 0);
+			delayed.data = new byte[packet.remaining()];
+			packet.get(delayed.data);
+			delayed.address = address;
+			delayed.sender = this;
+			//Keep in order of arrival
+			int index = mInFlight.size();
+			while(index > 0 && mInFlight.get(index - 1).due > delayed.due)
+				index--;
+			mInFlight.add(index, delayed);
+		}
+		
+		public void deliver(DelayedPacket packet) {
+			super.transmit(ByteBuffer.wrap(packet.data), packet.address);
+		}
+		
+		@Override
+		protected long getTime() {
+			return mTime;
+		}
+	}
+	
+	private MPWorld[] mWorlds;
+	private LossySync[] mSyncs;
+	private BasicAI[] mAI;
+	private LinkedList<DelayedPacket> mInFlight = new LinkedList<DelayedPacket>();
+	private Random mRandom;
+	private float mLoss = 0;
+	private int mDelay = 0;
+	private int mJitter = 0;
+	private long mTime = 0;
+	private int mTicks = 0;
+	
+	/**
+	 * @param players number of players, from 2 to 4
+	 * @param base_port port of player 0, the others taking the following ports
+	 * @param seed seeds the packet loss and delay
+	 */
+	public UdpLoopbackHarness(String level, int players, int base_port, long seed, boolean rollback) throws IOException {
+		mRandom = new Random(seed);
+		mWorlds = new MPWorld[players];
+		mSyncs = new LossySync[players];
+		mAI = new BasicAI[players];
+		String addresses = "";
+		for(int i = 0; i < players; i++)
+			addresses += (i == 0 ? "" : ",") + "127.0.0.1:" + Integer.toString(base_port + i);
+		for(int i = 0; i < players; i++)
+		{
+			mWorlds[i] = new MPWorld(new ByteArrayInputStream(level.getBytes()), "000");
+			mSyncs[i] = new LossySync();
+			mSyncs[i].Connect(Integer.toString(i) + "@" + addresses);
+			mWorlds[i].setSync(mSyncs[i]);
+			mWorlds[i].setRollback(rollback);
+			mAI[i] = new BasicAI(AIProfile.getBuiltIn('H'));
+			mAI[i].setup(mWorlds[i], i);
+		}
+	}
+	
+	/**
+	 * Sets the network conditions
+	 * @param loss fraction of packets dropped
+	 * @param delay milliseconds every packet is delayed by
+	 * @param jitter up to this many milliseconds is added to the delay at random
+	 */
+	public void setConditions(float loss, int delay, int jitter) {
+		mLoss = loss;
+		mDelay = delay;
+		mJitter = jitter;
+	}
+	
+	/**
+	 * Runs every world for a number of ticks, each player's AI adding its messages as its
+	 * frames end
+	 */
+	public void run(int ticks) {
+		ArrayList<Message> messages = new ArrayList<Message>();
+		for(int tick = 0; tick < ticks; tick++)
+		{
+			mTime += TICK;
+			while(mInFlight.size() > 0 && mInFlight.getFirst().due <= mTime)
+			{
+				DelayedPacket packet = mInFlight.removeFirst();
+				packet.sender.deliver(packet);
+			}
+			for(int i = 0; i < mWorlds.length; i++)
+			{
+				int sent_frame = mSyncs[i].getSentFrame();
+				mWorlds[i].Tick(TICK);
+				if(mSyncs[i].getSentFrame() != sent_frame)
+				{
+					messages.clear();
+					mAI[i].generateMessages(messages);
+					for(int j = 0; j < messages.size(); j++)
+						mSyncs[i].sendMessage(messages.get(j));
+				}
+			}
+			mTicks++;
+		}
+	}
+	
+	/**
+	 * Runs until every game has finished
+	 * @return true if they all finished within max_ticks
+	 */
+	public boolean runToEnd(int max_ticks) {
+		for(int tick = 0; tick < max_ticks; tick++)
+		{
+			boolean finished = true;
+			for(int i = 0; i < mWorlds.length; i++)
+				finished &= mWorlds[i].isFinished();
+			if(finished)
+				return true;
+			run(1);
+		}
+		return false;
+	}
+	
+	public MPWorld getWorld(int player) {
+		return mWorlds[player];
+	}
+	
+	/**
+	 * @return the fraction of ticks the player's world was frozen waiting for the others
+	 */
+	public float getStallRate(int player) {
+		return mTicks == 0 ? 0 : (float)mWorlds[player].getStallCount() / mTicks;
+	}
+	
+	public void close() {
+		for(int i = 0; i < mSyncs.length; i++)
+			mSyncs[i].close();
+	}
+}
@@ -0,0 +1,134 @@
+package uk.danishcake.shokorocket.test.Networking;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import uk.danishcake.shokorocket.simulation.Direction;
+import uk.danishcake.shokorocket.simulation.MPWorld;
+
+public class UdpSyncTests extends TestCase {
+	private static final String LEVEL = "<Level><Size x=\"12\" y=\"9\"/>" +
+			"<Spawner x=\"0\" y=\"0\" d=\"East\"/><Spawner x=\"11\" y=\"8\" d=\"West\"/><Spawner x=\"6\" y=\"4\" d=\"North\"/>" +
+			"<PlayerRocket x=\"2\" y=\"2\" id=\"0\"/><PlayerRocket x=\"9\" y=\"2\" id=\"1\"/>" +
+			"<PlayerRocket x=\"2\" y=\"6\" id=\"2\"/><PlayerRocket x=\"9\" y=\"6\" id=\"3\"/></Level>";
+	
+	private void assertSameGame(UdpLoopbackHarness harness, int players) {
+		MPWorld expected = harness.getWorld(0);
+		for(int i = 1; i < players; i++)
+		{
+			MPWorld world = harness.getWorld(i);
+			assertTrue(Arrays.equals(expected.getPlayerScores(), world.getPlayerScores()));
+			assertEquals(expected.getLiveMice().size(), world.getLiveMice().size());
+			for(int j = 0; j < expected.getLiveMice().size(); j++)
+			{
+				assertEquals(expected.getLiveMice().getX(j), world.getLiveMice().getX(j));
+				assertEquals(expected.getLiveMice().getY(j), world.getLiveMice().getY(j));
+			}
+			assertEquals(expected.getLiveCats().size(), world.getLiveCats().size());
+		}
+	}
+	
+	/**
+	 * Every player must see the same game despite lost and late packets
+	 */
+	public void testLossyGamesMatch() throws IOException
+	{
+		UdpLoopbackHarness harness = new UdpLoopbackHarness(LEVEL, 4, 47310, 1, false);
+		try
+		{
+			harness.setConditions(0.1f, 60, 40);
+			assertTrue(harness.runToEnd(20000));
+			assertSameGame(harness, 4);
+			int total = 0;
+			for(int i = 0; i < 4; i++)
+				total += harness.getWorld(i).getPlayerScores()[i];
+			assertTrue(total > 0);
+			assertTrue(harness.getStallRate(0) > 0);
+			for(int i = 0; i < 4; i++)
+				assertNull(harness.getWorld(i).getDesyncReport());
+		} finally
+		{
+			harness.close();
+		}
+	}
+	
+	/**
+	 * Packets later than the two frames messages are scheduled ahead by are rolled back
+	 * for rather than waited for
+	 */
+	public void testRollbackGamesMatch() throws IOException
+	{
+		UdpLoopbackHarness harness = new UdpLoopbackHarness(LEVEL, 2, 47320, 2, true);
+		try
+		{
+			harness.setConditions(0.05f, 300, 0);
+			assertTrue(harness.runToEnd(20000));
+			assertSameGame(harness, 2);
+			assertTrue(harness.getWorld(0).getRollbackCount() > 0);
+			assertEquals(0, harness.getWorld(0).getStallCount());
+			assertNull(harness.getWorld(0).getDesyncReport());
+			assertNull(harness.getWorld(1).getDesyncReport());
+		} finally
+		{
+			harness.close();
+		}
+	}
+	
+	/**
+	 * Under rollback with latency nearly every frame ends on a prediction, so a world that
+	 * differs must be found from the checksums of frames once they are confirmed
+	 */
+	public void testDesyncDetectedWithRollback() throws IOException
+	{
+		UdpLoopbackHarness harness = new UdpLoopbackHarness(LEVEL, 2, 47340, 4, true);
+		try
+		{
+			harness.setConditions(0, 600, 40);
+			harness.run(400);
+			assertNull(harness.getWorld(0).getDesyncReport());
+			//Set every tick, as a rollback would undo it
+			for(int tick = 0; tick < 300; tick++)
+			{
+				harness.getWorld(1).setArrow(5, 7, Direction.North, 1);
+				harness.run(1);
+			}
+			for(int i = 0; i < 2; i++)
+			{
+				String report = harness.getWorld(i).getDesyncReport();
+				assertNotNull(report);
+				assertTrue(report.startsWith("Desync with player " + Integer.toString(1 - i)));
+				assertTrue(report.contains("squares DIFFERS"));
+			}
+		} finally
+		{
+			harness.close();
+		}
+	}
+	
+	/**
+	 * A change made to one player's world alone must be reported by both
+	 */
+	public void testDesyncDetected() throws IOException
+	{
+		UdpLoopbackHarness harness = new UdpLoopbackHarness(LEVEL, 2, 47330, 3, false);
+		try
+		{
+			harness.run(400);
+			assertNull(harness.getWorld(0).getDesyncReport());
+			harness.getWorld(1).toggleArrow(5, 7, Direction.North, 1);
+			harness.run(50);
+			for(int i = 0; i < 2; i++)
+			{
+				String report = harness.getWorld(i).getDesyncReport();
+				assertNotNull(report);
+				assertTrue(report.startsWith("Desync with player " + Integer.toString(1 - i)));
+				assertTrue(report.contains("random same"));
+				assertTrue(report.contains("squares DIFFERS"));
+			}
+		} finally
+		{
+			harness.close();
+		}
+	}
+}
@@ -1,15 +1,20 @@
 package uk.danishcake.shokorocket.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 
 import android.test.AndroidTestCase;
 
 import uk.danishcake.shokorocket.simulation.Direction;
 import uk.danishcake.shokorocket.simulation.SquareType;
 import uk.danishcake.shokorocket.simulation.Walker;
+import uk.danishcake.shokorocket.simulation.WorldSnapshot;
 import uk.danishcake.shokorocket.simulation.SPWorld;
+import uk.danishcake.shokorocket.simulation.SPWorld.WorldState;
 
 public class WorldTests extends AndroidTestCase {
 	public void testWorldDefaults()
@@ -379,4 +384,271 @@ public class WorldTests extends AndroidTestCase {
 		}
 
 	}
-}	
+	
+	public void testSolutionTicksToSuccess()
+	{
+		try
+		{
+			InputStream world_stream = getContext().getAssets().open("Levels/01-Original Easy/Level 23.Level");			
+			SPWorld world = new SPWorld(world_stream);
+			world.LoadSolution();
+			
+			for(int ms = 0; ms < 1000 * 240 && world.getWorldState() == WorldState.OK; ms += 50)
+			{
+				world.Tick(50);
+			}
+			assertEquals(WorldState.Success, world.getWorldState());
+			assertEquals(10, world.getRescuedMice().size());
+			assertEquals(0, world.getLiveMice().size());
+			assertEquals(0, world.getDeadMice().size());
+			
+			//Reset should return every walker to the live lists
+			world.Reset();
+			assertEquals(10, world.getLiveMice().size());
+			assertEquals(7, world.getLiveCats().size());
+			assertEquals(0, world.getRescuedMice().size());
+			assertEquals(0, world.getDeadCats().size());
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	/**
+	 * TickEvents must match repeated calls to Tick exactly, including catches part way
+	 * through a square (Level 15 is lost to a cat)
+	 */
+	public void testTickEventsMatchesTick()
+	{
+		String[] levels = {"Levels/01-Original Easy/Level 23.Level", "Levels/01-Original Easy/Level 15.Level", "Levels/01-Original Easy/Level 04.Level"};
+		try
+		{
+			for(String level : levels)
+			{
+				for(int solve = 0; solve < 2; solve++)
+				{
+					SPWorld fixed = new SPWorld(getContext().getAssets().open(level));
+					SPWorld events = new SPWorld(getContext().getAssets().open(level));
+					if(solve == 1)
+					{
+						fixed.LoadSolution();
+						events.LoadSolution();
+					}
+					int steps = 0;
+					while(steps < 4800 && fixed.getWorldState() == WorldState.OK)
+					{
+						fixed.Tick(50);
+						steps++;
+					}
+					assertEquals(level, steps, events.TickEvents(50, 4800));
+					assertEquals(level, fixed.getWorldState(), events.getWorldState());
+					assertSameWalkers(level, fixed.getLiveMice(), events.getLiveMice());
+					assertSameWalkers(level, fixed.getLiveCats(), events.getLiveCats());
+					assertSameWalkers(level, fixed.getDeadMice(), events.getDeadMice());
+					assertSameWalkers(level, fixed.getRescuedMice(), events.getRescuedMice());
+					assertSameWalkers(level, fixed.getDeadCats(), events.getDeadCats());
+				}
+			}
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	public void testVerifyDetectsLoops()
+	{
+		try
+		{
+			//Unsolved the mouse goes round in circles for ever
+			SPWorld world = new SPWorld(getContext().getAssets().open("Levels/01-Original Easy/Level 03.Level"));
+			SPWorld.VerifyResult result = world.Verify();
+			assertFalse(result.success);
+			assertTrue(result.loop_detected);
+			assertEquals(SPWorld.FailureCause.Loop, result.failure_cause);
+			assertTrue(result.simulated_time < 1000 * 240);
+			assertEquals(WorldState.OK, world.getWorldState());
+			
+			world.LoadSolution();
+			result = world.Verify();
+			assertTrue(result.success);
+			assertFalse(result.loop_detected);
+			assertEquals(SPWorld.FailureCause.None, result.failure_cause);
+			//Must finish at the same time as stepping through
+			int ms = 0;
+			while(world.getWorldState() == WorldState.OK)
+			{
+				world.Tick(50);
+				ms += 50;
+			}
+			assertEquals(ms, result.simulated_time);
+			
+			world = new SPWorld(getContext().getAssets().open("Levels/01-Original Easy/Level 23.Level"));
+			result = world.Verify();
+			assertFalse(result.success);
+			assertFalse(result.loop_detected);
+			assertEquals(SPWorld.FailureCause.MouseInHole, result.failure_cause);
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	public void testWorldLoadsElementsInAnyOrder()
+	{
+		try
+		{
+			String size_first = "<Level><Size x=\"5\" y=\"4\"/><H x=\"1\" y=\"2\"/><Mouse x=\"1\" y=\"1\" d=\"North\"/></Level>";
+			String size_last = "<Level><Mouse x=\"1\" y=\"1\" d=\"North\"/><H x=\"1\" y=\"2\"/><Size x=\"5\" y=\"4\"/></Level>";
+			SPWorld first = new SPWorld(new ByteArrayInputStream(size_first.getBytes()));
+			SPWorld last = new SPWorld(new ByteArrayInputStream(size_last.getBytes()));
+			assertEquals(5, last.getWidth());
+			assertTrue(first.getNorth(1, 2));
+			assertTrue(last.getNorth(1, 2));
+			assertEquals(1, last.getLiveMice().size());
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+		
+		try
+		{
+			new SPWorld(new ByteArrayInputStream("<Level><Mouse x=\"1\" y=\"1\" d=\"Up\"/></Level>".getBytes()));
+			fail("Invalid direction accepted");
+		}
+		catch(IOException io_ex)
+		{
+			assertEquals("Unable to load level due to XML parameter error : Unable to parse direction to enum in mouse", io_ex.getMessage());
+		}
+	}
+	
+	public void testBinaryLevelRoundTrip()
+	{
+		try
+		{
+			SPWorld world = new SPWorld(getContext().getAssets().open("Levels/01-Original Easy/Level 23.Level"));
+			world.LoadSolution();
+			ByteArrayOutputStream binary = new ByteArrayOutputStream();
+			world.SaveBinary(binary);
+			
+			SPWorld loaded = SPWorld.LoadBinary(new ByteArrayInputStream(binary.toByteArray()));
+			assertEquals(world.getLevelName(), loaded.getLevelName());
+			assertEquals(world.getAuthor(), loaded.getAuthor());
+			assertEquals(world.getWidth(), loaded.getWidth());
+			assertEquals(world.getHeight(), loaded.getHeight());
+			for(int x = 0; x < world.getWidth(); x++)
+			{
+				for(int y = 0; y < world.getHeight(); y++)
+				{
+					assertEquals(world.getNorth(x, y), loaded.getNorth(x, y));
+					assertEquals(world.getWest(x, y), loaded.getWest(x, y));
+					assertEquals(world.getHole(x, y), loaded.getHole(x, y));
+					assertEquals(world.getRocket(x, y), loaded.getRocket(x, y));
+				}
+			}
+			assertEquals(world.getLiveMice().size(), loaded.getLiveMice().size());
+			assertEquals(world.getLiveCats().size(), loaded.getLiveCats().size());
+			assertEquals(world.getSolutionLength(), loaded.getSolutionLength());
+			assertTrue(binary.size() < 256);
+			
+			loaded.LoadSolution();
+			assertTrue(loaded.Verify().success);
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	public void testBinaryLevelRejectsXML()
+	{
+		try
+		{
+			SPWorld.LoadBinary(getContext().getAssets().open("Levels/01-Original Easy/Level 23.Level"));
+			fail("XML loaded as binary level");
+		}
+		catch(IOException io_ex)
+		{
+			//Expected
+		}
+	}
+	
+	public void testSnapshotRestoresState()
+	{
+		try
+		{
+			String level = "Levels/01-Original Easy/Level 23.Level";
+			SPWorld expected = new SPWorld(getContext().getAssets().open(level));
+			SPWorld world = new SPWorld(getContext().getAssets().open(level));
+			expected.LoadSolution();
+			world.LoadSolution();
+			for(int i = 0; i < 30; i++)
+			{
+				expected.Tick(100);
+				world.Tick(100);
+			}
+			WorldSnapshot snapshot = new WorldSnapshot();
+			world.Snapshot(snapshot);
+			for(int i = 0; i < 40; i++)
+				expected.Tick(100);
+			
+			//Diverge, then each restore must carry on exactly as the original would have
+			for(int attempt = 0; attempt < 2; attempt++)
+			{
+				world.ClearArrows();
+				for(int i = 0; i < 55; i++)
+					world.Tick(100);
+				world.Restore(snapshot);
+				for(int i = 0; i < 40; i++)
+					world.Tick(100);
+				assertEquals(expected.getWorldState(), world.getWorldState());
+				assertEquals(expected.getArrowStock().size(), world.getArrowStock().size());
+				assertSameWalkers(level, expected.getLiveMice(), world.getLiveMice());
+				assertSameWalkers(level, expected.getDeadMice(), world.getDeadMice());
+				assertSameWalkers(level, expected.getRescuedMice(), world.getRescuedMice());
+				assertSameWalkers(level, expected.getLiveCats(), world.getLiveCats());
+				assertSameWalkers(level, expected.getDeadCats(), world.getDeadCats());
+				for(int x = 0; x < world.getWidth(); x++)
+				{
+					for(int y = 0; y < world.getHeight(); y++)
+						assertEquals(expected.getSpecialSquare(x, y), world.getSpecialSquare(x, y));
+				}
+				world.Restore(snapshot);
+			}
+			
+			try
+			{
+				expected.Restore(snapshot);
+				fail("Snapshot restored into another world");
+			}
+			catch(InvalidParameterException ip_ex)
+			{
+				//Expected
+			}
+		}
+		catch(IOException io_ex)
+		{
+			assertTrue("Error opening stream - " + io_ex.getMessage(), false);
+		}
+	}
+	
+	private void assertSameWalkers(String level, ArrayList<Walker> expected, ArrayList<Walker> actual)
+	{
+		assertEquals(level, expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++)
+		{
+			Walker a = expected.get(i);
+			Walker b = actual.get(i);
+			assertEquals(level, a.getStartingPosition().x, b.getStartingPosition().x);
+			assertEquals(level, a.getStartingPosition().y, b.getStartingPosition().y);
+			assertEquals(level, a.getX(), b.getX());
+			assertEquals(level, a.getY(), b.getY());
+			assertEquals(level, a.getFraction(), b.getFraction());
+			assertEquals(level, a.getDirection(), b.getDirection());
+			assertEquals(level, a.getDeathTime(), b.getDeathTime());
+		}
+	}
+}
@@ -602,4 +602,31 @@ public class WorldWalkerIntegrationTests extends TestCase {
 		assertEquals(WorldState.OK, world.getWorldState());
 		
 	}
+	
+	public void testWalkerTurnsAfterWallChange()
+	{
+		Walker walker = new Walker();
+		SPWorld world = new SPWorld();
+		walker.setWorld(world);
+		
+		//Open floor, so carries straight on
+		walker.setPosition(new Vector2i(4, 4));
+		walker.setDirection(Direction.East);
+		walker.Advance(1000);
+		assertEquals(Direction.East, walker.getDirection());
+		assertEquals(5, walker.getPosition().x);
+		
+		//Walls added after walkers have moved must still be obeyed
+		world.setEast(6, 4, true);
+		walker.Advance(1000);
+		assertEquals(6, walker.getPosition().x);
+		assertEquals(Direction.South, walker.getDirection());
+		
+		//Boxed in on all sides
+		world.setSouth(6, 4, true);
+		world.setNorth(6, 4, true);
+		world.setWest(6, 4, true);
+		world.walkerReachNewSquare(walker, 6, 4, Direction.East);
+		assertEquals(Direction.Invalid, walker.getDirection());
+	}
 }
@@ -0,0 +1,108 @@
+package uk.danishcake.shokorocket.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.danishcake.shokorocket.networking.ai.AIProfile;
+import uk.danishcake.shokorocket.networking.ai.MatchRunner;
+import uk.danishcake.shokorocket.networking.ai.MatchRunner.Distribution;
+import uk.danishcake.shokorocket.networking.ai.MatchRunner.Match;
+import uk.danishcake.shokorocket.networking.ai.MatchRunner.Result;
+
+/**
+ * Plays a tournament between AI profiles on the multiplayer levels with MatchRunner and
+ * prints the score distributions per player and per seat, so a change to a profile can be
+ * weighed before it ships in assets/AIProfiles.xml.
+ *
+ * Usage: AITournament [-profiles file] players matches threads seed level...
+ * where each level is a .Level file or a directory of them, eg assets/MultiplayerLevels
+ */
+public class AITournament {
+	private static byte[] readLevel(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try
+		{
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int read;
+			while((read = input.read(chunk)) > 0)
+				buffer.write(chunk, 0, read);
+			return buffer.toByteArray();
+		} finally
+		{
+			input.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int first = 0;
+		if(args.length >= 2 && args[0].equals("-profiles"))
+		{
+			InputStream input = new FileInputStream(args[1]);
+			try
+			{
+				AIProfile.setProfiles(AIProfile.Load(input));
+			} finally
+			{
+				input.close();
+			}
+			first = 2;
+		}
+		if(args.length < first + 5)
+		{
+			System.err.println("Usage: AITournament [-profiles file] players matches threads seed level...");
+			System.err.println("  profiles defaults to the built in ones, as in assets/AIProfiles.xml");
+			System.err.println("  players is four profile ids or 0 for none, eg EMHH, or * for every four profiles");
+			System.exit(1);
+		}
+		String players = args[first];
+		int count = Integer.parseInt(args[first + 1]);
+		int threads = Integer.parseInt(args[first + 2]);
+		long seed = Long.parseLong(args[first + 3]);
+		Map<String, byte[]> levels = new LinkedHashMap<String, byte[]>();
+		for(int i = first + 4; i < args.length; i++)
+		{
+			File path = new File(args[i]);
+			File[] files = path.isDirectory() ? path.listFiles() : new File[] {path};
+			Arrays.sort(files);
+			for(File file : files)
+			{
+				if(file.getName().endsWith(".Level"))
+					levels.put(file.getName(), readLevel(file));
+			}
+		}
+
+		long start = System.nanoTime();
+		ArrayList<Match> matches;
+		if(players.equals("*"))
+		{
+			String ids = "";
+			for(Character id : AIProfile.getProfiles().keySet())
+				ids += id;
+			matches = MatchRunner.CreateRoundRobin(ids, count, seed, levels);
+		} else
+			matches = MatchRunner.CreateMatches(players, count, seed, levels);
+		ArrayList<Result> results = MatchRunner.PlayAll(matches, threads);
+		long elapsed_ms = (System.nanoTime() - start) / 1000000;
+
+		int unfinished = 0;
+		for(Result result : results)
+		{
+			if(!result.finished)
+				unfinished++;
+		}
+		System.out.println(String.format("%d matches on %d levels in %d ms, %.1f matches/s, %d unfinished",
+				results.size(), levels.size(), elapsed_ms, results.size() * 1000.0f / Math.max(elapsed_ms, 1), unfinished));
+		for(Map.Entry<String, Distribution> entry : MatchRunner.SummarisePlayers(results).entrySet())
+			System.out.println(entry.getKey() + " " + entry.getValue());
+		for(Map.Entry<String, Distribution> entry : MatchRunner.SummariseSeats(results).entrySet())
+			System.out.println(entry.getKey() + " " + entry.getValue());
+	}
+}
@@ -0,0 +1,164 @@
+package uk.danishcake.shokorocket.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import uk.danishcake.shokorocket.simulation.SPWorld;
+
+/**
+ * Converts the XML levels in assets/Levels/<pack> and assets/TutorialLevels to the
+ * binary format read by SPWorld.LoadBinary, keeping the same folder layout under the
+ * output directory. Each converted level is loaded back and checked to save the same
+ * XML as the original.
+ *
+ * Reports per level pack the XML and binary sizes and the time to load each.
+ *
+ * Usage: LevelConverter [assets directory] [output directory]
+ */
+public class LevelConverter {
+	private static final int LOAD_REPEATS = 20; //Loads timed per level, after one to warm up
+
+	/**
+	 * Totals for a single level pack
+	 */
+	private static class PackResult
+	{
+		public int levels = 0;
+		public long xmlBytes = 0;
+		public long binaryBytes = 0;
+		public long xmlNanos = 0;
+		public long binaryNanos = 0;
+		public int mismatched = 0;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String assets = args.length > 0 ? args[0] : "../ShokoRocket/assets";
+		String output = args.length > 1 ? args[1] : "converted";
+
+		File[] packs = new File(assets, "Levels").listFiles();
+		if(packs == null)
+		{
+			System.err.println("No level packs found in " + new File(assets, "Levels").getPath());
+			System.exit(1);
+		}
+		Arrays.sort(packs);
+
+		System.out.println(String.format("%-24s %6s %10s %10s %12s %12s", "Pack", "Levels", "XML B", "Binary B", "XML us/load", "Bin us/load"));
+		int mismatched = 0;
+		for(File pack : packs)
+		{
+			if(pack.isDirectory())
+				mismatched += convertPack(pack, new File(new File(output, "Levels"), pack.getName()));
+		}
+		mismatched += convertPack(new File(assets, "TutorialLevels"), new File(output, "TutorialLevels"));
+		if(mismatched > 0)
+		{
+			System.err.println(Integer.toString(mismatched) + " levels did not convert exactly");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Converts every level in a pack
+	 * @return the number of levels that did not load back the same
+	 */
+	private static int convertPack(File pack, File output_pack) throws IOException {
+		File[] files = pack.listFiles();
+		if(files == null)
+			return 0;
+		Arrays.sort(files);
+		output_pack.mkdirs();
+		PackResult result = new PackResult();
+		for(File file : files)
+		{
+			String name = file.getName();
+			if(!name.endsWith(".Level"))
+				continue;
+			byte[] xml = readFully(file);
+			SPWorld world = new SPWorld(new ByteArrayInputStream(xml));
+			world.LoadSolution(); //Placed arrows are saved as the solution, as with Save
+			ByteArrayOutputStream binary_stream = new ByteArrayOutputStream();
+			world.SaveBinary(binary_stream);
+			byte[] binary = binary_stream.toByteArray();
+
+			File output_file = new File(output_pack, name.substring(0, name.length() - ".Level".length()) + SPWorld.BINARY_EXTENSION);
+			OutputStream output = new FileOutputStream(output_file);
+			try
+			{
+				output.write(binary);
+			} finally
+			{
+				output.close();
+			}
+
+			SPWorld converted = SPWorld.LoadBinary(new ByteArrayInputStream(binary));
+			converted.LoadSolution();
+			if(!Arrays.equals(saveXML(world), saveXML(converted)))
+			{
+				System.err.println("Mismatch converting " + file.getPath());
+				result.mismatched++;
+			}
+
+			result.levels++;
+			result.xmlBytes += xml.length;
+			result.binaryBytes += binary.length;
+			result.xmlNanos += timeLoads(xml, false);
+			result.binaryNanos += timeLoads(binary, true);
+		}
+		if(result.levels > 0)
+		{
+			System.out.println(String.format("%-24s %6d %10d %10d %12.1f %12.1f", pack.getName(), result.levels,
+					result.xmlBytes, result.binaryBytes,
+					result.xmlNanos / 1e3 / (result.levels * LOAD_REPEATS),
+					result.binaryNanos / 1e3 / (result.levels * LOAD_REPEATS)));
+		}
+		return result.mismatched;
+	}
+
+	private static long timeLoads(byte[] data, boolean binary) throws IOException {
+		load(data, binary);
+		long start = System.nanoTime();
+		for(int i = 0; i < LOAD_REPEATS; i++)
+			load(data, binary);
+		return System.nanoTime() - start;
+	}
+
+	private static SPWorld load(byte[] data, boolean binary) throws IOException {
+		if(binary)
+			return SPWorld.LoadBinary(new ByteArrayInputStream(data));
+		return new SPWorld(new ByteArrayInputStream(data));
+	}
+
+	private static byte[] saveXML(SPWorld world) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		world.Save(output);
+		return output.toByteArray();
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		InputStream input = new FileInputStream(file);
+		try
+		{
+			int offset = 0;
+			while(offset < data.length)
+			{
+				int read = input.read(data, offset, data.length - offset);
+				if(read < 0)
+					break;
+				offset += read;
+			}
+		} finally
+		{
+			input.close();
+		}
+		return data;
+	}
+}
@@ -0,0 +1,215 @@
+package uk.danishcake.shokorocket.tools;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.danishcake.shokorocket.simulation.SPWorld;
+
+/**
+ * Checks every level in bulk. Each level is parsed, has its stored solution placed
+ * with LoadSolution() and is run with SPWorld.Verify(). Levels are independent, so
+ * each is handled by its own task with its own SPWorld on a pool with a thread per core.
+ *
+ * Levels are read from assets/Levels/<pack>, assets/TutorialLevels and any user
+ * folders given, which are laid out like ShokoRocket on the SD card (a folder per pack).
+ * Both XML levels and those in the binary format are checked.
+ *
+ * Reports per level:
+ * OK           - the stored solution succeeds. Levels without one are run with no arrows
+ * NO SOLUTION  - the level has no stored solution and fails with no arrows, with the cause
+ * UNSOLVABLE   - the stored solution fails, with the cause
+ * PARSE ERROR  - the level could not be loaded
+ * CRASHED      - the simulation threw while checking the level
+ *
+ * Exits with 1 if any level is unsolvable, fails to parse or crashes.
+ *
+ * Usage: LevelValidator [assets directory] [user folder...]
+ */
+public class LevelValidator {
+	private enum Status
+	{
+		OK, NoSolution, Unsolvable, ParseError, Crashed
+	}
+
+	/**
+	 * The outcome of checking a single level
+	 */
+	private static class LevelReport
+	{
+		public Status status;
+		public String detail = "";
+		public long parseNanos = 0;
+		public long simulateNanos = 0;
+		public int simulatedMs = 0;
+	}
+
+	/**
+	 * Loads and verifies one level
+	 */
+	private static class ValidateTask implements Callable<LevelReport>
+	{
+		private File mFile;
+
+		public ValidateTask(File file) {
+			mFile = file;
+		}
+
+		public LevelReport call() {
+			LevelReport report = new LevelReport();
+			long start = System.nanoTime();
+			SPWorld world;
+			try
+			{
+				InputStream input = new FileInputStream(mFile);
+				try
+				{
+					world = mFile.getName().endsWith(SPWorld.BINARY_EXTENSION) ? SPWorld.LoadBinary(input) : new SPWorld(input);
+				} finally
+				{
+					input.close();
+				}
+			} catch(Exception ex)
+			{
+				//Loading reports bad levels through a mix of IO, parser and parameter exceptions
+				report.status = Status.ParseError;
+				report.detail = ex.getClass().getSimpleName() + ": " + ex.getMessage();
+				report.parseNanos = System.nanoTime() - start;
+				return report;
+			}
+			long parsed = System.nanoTime();
+			report.parseNanos = parsed - start;
+
+			//Some levels are solved without placing any arrows, so have no stored solution
+			world.LoadSolution();
+			SPWorld.VerifyResult result = world.Verify();
+			report.simulateNanos = System.nanoTime() - parsed;
+			report.simulatedMs = result.simulated_time;
+			if(result.success)
+			{
+				report.status = Status.OK;
+			} else
+			{
+				report.status = world.getSolutionLength() == 0 ? Status.NoSolution : Status.Unsolvable;
+				report.detail = result.failure_cause.toString();
+			}
+			return report;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		String assets = args.length > 0 ? args[0] : "../ShokoRocket/assets";
+
+		ArrayList<File> files = new ArrayList<File>();
+		File[] packs = new File(assets, "Levels").listFiles();
+		if(packs == null)
+		{
+			System.err.println("No level packs found in " + new File(assets, "Levels").getPath());
+			System.exit(1);
+		}
+		addPacks(files, packs);
+		addLevels(files, new File(assets, "TutorialLevels"));
+		for(int i = 1; i < args.length; i++)
+		{
+			File[] user_packs = new File(args[i]).listFiles(new FileFilter() {
+				public boolean accept(File pathname) {
+					return pathname.isDirectory() && !pathname.getName().equals("Music");
+				}
+			});
+			if(user_packs == null)
+			{
+				System.err.println("User folder not found: " + args[i]);
+				System.exit(1);
+			}
+			addPacks(files, user_packs);
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		ArrayList<Future<LevelReport>> futures = new ArrayList<Future<LevelReport>>();
+		for(File file : files)
+		{
+			futures.add(pool.submit(new ValidateTask(file)));
+		}
+
+		int[] counts = new int[Status.values().length];
+		long cpu_nanos = 0;
+		System.out.println(String.format("%-12s %9s %9s %9s  %s", "Status", "parse ms", "sim ms", "level ms", "Level"));
+		for(int i = 0; i < files.size(); i++)
+		{
+			LevelReport report;
+			try
+			{
+				report = futures.get(i).get();
+			} catch(ExecutionException ex)
+			{
+				//Simulation bugs show up here rather than killing the whole run
+				report = new LevelReport();
+				report.status = Status.Crashed;
+				report.detail = ex.getCause().toString();
+			}
+			counts[report.status.ordinal()]++;
+			cpu_nanos += report.parseNanos + report.simulateNanos;
+			System.out.println(String.format("%-12s %9.2f %9.2f %9d  %s%s",
+					statusName(report.status), report.parseNanos / 1e6, report.simulateNanos / 1e6,
+					report.simulatedMs, files.get(i).getPath(), report.detail.length() > 0 ? " - " + report.detail : ""));
+		}
+		pool.shutdown();
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(String.format("%d levels on %d threads in %.1fms (%.1fms of work): %d ok, %d no solution, %d unsolvable, %d parse errors, %d crashed",
+				files.size(), threads, elapsed / 1e6, cpu_nanos / 1e6,
+				counts[Status.OK.ordinal()], counts[Status.NoSolution.ordinal()],
+				counts[Status.Unsolvable.ordinal()], counts[Status.ParseError.ordinal()],
+				counts[Status.Crashed.ordinal()]));
+		if(counts[Status.Unsolvable.ordinal()] > 0 || counts[Status.ParseError.ordinal()] > 0 ||
+		   counts[Status.Crashed.ordinal()] > 0)
+			System.exit(1);
+	}
+
+	private static void addPacks(ArrayList<File> files, File[] packs) {
+		Arrays.sort(packs);
+		for(File pack : packs)
+		{
+			if(pack.isDirectory())
+				addLevels(files, pack);
+		}
+	}
+
+	private static void addLevels(ArrayList<File> files, File pack) {
+		File[] levels = pack.listFiles();
+		if(levels == null)
+			return;
+		Arrays.sort(levels);
+		for(File level : levels)
+		{
+			if(level.getName().endsWith(".Level") || level.getName().endsWith(SPWorld.BINARY_EXTENSION))
+				files.add(level);
+		}
+	}
+
+	private static String statusName(Status status) {
+		switch(status)
+		{
+		case OK:
+			return "OK";
+		case NoSolution:
+			return "NO SOLUTION";
+		case Unsolvable:
+			return "UNSOLVABLE";
+		case Crashed:
+			return "CRASHED";
+		default:
+			return "PARSE ERROR";
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package uk.danishcake.shokorocket.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import uk.danishcake.shokorocket.simulation.SPWorld;
+import uk.danishcake.shokorocket.simulation.SPWorld.WorldState;
+
+/**
+ * Headless benchmark of the single player simulation. Every level in each pack under
+ * assets/Levels is loaded through SPWorld(InputStream), has its stored solution placed
+ * with LoadSolution() and is then ticked until it succeeds or fails.
+ *
+ * Reports per level pack:
+ * ops/s      - complete level runs (parse + solve + simulate) per second
+ * ns/sim-ms  - wall clock nanoseconds spent in SPWorld.Tick per simulated millisecond
+ * B/op       - bytes allocated per level run
+ * MB/s       - allocation rate while running
+ *
+ * Usage: SimulationBenchmark [assets directory] [warmup iterations] [measured iterations]
+ */
+public class SimulationBenchmark {
+	private static final int TICK_TIMESPAN = 50; //Same step as ModeEditor.Verify
+	private static final int MAX_SIMULATED_TIME = 1000 * 240;
+
+	/**
+	 * A level held in memory so disk access is not measured
+	 */
+	private static class LevelData
+	{
+		public String name;
+		public byte[] data;
+	}
+
+	/**
+	 * Accumulated measurements for a single level pack
+	 */
+	private static class PackResult
+	{
+		public String name;
+		public int ops = 0;
+		public long totalNanos = 0;
+		public long parseNanos = 0;
+		public long tickNanos = 0;
+		public long simulatedMs = 0;
+		public long allocatedBytes = 0;
+		public int succeeded = 0;
+		public int failed = 0;
+		public int timedOut = 0;
+	}
+
+	private static ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+	private static boolean mAllocationSupported = false;
+	private static long mBlackhole = 0;
+
+	public static void main(String[] args) throws IOException {
+		String assets = args.length > 0 ? args[0] : "../ShokoRocket/assets";
+		int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		File levels_root = new File(assets, "Levels");
+		File[] packs = levels_root.listFiles();
+		if(packs == null)
+		{
+			System.err.println("No level packs found in " + levels_root.getPath());
+			System.exit(1);
+		}
+		Arrays.sort(packs);
+		enableAllocationCounting();
+
+		System.out.println(String.format("%-24s %6s %10s %12s %12s %12s %10s  %s",
+				"Pack", "Levels", "ops/s", "parse us/op", "ns/sim-ms", "B/op", "MB/s", "Success/Failed/Timeout"));
+		PackResult total = new PackResult();
+		total.name = "All";
+		int total_levels = 0;
+		for(File pack : packs)
+		{
+			if(!pack.isDirectory())
+				continue;
+			ArrayList<LevelData> levels = loadPack(pack);
+			if(levels.size() == 0)
+				continue;
+
+			//Warm up the JIT then discard
+			for(int i = 0; i < warmup; i++)
+			{
+				PackResult discard = new PackResult();
+				runPack(levels, discard);
+			}
+			PackResult result = new PackResult();
+			result.name = pack.getName();
+			for(int i = 0; i < iterations; i++)
+			{
+				runPack(levels, result);
+			}
+			//Outcomes are the same every iteration, so report a single iteration's worth
+			result.succeeded /= iterations;
+			result.failed /= iterations;
+			result.timedOut /= iterations;
+			print(result, levels.size());
+
+			accumulate(total, result);
+			total_levels += levels.size();
+		}
+		print(total, total_levels);
+		//Printed so that the JIT cannot discard the simulation
+		System.out.println("Checksum " + Long.toHexString(mBlackhole));
+	}
+
+	/**
+	 * Reads every level in a pack into memory
+	 */
+	private static ArrayList<LevelData> loadPack(File pack) throws IOException {
+		ArrayList<LevelData> levels = new ArrayList<LevelData>();
+		File[] files = pack.listFiles();
+		Arrays.sort(files);
+		for(File file : files)
+		{
+			if(!file.getName().endsWith(".Level"))
+				continue;
+			LevelData level = new LevelData();
+			level.name = file.getName();
+			level.data = readFully(file);
+			levels.add(level);
+		}
+		return levels;
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		InputStream input = new FileInputStream(file);
+		try
+		{
+			int offset = 0;
+			while(offset < data.length)
+			{
+				int read = input.read(data, offset, data.length - offset);
+				if(read < 0)
+					break;
+				offset += read;
+			}
+		} finally
+		{
+			input.close();
+		}
+		return data;
+	}
+
+	/**
+	 * Runs each level in the pack once, adding timings to result
+	 */
+	private static void runPack(ArrayList<LevelData> levels, PackResult result) throws IOException {
+		long allocated_start = allocatedBytes();
+		for(LevelData level : levels)
+		{
+			long start = System.nanoTime();
+			SPWorld world = new SPWorld(new ByteArrayInputStream(level.data));
+			world.LoadSolution();
+			long parsed = System.nanoTime();
+
+			int simulated = 0;
+			while(simulated < MAX_SIMULATED_TIME && world.getWorldState() == WorldState.OK)
+			{
+				world.Tick(TICK_TIMESPAN);
+				simulated += TICK_TIMESPAN;
+			}
+			long end = System.nanoTime();
+
+			result.ops++;
+			result.parseNanos += parsed - start;
+			result.tickNanos += end - parsed;
+			result.totalNanos += end - start;
+			result.simulatedMs += simulated;
+			switch(world.getWorldState())
+			{
+			case Success:
+				result.succeeded++;
+				break;
+			case Failed:
+				result.failed++;
+				break;
+			default:
+				result.timedOut++;
+				break;
+			}
+			mBlackhole = mBlackhole * 31 + world.getRescuedMice().size() + simulated;
+		}
+		long allocated_end = allocatedBytes();
+		if(allocated_start >= 0 && allocated_end >= 0)
+			result.allocatedBytes += allocated_end - allocated_start;
+	}
+
+	private static void accumulate(PackResult total, PackResult result) {
+		total.ops += result.ops;
+		total.totalNanos += result.totalNanos;
+		total.parseNanos += result.parseNanos;
+		total.tickNanos += result.tickNanos;
+		total.simulatedMs += result.simulatedMs;
+		total.allocatedBytes += result.allocatedBytes;
+		total.succeeded += result.succeeded;
+		total.failed += result.failed;
+		total.timedOut += result.timedOut;
+	}
+
+	private static void print(PackResult result, int level_count) {
+		double seconds = result.totalNanos / 1e9;
+		double ops_per_second = result.ops / seconds;
+		double parse_us = result.parseNanos / 1e3 / result.ops;
+		double ns_per_ms = result.simulatedMs == 0 ? 0 : (double)result.tickNanos / result.simulatedMs;
+		String bytes_per_op = mAllocationSupported ? Long.toString(result.allocatedBytes / result.ops) : "n/a";
+		String mb_per_second = mAllocationSupported ? String.format("%.1f", result.allocatedBytes / seconds / (1024 * 1024)) : "n/a";
+		System.out.println(String.format("%-24s %6d %10.1f %12.1f %12.1f %12s %10s  %d/%d/%d",
+				result.name, level_count, ops_per_second, parse_us, ns_per_ms, bytes_per_op, mb_per_second,
+				result.succeeded, result.failed, result.timedOut));
+	}
+
+	/**
+	 * Allocation counting is a HotSpot extension, so only used if present
+	 */
+	private static void enableAllocationCounting() {
+		if(mThreadBean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)mThreadBean;
+			if(bean.isThreadAllocatedMemorySupported())
+			{
+				bean.setThreadAllocatedMemoryEnabled(true);
+				mAllocationSupported = true;
+			}
+		}
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, or -1 if unsupported
+	 */
+	private static long allocatedBytes() {
+		if(!mAllocationSupported)
+			return -1;
+		return ((com.sun.management.ThreadMXBean)mThreadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}